@@ -4,11 +4,15 @@ import android.app.Activity;
 import android.os.Bundle;
 import android.view.View;
 
+import com.malakhv.preference.PreferencePreloader;
+
 public class MainActivity extends Activity implements View.OnClickListener {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Load preferences in background, while the activity is inflating its layout
+        PreferencePreloader.preloadDefault(this);
         setContentView(R.layout.activity_main);
     }
 
@@ -1,16 +1,19 @@
 package com.malakhv.libs.preference.test;
 
 import android.os.Bundle;
-import android.preference.PreferenceFragment;
+
+import com.malakhv.preference.CompiledPreferences;
+import com.malakhv.preference.RecyclerPreferenceFragment;
 
 /**
  * Created by malakhv on 16.06.2016.
  */
-public class SettingsFragment extends PreferenceFragment {
+public class SettingsFragment extends RecyclerPreferenceFragment {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        addPreferencesFromResource(R.xml.preference);
+        CompiledPreferenceScreens.register();
+        CompiledPreferences.addPreferencesFromResource(this, R.xml.preference);
     }
 }
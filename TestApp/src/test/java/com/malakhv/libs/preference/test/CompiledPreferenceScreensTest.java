@@ -0,0 +1,132 @@
+package com.malakhv.libs.preference.test;
+
+import android.app.Activity;
+import android.preference.Preference;
+import android.preference.PreferenceFragment;
+import android.preference.PreferenceGroup;
+import android.view.InflateException;
+
+import com.malakhv.preference.CachedAccessibilityManager;
+import com.malakhv.preference.CompiledPreferences;
+import com.malakhv.preference.MultilinePreference;
+import com.malakhv.preference.SeekBarDialog;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of the preference screens, that preference-compiler.gradle compiles from res/xml.
+ * They run on the JVM, with Robolectric.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, shadows = CachedAccessibilityManager.class)
+public class CompiledPreferenceScreensTest {
+
+    /** The activity, that hosts the preference fragments. */
+    private Activity mActivity;
+
+    @Before
+    public void setUp() {
+        CompiledPreferenceScreens.register();
+        mActivity = Robolectric.setupActivity(Activity.class);
+    }
+
+    @Test
+    public void sampleScreenIsCompiled() {
+        assertTrue(CompiledPreferences.isCompiled(R.xml.preference));
+    }
+
+    @Test
+    public void compiledScreenMatchesXml() {
+        final PreferenceFragment compiled = addFragment();
+        CompiledPreferences.addPreferencesFromResource(compiled, R.xml.preference);
+        final PreferenceFragment inflated = addFragment();
+        inflated.addPreferencesFromResource(R.xml.preference);
+        assertNotNull(compiled.getPreferenceScreen());
+        assertSameTree(inflated.getPreferenceScreen(), compiled.getPreferenceScreen());
+    }
+
+    @Test
+    public void customPreferenceIsInflatedInPlace() {
+        final PreferenceFragment fragment = addFragment();
+        CompiledPreferences.addPreferencesFromResource(fragment, R.xml.preference);
+        final Preference preference = fragment.findPreference("test_dialog_fragment_pref_key");
+        assertTrue(preference instanceof TestDialogFragmentPref);
+        // The custom preference reads its attributes from XML, as it does at runtime
+        assertEquals("Dialog Fragment Preference", preference.getTitle().toString());
+        assertEquals("Any summary for this preference", preference.getSummary().toString());
+        final PreferenceGroup category = (PreferenceGroup) fragment.getPreferenceScreen()
+                .getPreference(2);
+        assertSame(preference, category.getPreference(0));
+    }
+
+    @Test(expected = InflateException.class)
+    public void missingElementIsNotInflated() {
+        CompiledPreferences.inflateElement(mActivity, R.xml.preference, 1000);
+    }
+
+    /**
+     * Adds the new preference fragment to the activity.
+     */
+    private PreferenceFragment addFragment() {
+        final PreferenceFragment fragment = new HostFragment();
+        mActivity.getFragmentManager().beginTransaction().add(fragment, null).commit();
+        mActivity.getFragmentManager().executePendingTransactions();
+        return fragment;
+    }
+
+    /**
+     * Checks that both preference trees have the same classes, keys, titles and summaries.
+     */
+    private static void assertSameTree(Preference expected, Preference actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(unescape(expected.getTitle()), toString(actual.getTitle()));
+        assertEquals(unescape(expected.getSummary()), toString(actual.getSummary()));
+        assertEquals(expected.isPersistent(), actual.isPersistent());
+        if (expected instanceof MultilinePreference) {
+            assertEquals(((MultilinePreference) expected).getGravity(),
+                    ((MultilinePreference) actual).getGravity());
+        }
+        if (expected instanceof SeekBarDialog) {
+            assertEquals(((SeekBarDialog) expected).getValue(),
+                    ((SeekBarDialog) actual).getValue());
+        }
+        if (!(expected instanceof PreferenceGroup)) return;
+        final PreferenceGroup expectedGroup = (PreferenceGroup) expected;
+        final PreferenceGroup actualGroup = (PreferenceGroup) actual;
+        assertEquals(expectedGroup.getPreferenceCount(), actualGroup.getPreferenceCount());
+        for (int i = 0; i < expectedGroup.getPreferenceCount(); i++) {
+            assertSameTree(expectedGroup.getPreference(i), actualGroup.getPreference(i));
+        }
+    }
+
+    /**
+     * Returns specified text as string, or null.
+     */
+    private static String toString(CharSequence text) {
+        return text != null ? text.toString() : null;
+    }
+
+    /**
+     * Returns specified text inflated from XML, as aapt would compile it. Robolectric reads the
+     * attribute values from XML as they are, without aapt's escaping.
+     */
+    private static String unescape(CharSequence text) {
+        return text != null ? text.toString().replace("\\n", "\n") : null;
+    }
+
+    /**
+     * The fragment, that hosts the preferences under test.
+     */
+    public static class HostFragment extends PreferenceFragment {}
+}
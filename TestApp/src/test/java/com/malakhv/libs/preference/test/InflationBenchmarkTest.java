@@ -0,0 +1,72 @@
+package com.malakhv.libs.preference.test;
+
+import android.app.Activity;
+import android.preference.PreferenceFragment;
+
+import com.malakhv.preference.Benchmark;
+import com.malakhv.preference.CachedAccessibilityManager;
+import com.malakhv.preference.CompiledPreferences;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The benchmark of the inflation of preference.xml, from XML and from the compiled screen. It
+ * runs on the JVM, with Robolectric, please see {@code xPrefLib/benchmark.gradle}. The main looper
+ * is paused, so the list of the screen is synced once per inflation, as it is on a device, not
+ * once per added preference.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, shadows = CachedAccessibilityManager.class)
+public class InflationBenchmarkTest {
+
+    /** The number of inflations per run. */
+    private static final int INFLATIONS = 20;
+
+    @Test
+    public void measureInflation() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        CompiledPreferenceScreens.register();
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        final PreferenceFragment fragment = new CompiledPreferenceScreensTest.HostFragment();
+        activity.getFragmentManager().beginTransaction().add(fragment, null).commit();
+        activity.getFragmentManager().executePendingTransactions();
+        final Runnable xml = new Runnable() {
+            @Override
+            public void run() {
+                fragment.setPreferenceScreen(fragment.getPreferenceManager()
+                        .createPreferenceScreen(activity));
+                fragment.addPreferencesFromResource(R.xml.preference);
+                ShadowLooper.idleMainLooper();
+            }
+        };
+        final Runnable compiled = new Runnable() {
+            @Override
+            public void run() {
+                fragment.setPreferenceScreen(fragment.getPreferenceManager()
+                        .createPreferenceScreen(activity));
+                CompiledPreferences.addPreferencesFromResource(fragment, R.xml.preference);
+                ShadowLooper.idleMainLooper();
+            }
+        };
+        ShadowLooper.pauseMainLooper();
+        try {
+            benchmark.measure("inflate_preference_xml", INFLATIONS, xml);
+            final int count = fragment.getPreferenceScreen().getPreferenceCount();
+            benchmark.measure("inflate_preference_compiled", INFLATIONS, compiled);
+            assertEquals(count, fragment.getPreferenceScreen().getPreferenceCount());
+        } finally {
+            ShadowLooper.unPauseMainLooper();
+        }
+        benchmark.write();
+    }
+
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The coalesced asynchronous persistence for library preferences. Writes are buffered in memory,
+ * repeated writes to the same key are merged, and all pending writes are flushed in one batched
+ * write per {@link SharedPreferences} file in the background thread. Reads through this class
+ * always see the latest pending value.
+ * <p>Use {@link #flush()} to start writing right now (for example, when the application goes to
+ * background) and {@link #await(long, TimeUnit)} to wait until all pending writes are done (for
+ * example, in tests).</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class AsyncPersistence {
+
+    /** The delay before pending writes will be flushed, in milliseconds. */
+    public static final long FLUSH_DELAY = 250;
+
+    /** The lock for all pending writes. */
+    private static final Object sLock = new Object();
+
+    /** The pending writes, grouped by {@link SharedPreferences} file. */
+    private static final Map<SharedPreferences, Map<String, Object>> sPending =
+            new HashMap<SharedPreferences, Map<String, Object>>();
+
+    /** The scheduled flush task, or null if there is no scheduled flush. */
+    private static Future<?> sScheduled = null;
+
+    /** The use async persistence by default, or not. */
+    private static volatile boolean sEnabledByDefault = false;
+
+    /** The task that writes all pending values. */
+    private static final Runnable sFlushTask = new Runnable() {
+        @Override
+        public void run() { write(); }
+    };
+
+    private AsyncPersistence() {}
+
+    /**
+     * Sets whether library preferences should use async persistence by default. It affects only
+     * preferences that will be created after this call, so call it as early as possible, for
+     * example, from {@code Application.onCreate()}.
+     * */
+    public static void setEnabledByDefault(boolean enabled) { sEnabledByDefault = enabled; }
+
+    /**
+     * Returns true, if library preferences use async persistence by default.
+     * */
+    public static boolean isEnabledByDefault() { return sEnabledByDefault; }
+
+    /**
+     * Puts the int value to the pending writes and schedules the flush.
+     * */
+    static void putInt(SharedPreferences prefs, String key, int value) { // package access
+        put(prefs, key, value);
+    }
+
+    /**
+     * Returns the int value for specified key, the latest pending value has priority.
+     * */
+    static int getInt(SharedPreferences prefs, String key, int defValue) {
+        final Object value = getPending(prefs, key);
+        if (value instanceof Integer) return (Integer) value;
+        return prefs.getInt(key, defValue);
+    }
+
+    /**
+     * Puts the value to the pending writes and schedules the flush.
+     * */
+    private static void put(SharedPreferences prefs, String key, Object value) {
+        if (prefs == null || key == null) return;
+        synchronized (sLock) {
+            Map<String, Object> values = sPending.get(prefs);
+            if (values == null) {
+                values = new HashMap<String, Object>();
+                sPending.put(prefs, values);
+            }
+            values.put(key, value);
+            if (sScheduled == null) {
+                sScheduled = BackgroundExecutor.get().schedule(sFlushTask, FLUSH_DELAY,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Returns the pending value for specified key, or null.
+     * */
+    private static Object getPending(SharedPreferences prefs, String key) {
+        synchronized (sLock) {
+            final Map<String, Object> values = sPending.get(prefs);
+            return values != null ? values.get(key) : null;
+        }
+    }
+
+    /**
+     * Returns true, if there are any pending writes.
+     * */
+    public static boolean hasPendingWrites() {
+        synchronized (sLock) { return !sPending.isEmpty(); }
+    }
+
+    /**
+     * Starts writing of all pending values right now, without waiting.
+     * */
+    public static void flush() {
+        synchronized (sLock) {
+            if (sScheduled != null) sScheduled.cancel(false);
+            sScheduled = BackgroundExecutor.get().submit(sFlushTask);
+        }
+    }
+
+    /**
+     * Starts writing of all pending values and waits until they will be written to disk. Should
+     * not be called from the main thread.
+     * @return True, if all pending values were written, or false if the timeout elapsed.
+     * */
+    public static boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        flush();
+        // The executor is single threaded, so this task will be done after all writes
+        final Future<?> done = BackgroundExecutor.get().submit(new Runnable() {
+            @Override
+            public void run() { /* do nothing */ }
+        });
+        try {
+            done.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes all pending values in one batch per {@link SharedPreferences} file. The values stay
+     * pending until they are written, so reads always see the latest value.
+     * */
+    private static void write() {
+        final List<SharedPreferences> files;
+        synchronized (sLock) {
+            sScheduled = null;
+            if (sPending.isEmpty()) return;
+            files = new ArrayList<SharedPreferences>(sPending.keySet());
+        }
+        for (SharedPreferences prefs: files) {
+            final Map<String, Object> values;
+            synchronized (sLock) {
+                final Map<String, Object> pending = sPending.get(prefs);
+                if (pending == null) continue;
+                values = new HashMap<String, Object>(pending);
+            }
+            final long start = PreferenceTracing.begin(PreferenceMetrics.EVENT_PERSIST_BATCH);
+            try {
+                final SharedPreferences.Editor editor = prefs.edit();
+                for (Map.Entry<String, Object> entry: values.entrySet()) {
+                    putValue(editor, entry.getKey(), entry.getValue());
+                }
+                editor.commit();
+            } finally {
+                PreferenceTracing.end(PreferenceMetrics.EVENT_PERSIST_BATCH, null, start);
+            }
+            synchronized (sLock) {
+                final Map<String, Object> pending = sPending.get(prefs);
+                if (pending == null) continue;
+                // Remove only values that were not changed during writing
+                for (Map.Entry<String, Object> entry: values.entrySet()) {
+                    if (pending.get(entry.getKey()) == entry.getValue()) {
+                        pending.remove(entry.getKey());
+                    }
+                }
+                if (pending.isEmpty()) sPending.remove(prefs);
+            }
+        }
+    }
+
+    /**
+     * Puts the value of the supported type to the {@link SharedPreferences.Editor}.
+     * */
+    static void putValue(SharedPreferences.Editor editor, String key, Object value) {
+        if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        } else if (value instanceof String) {
+            editor.putString(key, (String) value);
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.os.Process;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The background executor that used by this library for disk operations. All tasks are executed
+ * one by one, in order, in the single background thread.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+final class BackgroundExecutor { // package access
+
+    /** The name of background thread. */
+    private static final String THREAD_NAME = "xPreference-background";
+
+    /** The executor, will be created on first use. */
+    private static ScheduledExecutorService sExecutor = null;
+
+    private BackgroundExecutor() {}
+
+    /**
+     * Returns the background executor.
+     * */
+    static synchronized ScheduledExecutorService get() {
+        if (sExecutor == null) {
+            sExecutor = new ScheduledThreadPoolExecutor(1, new BackgroundThreadFactory());
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Creates the daemon threads with background priority.
+     * */
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.preference.Preference;
+import android.preference.PreferenceFragment;
+import android.preference.PreferenceGroup;
+import android.preference.PreferenceScreen;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.util.Xml;
+import android.view.InflateException;
+
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * The registry of preference screens that were compiled from XML into Java code at build time,
+ * please see {@code preference-compiler.gradle}. The compiled screen constructs all preferences
+ * directly, without reflection and XML parsing. If there is no compiled screen for XML resource,
+ * the runtime XML inflation is used. The elements, that the compiler doesn't support, for example
+ * custom preferences, are inflated from XML one by one, in their place in the compiled screen,
+ * please see {@link #inflateElement(Context, int, int)}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class CompiledPreferences {
+
+    /** The package of framework preferences, that can be specified by their short names. */
+    private static final String FRAMEWORK_PACKAGE = "android.preference.";
+
+    /** The compiled screens, by XML resource id. */
+    private static final SparseArray<Factory> sFactories = new SparseArray<Factory>();
+
+    private CompiledPreferences() {}
+
+    /**
+     * Registers the compiled screen for specified XML resource. Usually, it's called by generated
+     * code.
+     * */
+    public static synchronized void register(int xmlRes, Factory factory) {
+        sFactories.put(xmlRes, factory);
+    }
+
+    /**
+     * Returns the compiled screen for specified XML resource, or null.
+     * */
+    public static synchronized Factory getFactory(int xmlRes) { return sFactories.get(xmlRes); }
+
+    /**
+     * Returns true, if there is the compiled screen for specified XML resource.
+     * */
+    public static boolean isCompiled(int xmlRes) { return getFactory(xmlRes) != null; }
+
+    /**
+     * Inflates the preferences from specified XML resource and adds them to the preference
+     * hierarchy of specified fragment. The compiled screen is used if it exists, otherwise this
+     * method just calls {@link PreferenceFragment#addPreferencesFromResource(int)}.
+     * */
+    public static void addPreferencesFromResource(PreferenceFragment fragment, int xmlRes) {
+        final Factory factory = getFactory(xmlRes);
+        if (factory == null) {
+            fragment.addPreferencesFromResource(xmlRes);
+            return;
+        }
+        final Context context = fragment.getActivity();
+        PreferenceScreen screen = fragment.getPreferenceScreen();
+        if (screen == null) {
+            screen = fragment.getPreferenceManager().createPreferenceScreen(context);
+            factory.inflate(context, screen);
+            fragment.setPreferenceScreen(screen);
+        } else {
+            factory.inflate(context, screen);
+        }
+    }
+
+    /**
+     * Inflates the preference of specified element of XML resource at runtime, as
+     * {@code PreferenceInflater} does: the element's class is constructed by its
+     * {@code (Context, AttributeSet)} constructor, so it reads all its attributes. The element
+     * should have no children. Usually, it's called by generated code, for the elements that the
+     * compiler doesn't support.
+     * @param element The index of the element in the document order, the root element is 0.
+     * @throws InflateException If there is no such element, or it can't be inflated.
+     * */
+    public static Preference inflateElement(Context context, int xmlRes, int element) {
+        final XmlResourceParser parser = context.getResources().getXml(xmlRes);
+        try {
+            int index = -1;
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type == XmlPullParser.START_TAG && ++index == element) {
+                    return createPreference(context, parser.getName(),
+                            Xml.asAttributeSet(parser));
+                }
+            }
+            throw new InflateException("There is no element " + element + " in the resource");
+        } catch (InflateException e) {
+            throw e;
+        } catch (Exception e) {
+            final InflateException error = new InflateException(parser.getPositionDescription()
+                    + ": Error inflating the element " + element);
+            error.initCause(e);
+            throw error;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Creates the preference of specified class name, the framework preferences can be specified
+     * by their short names.
+     * */
+    private static Preference createPreference(Context context, String name, AttributeSet attrs)
+            throws Exception {
+        final String className = name.indexOf('.') < 0 ? FRAMEWORK_PACKAGE + name : name;
+        final Class<? extends Preference> cls = Class.forName(className, false,
+                context.getClassLoader()).asSubclass(Preference.class);
+        return cls.getConstructor(Context.class, AttributeSet.class).newInstance(context, attrs);
+    }
+
+    /**
+     * The compiled preference screen.
+     * */
+    public interface Factory {
+
+        /**
+         * Constructs all preferences of the screen and adds them to specified root group. The
+         * root group should be attached to the preference hierarchy already.
+         * */
+        void inflate(Context context, PreferenceGroup root);
+    }
+
+}
@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.Preference;
+import android.preference.PreferenceGroup;
+import android.preference.PreferenceManager;
+import android.preference.PreferenceScreen;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The precomputed graph of dependencies between preferences of one preference hierarchy. Each
+ * preference is indexed once, and its dependents are stored in one flat array, so dependents are
+ * found without any lookup by key.
+ * <p>When the graph is attached to a preference screen by {@link #attach(PreferenceScreen)},
+ * the library's preferences resolve their dependency changes through it: the affected subtree is
+ * walked in a single pass, without recursion, the walk stops at preferences whose own dependents
+ * state did not change, and all change notifications are merged, as in
+ * {@link PreferenceTransaction}. Dependents of other preferences are notified by the framework,
+ * as usual.</p>
+ * <p>The graph is not updated automatically, so {@link #rebuild()} should be called after the
+ * hierarchy or dependencies of attached screen are changed. The attached graph is referenced
+ * weakly, so the caller should keep it while the screen is shown, for example in a field of the
+ * host fragment, and the graph is detached when it's garbage collected. Also, the graph can be
+ * built without attaching, for inspection and cycle detection, please see
+ * {@link #build(PreferenceGroup)} and {@link #findCycle()}. All methods should be called from
+ * the main thread.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class DependencyGraph {
+
+    /**
+     * The attached graphs, by preference manager. The graph references the hierarchy, and so the
+     * manager, so it's referenced weakly, otherwise entries would never be cleared.
+     * */
+    private static final Map<PreferenceManager, WeakReference<DependencyGraph>> sGraphs =
+            new WeakHashMap<PreferenceManager, WeakReference<DependencyGraph>>();
+
+    /** The preference that is notified by the running propagation, or null. */
+    private static Preference sNotifying = null;
+
+    /** True, if the notified preference deferred the notification of its dependents. */
+    private static boolean sDeferred = false;
+
+    /** The root of the hierarchy. */
+    private final PreferenceGroup mRoot;
+
+    /** The preferences, by index. */
+    private Preference[] mNodes = new Preference[0];
+
+    /** The indexes of preferences. */
+    private final Map<Preference, Integer> mIndexes = new HashMap<Preference, Integer>();
+
+    /** The index of each preference's dependency, or -1. */
+    private int[] mDependency = new int[0];
+
+    /** The start of each preference's dependents in {@link #mDependents}, by index. */
+    private int[] mFirstDependent = new int[1];
+
+    /** The dependents of all preferences, grouped by dependency. */
+    private int[] mDependents = new int[0];
+
+    /** The preferences which dependency is not found in the hierarchy. */
+    private final List<Preference> mUnresolved = new ArrayList<Preference>();
+
+    /** The queue of the propagation, reused. */
+    private int[] mQueue = new int[0];
+
+    /** The dependents state of queued preferences, reused. */
+    private boolean[] mQueueStates = new boolean[0];
+
+    /** True, if the walk uses {@link #mQueue} now. */
+    private boolean mWalking = false;
+
+    private DependencyGraph(PreferenceGroup root) {
+        mRoot = root;
+        rebuild();
+    }
+
+    /**
+     * Builds the graph of specified hierarchy, for inspection.
+     * */
+    public static DependencyGraph build(PreferenceGroup root) { return new DependencyGraph(root); }
+
+    /**
+     * Builds the graph of specified preference screen and attaches it, so the library's
+     * preferences of this screen resolve dependency changes through it. The caller should keep
+     * the returned graph, it's detached when it's garbage collected.
+     * @throws IllegalStateException If the screen's hierarchy has a dependency cycle.
+     * */
+    public static DependencyGraph attach(PreferenceScreen screen) {
+        final DependencyGraph graph = new DependencyGraph(screen);
+        final List<Preference> cycle = graph.findCycle();
+        if (!cycle.isEmpty()) throw new IllegalStateException("The dependency cycle: " + cycle);
+        sGraphs.put(screen.getPreferenceManager(), new WeakReference<DependencyGraph>(graph));
+        return graph;
+    }
+
+    /**
+     * Detaches the graph from specified preference screen, if it is attached.
+     * */
+    public static void detach(PreferenceScreen screen) {
+        final PreferenceManager manager = screen.getPreferenceManager();
+        final DependencyGraph graph = getAttached(manager);
+        if (graph == null || graph.mRoot == screen) sGraphs.remove(manager);
+    }
+
+    /**
+     * Returns the graph that attached to the hierarchy of specified preference, or null.
+     * */
+    public static DependencyGraph getAttached(Preference preference) {
+        return getAttached(preference.getPreferenceManager());
+    }
+
+    /**
+     * Returns the graph that attached to the hierarchy of specified manager, or null.
+     * */
+    private static DependencyGraph getAttached(PreferenceManager manager) {
+        final WeakReference<DependencyGraph> ref = manager != null ? sGraphs.get(manager) : null;
+        return ref != null ? ref.get() : null;
+    }
+
+    /**
+     * Builds this graph again, from the current state of the hierarchy.
+     * */
+    public void rebuild() {
+        final List<Preference> nodes = new ArrayList<Preference>();
+        collect(mRoot, nodes);
+        final int count = nodes.size();
+        mNodes = nodes.toArray(new Preference[count]);
+        mIndexes.clear();
+        final Map<String, Integer> keys = new HashMap<String, Integer>();
+        for (int i = 0; i < count; i++) {
+            mIndexes.put(mNodes[i], i);
+            final String key = mNodes[i].getKey();
+            // The framework looks for the first preference with the key
+            if (key != null && !keys.containsKey(key)) keys.put(key, i);
+        }
+
+        // Resolve dependencies and count dependents
+        mDependency = new int[count];
+        mFirstDependent = new int[count + 1];
+        mUnresolved.clear();
+        for (int i = 0; i < count; i++) {
+            mDependency[i] = -1;
+            final String dependency = mNodes[i].getDependency();
+            if (dependency == null) continue;
+            final Integer index = keys.get(dependency);
+            if (index == null) {
+                mUnresolved.add(mNodes[i]);
+                continue;
+            }
+            mDependency[i] = index;
+            mFirstDependent[index + 1]++;
+        }
+        for (int i = 0; i < count; i++) mFirstDependent[i + 1] += mFirstDependent[i];
+
+        // Fill dependents, in the order of the hierarchy
+        mDependents = new int[mFirstDependent[count]];
+        final int[] next = new int[count];
+        System.arraycopy(mFirstDependent, 0, next, 0, count);
+        for (int i = 0; i < count; i++) {
+            if (mDependency[i] >= 0) mDependents[next[mDependency[i]]++] = i;
+        }
+        mQueue = new int[count];
+        mQueueStates = new boolean[count];
+    }
+
+    /**
+     * Returns the root of this graph's hierarchy.
+     * */
+    public PreferenceGroup getRoot() { return mRoot; }
+
+    /**
+     * Returns the number of preferences in this graph.
+     * */
+    public int size() { return mNodes.length; }
+
+    /**
+     * Returns true, if specified preference is in this graph.
+     * */
+    public boolean contains(Preference preference) { return mIndexes.containsKey(preference); }
+
+    /**
+     * Returns the dependency of specified preference, or null.
+     * */
+    public Preference getDependency(Preference preference) {
+        final Integer index = mIndexes.get(preference);
+        return index != null && mDependency[index] >= 0 ? mNodes[mDependency[index]] : null;
+    }
+
+    /**
+     * Returns the direct dependents of specified preference.
+     * */
+    public List<Preference> getDependents(Preference preference) {
+        final Integer index = mIndexes.get(preference);
+        if (index == null) return Collections.emptyList();
+        final List<Preference> dependents = new ArrayList<Preference>();
+        for (int i = mFirstDependent[index]; i < mFirstDependent[index + 1]; i++) {
+            dependents.add(mNodes[mDependents[i]]);
+        }
+        return dependents;
+    }
+
+    /**
+     * Returns the preferences, which dependency is not found in the hierarchy.
+     * */
+    public List<Preference> getUnresolved() { return Collections.unmodifiableList(mUnresolved); }
+
+    /**
+     * Returns the first found dependency cycle, in dependency order, or the empty list if there
+     * is no cycle.
+     * */
+    public List<Preference> findCycle() {
+        // Each preference has at most one dependency, so it's enough to follow dependencies
+        final int count = mNodes.length;
+        final int[] state = new int[count]; // 0 - not visited, 1 - on the path, 2 - done
+        for (int i = 0; i < count; i++) {
+            int node = i;
+            while (node >= 0 && state[node] == 0) {
+                state[node] = 1;
+                node = mDependency[node];
+            }
+            if (node >= 0 && state[node] == 1) {
+                // The cycle is found, it starts and ends in this node
+                final List<Preference> cycle = new ArrayList<Preference>();
+                int current = node;
+                do {
+                    cycle.add(mNodes[current]);
+                    current = mDependency[current];
+                } while (current != node);
+                Collections.reverse(cycle);
+                return cycle;
+            }
+            // Mark the path as done
+            node = i;
+            while (node >= 0 && state[node] == 1) {
+                state[node] = 2;
+                node = mDependency[node];
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the depth of specified preference in the dependency tree, 0 for preferences
+     * without dependency, or -1 if the preference is not in this graph.
+     * */
+    public int getDepth(Preference preference) {
+        final Integer index = mIndexes.get(preference);
+        if (index == null) return -1;
+        int depth = 0;
+        for (int node = mDependency[index]; node >= 0 && depth <= mNodes.length;
+                node = mDependency[node]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the description of this graph: one line per preference with dependents.
+     * */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("DependencyGraph{size=").append(size());
+        for (int i = 0; i < mNodes.length; i++) {
+            if (mFirstDependent[i] == mFirstDependent[i + 1]) continue;
+            sb.append("\n  ").append(mNodes[i].getKey()).append(" ->");
+            for (int j = mFirstDependent[i]; j < mFirstDependent[i + 1]; j++) {
+                sb.append(' ').append(mNodes[mDependents[j]].getKey());
+            }
+        }
+        for (Preference preference: mUnresolved) {
+            sb.append("\n  ").append(preference.getKey()).append(" depends on unknown ")
+                    .append(preference.getDependency());
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Resolves the dependency change of specified library's preference through the attached
+     * graph, if it exists.
+     * @return True, if the dependency change is handled.
+     * */
+    static boolean propagate(Preference source, boolean disableDependents) { // package access
+        final DependencyGraph graph = getAttached(source);
+        if (graph == null) return false;
+        final Integer index = graph.mIndexes.get(source);
+        if (index == null) return false;
+        final long start = PreferenceTracing.begin(PreferenceMetrics.EVENT_DEPENDENCY_CHANGE);
+        final PreferenceTransaction transaction = PreferenceTransaction.isOpen()
+                ? null : PreferenceTransaction.begin();
+        // The propagation can be nested, for example a framework's dependent notifies a library's
+        // preference, that propagates its own change
+        final Preference notifying = sNotifying;
+        try {
+            graph.propagate(index, disableDependents);
+        } finally {
+            sNotifying = notifying;
+            if (transaction != null) transaction.apply();
+            PreferenceTracing.end(PreferenceMetrics.EVENT_DEPENDENCY_CHANGE, source, start);
+        }
+        return true;
+    }
+
+    /**
+     * Defers the notification of specified preference's dependents to the running propagation,
+     * if it notifies this preference.
+     * @return True, if the notification is deferred, the propagation will notify dependents.
+     * */
+    static boolean defer(Preference preference) { // package access
+        if (sNotifying != preference) return false;
+        sDeferred = true;
+        return true;
+    }
+
+    /**
+     * Walks the affected subtree of specified preference, in breadth-first order. Only the
+     * dependents, that deferred the notification of their own dependents, are walked further,
+     * other preferences notify their dependents by themselves. The nested walk uses its own
+     * queue, so the walk in progress is not broken.
+     * */
+    private void propagate(int source, boolean disableDependents) {
+        final boolean nested = mWalking;
+        final int[] queue = nested ? new int[mQueue.length] : mQueue;
+        final boolean[] states = nested ? new boolean[mQueueStates.length] : mQueueStates;
+        final Preference notifying = sNotifying;
+        final boolean deferred = sDeferred;
+        mWalking = true;
+        try {
+            int head = 0;
+            int tail = 0;
+            queue[tail] = source;
+            states[tail++] = disableDependents;
+            while (head < tail) {
+                final int node = queue[head];
+                final boolean disable = states[head++];
+                for (int i = mFirstDependent[node]; i < mFirstDependent[node + 1]; i++) {
+                    final Preference dependent = mNodes[mDependents[i]];
+                    final boolean before = dependent.shouldDisableDependents();
+                    sNotifying = dependent;
+                    sDeferred = false;
+                    dependent.onDependencyChanged(mNodes[node], disable);
+                    sNotifying = notifying;
+                    final boolean after = dependent.shouldDisableDependents();
+                    // Other preferences notify their dependents by themselves
+                    if (before != after && sDeferred && tail < queue.length) {
+                        queue[tail] = mDependents[i];
+                        states[tail++] = after;
+                    }
+                }
+            }
+        } finally {
+            sNotifying = notifying;
+            sDeferred = deferred;
+            if (!nested) mWalking = false;
+        }
+    }
+
+    /**
+     * Collects all preferences of specified group, in depth-first order.
+     * */
+    private static void collect(PreferenceGroup group, List<Preference> out) {
+        for (int i = 0; i < group.getPreferenceCount(); i++) {
+            final Preference preference = group.getPreference(i);
+            out.add(preference);
+            if (preference instanceof PreferenceGroup) {
+                collect((PreferenceGroup) preference, out);
+            }
+        }
+    }
+
+}
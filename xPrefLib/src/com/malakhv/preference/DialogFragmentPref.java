@@ -18,16 +18,31 @@ package com.malakhv.preference;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.Application;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.FragmentManager;
 import android.content.Context;
+import android.content.ContextWrapper;
 import android.content.DialogInterface;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.preference.Preference;
 import android.util.AttributeSet;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 /**
  * Class implements {@link Preference} with {@link DialogFragment}.
@@ -37,8 +52,47 @@ import android.util.AttributeSet;
 @SuppressWarnings("unused")
 public abstract class DialogFragmentPref extends Preference {
 
-    /** The link for quick access to the {@link FragmentManager}. */
-    private FragmentManager mFragmentManager = null;
+    /**
+     * The cache of activities, that were resolved from preferences' contexts. Many preferences
+     * share the same context, so the context chain is unwrapped only once per context.
+     * */
+    private static final WeakHashMap<Context, WeakReference<Activity>> sActivities =
+            new WeakHashMap<Context, WeakReference<Activity>>();
+
+    /** The link for quick access to the {@link Activity}, will be resolved on first use. */
+    private WeakReference<Activity> mActivity = null;
+
+    /** The background preparation of the dialog data, or null if it was not started. */
+    private FutureTask<Object> mPrepareTask = null;
+
+    /** Cancels the preparation of the dialog data when the activity is destroyed, or null. */
+    private DestroyWatcher mDestroyWatcher = null;
+
+    /** True, if the dialog data should be prepared when this preference is bound. */
+    private boolean mPrefetchOnBind = false;
+
+    /** True, if the dialog content view should be reused, please see {@link DialogViewCache}. */
+    private boolean mReuseDialogView = false;
+
+    /** The current dialog content view, that should be put to the cache on dismiss. */
+    private View mDialogView = null;
+
+    /** The layout resource of the current dialog content view. */
+    private int mDialogViewLayout = 0;
+
+    /** The time when the dialog was requested, please see {@link SystemClock#uptimeMillis}. */
+    private long mShowTime = 0;
+
+    /** The change handling of this preference, please see {@link PreferenceDelegate}. */
+    private final PreferenceDelegate mDelegate = new PreferenceDelegate(this) {
+        @Override
+        void onNotifyChanged() { DialogFragmentPref.super.notifyChanged(); }
+
+        @Override
+        void onNotifyDependencyChange(boolean disableDependents) {
+            DialogFragmentPref.super.notifyDependencyChange(disableDependents);
+        }
+    };
 
     /**
      * Simple constructor to use when creating a preference from code.
@@ -72,17 +126,10 @@ public abstract class DialogFragmentPref extends Preference {
     }
 
     /**
-     * Initialize this {@code preference} object.
+     * Initialize this {@code preference} object. The {@link FragmentManager} is not resolved here,
+     * it will be resolved on first use, please see {@link #getFragmentManager()}.
      * */
-    protected void init(Context context) {
-        try {
-            final Activity activity = (Activity) context;
-            mFragmentManager = activity.getFragmentManager();
-        } catch (ClassCastException e) {
-            e.printStackTrace();
-            mFragmentManager = null;
-        }
-    }
+    protected void init(Context context) {}
 
     /**
      * Processes a click on the preference.
@@ -93,7 +140,238 @@ public abstract class DialogFragmentPref extends Preference {
     /**
      * Return the FragmentManager for interacting with fragments associated with this activity.
      * */
-    protected FragmentManager getFragmentManager() { return mFragmentManager; }
+    protected FragmentManager getFragmentManager() {
+        final Activity activity = getActivity();
+        return activity != null ? activity.getFragmentManager() : null;
+    }
+
+    /**
+     * Returns the {@link Activity} of this preference's context, or null if the context is not
+     * associated with any activity.
+     * */
+    private Activity getActivity() {
+        Activity activity = mActivity != null ? mActivity.get() : null;
+        if (activity == null) {
+            activity = resolveActivity(getContext());
+            mActivity = activity != null ? new WeakReference<Activity>(activity) : null;
+        }
+        return activity;
+    }
+
+    /**
+     * Returns the {@link Activity} of specified context. The {@link ContextWrapper} chain is
+     * unwrapped, if it needed, and the result is cached per context.
+     * */
+    private static Activity resolveActivity(Context context) {
+        if (context == null) return null;
+        synchronized (sActivities) {
+            final WeakReference<Activity> ref = sActivities.get(context);
+            Activity activity = ref != null ? ref.get() : null;
+            if (activity != null) return activity;
+            Context c = context;
+            while (c instanceof ContextWrapper) {
+                if (c instanceof Activity) { activity = (Activity) c; break; }
+                final Context base = ((ContextWrapper) c).getBaseContext();
+                if (base == c) break;
+                c = base;
+            }
+            if (activity != null) sActivities.put(context, new WeakReference<Activity>(activity));
+            return activity;
+        }
+    }
+
+    /**
+     * Binds the created View to the data for this Preference. In this implementation, remembers
+     * the bound row state, please see {@link PreferenceDelegate}, and starts the background
+     * preparation of the dialog data, if it enabled.
+     * @see #setPrefetchOnBind(boolean)
+     * */
+    @Override
+    protected void onBindView(View view) {
+        super.onBindView(view);
+        mDelegate.onBind();
+        if (mPrefetchOnBind) prefetchDialog();
+    }
+
+    /**
+     * Should be called when the data of this Preference has changed. In this implementation, the
+     * change is handled by {@link PreferenceDelegate#notifyChanged()}.
+     * */
+    @Override
+    protected void notifyChanged() {
+        // The framework's constructors can notify before the delegate is created
+        if (mDelegate != null) mDelegate.notifyChanged(); else super.notifyChanged();
+    }
+
+    /**
+     * Notifies any listening dependents of a change that affects the dependency. In this
+     * implementation, the notification is handled by
+     * {@link PreferenceDelegate#notifyDependencyChange(boolean)}.
+     * */
+    @Override
+    public void notifyDependencyChange(boolean disableDependents) {
+        mDelegate.notifyDependencyChange(disableDependents);
+    }
+
+    /**
+     * Called when this preference is being removed from the hierarchy. In this implementation,
+     * cancels the background preparation of the dialog data.
+     * */
+    @Override
+    protected void onPrepareForRemoval() {
+        super.onPrepareForRemoval();
+        invalidateDialogData();
+    }
+
+    /**
+     * Sets whether the dialog data should be prepared in background when this preference is
+     * bound, please see {@link #onPrepareDialogData()}.
+     * */
+    public void setPrefetchOnBind(boolean prefetch) { mPrefetchOnBind = prefetch; }
+
+    /**
+     * Returns true, if the dialog data is prepared in background when this preference is bound.
+     * */
+    public boolean isPrefetchOnBind() { return mPrefetchOnBind; }
+
+    /**
+     * Starts the background preparation of the dialog data, if it was not started yet. The
+     * preparation is cancelled, if this preference is removed from the hierarchy or its activity
+     * is destroyed.
+     * @see #onPrepareDialogData()
+     * */
+    public void prefetchDialog() {
+        if (mPrepareTask != null) return;
+        mPrepareTask = new FutureTask<Object>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception { return onPrepareDialogData(); }
+        });
+        watchActivity();
+        getPrepareExecutor().execute(mPrepareTask);
+    }
+
+    /**
+     * Cancels the background preparation of the dialog data and forgets the prepared data, so it
+     * will be prepared again on next {@link #prefetchDialog()} or {@link #showDialog()} call.
+     * */
+    public void invalidateDialogData() {
+        if (mPrepareTask != null) mPrepareTask.cancel(true);
+        mPrepareTask = null;
+        if (mDestroyWatcher != null) {
+            mDestroyWatcher.mApplication.unregisterActivityLifecycleCallbacks(mDestroyWatcher);
+            mDestroyWatcher = null;
+        }
+    }
+
+    /**
+     * Starts watching the activity of this preference, so the preparation of the dialog data is
+     * cancelled when the activity is destroyed, even if this preference stays in the hierarchy.
+     * */
+    private void watchActivity() {
+        if (mDestroyWatcher != null) return;
+        final Activity activity = getActivity();
+        if (activity == null) return;
+        mDestroyWatcher = new DestroyWatcher(activity);
+        mDestroyWatcher.mApplication.registerActivityLifecycleCallbacks(mDestroyWatcher);
+    }
+
+    /**
+     * Returns the executor that used to prepare the dialog data. By default, it is
+     * {@link AsyncTask#THREAD_POOL_EXECUTOR}.
+     * */
+    protected Executor getPrepareExecutor() { return AsyncTask.THREAD_POOL_EXECUTOR; }
+
+    /**
+     * Override to load the data for the dialog (for example, from disk) in the background thread.
+     * This method is called not from the main thread, so it should not touch any views. The
+     * result is available in {@link #onCreateDialog(Bundle)} through
+     * {@link #getPreparedDialogData()}.
+     * @return The dialog data, or null. By default, returns null.
+     * */
+    protected Object onPrepareDialogData() throws Exception { return null; }
+
+    /**
+     * Returns the dialog data that was prepared by {@link #onPrepareDialogData()}. If the data
+     * is not ready yet, waits for it; if the preparation was not started, prepares the data in the
+     * current thread.
+     * */
+    protected Object getPreparedDialogData() {
+        prefetchDialog();
+        final FutureTask<Object> task = mPrepareTask;
+        if (!task.isDone()) task.run(); // Nothing to do, if the task is running already
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            mPrepareTask = null; // Try again next time
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        } catch (CancellationException e) {
+            mPrepareTask = null;
+            return null;
+        }
+    }
+
+    /**
+     * Sets whether the dialog content views, that were created by {@link #inflateDialogView},
+     * should be kept in {@link DialogViewCache} after the dialog is closed, and reused when the
+     * dialog is opened next time.
+     * */
+    public void setReuseDialogView(boolean reuse) { mReuseDialogView = reuse; }
+
+    /**
+     * Returns true, if the dialog content view is reused.
+     * */
+    public boolean isReuseDialogView() { return mReuseDialogView; }
+
+    /**
+     * Inflates specified dialog content view during idle time, so the first opening of the dialog
+     * will be faster. Makes sense only if the dialog content view is reused.
+     * @see #setReuseDialogView(boolean)
+     * */
+    public void prewarmDialogView(int layoutRes) {
+        if (mReuseDialogView) DialogViewCache.prewarm(getContext(), layoutRes);
+    }
+
+    /**
+     * Returns the content view for the dialog, use it from {@link #onCreateDialog(Bundle)}. If
+     * reusing is enabled, the cached view is returned, if it exists, and the view will be put to
+     * the cache when the dialog is dismissed. Please note, the cached view keeps its state, so
+     * it should be bound to data again.
+     * @param context The themed context of the dialog, for example from
+     * {@link android.app.AlertDialog.Builder#getContext()}.
+     * @param layoutRes The layout resource of the content view.
+     * */
+    protected View inflateDialogView(Context context, int layoutRes) {
+        View view = null;
+        if (mReuseDialogView) view = DialogViewCache.obtain(getContext(), layoutRes);
+        if (view == null) view = LayoutInflater.from(context).inflate(layoutRes, null);
+        if (mReuseDialogView) {
+            mDialogView = view;
+            mDialogViewLayout = layoutRes;
+        }
+        return view;
+    }
+
+    /**
+     * Puts the current dialog content view to the cache, if it needed.
+     * */
+    private void recycleDialogView() {
+        if (mDialogView != null) {
+            DialogViewCache.recycle(getContext(), mDialogViewLayout, mDialogView);
+        }
+        mDialogView = null;
+        mDialogViewLayout = 0;
+    }
+
+    /**
+     * Called when the first frame of the dialog is about to be drawn.
+     * @param latency The time from {@link #showDialog()} call to the first frame, in milliseconds.
+     * */
+    protected void onDialogLatency(long latency) {}
 
     /**
      * Returns the string tag that use for {@link DialogFragment} into this {@link Preference}. By
@@ -115,8 +393,10 @@ public abstract class DialogFragmentPref extends Preference {
      * */
     protected DialogFragment getDialogFragment() {
         final String tag = getFragmentTag();
-        if (mFragmentManager == null || tag == null || tag.isEmpty()) return null;
-        return (DialogFragment) mFragmentManager.findFragmentByTag(tag);
+        if (tag == null || tag.isEmpty()) return null;
+        final FragmentManager manager = getFragmentManager();
+        if (manager == null) return null;
+        return (DialogFragment) manager.findFragmentByTag(tag);
     }
 
     /**
@@ -124,9 +404,17 @@ public abstract class DialogFragmentPref extends Preference {
      * */
     public void showDialog() {
         if (isDialogShowing() && !hasFragmentTag()) return;
-        final InnerDialogFragment fragment = new InnerDialogFragment();
-        fragment.setPreference(this);
-        fragment.show(mFragmentManager, getFragmentTag());
+        final FragmentManager manager = getFragmentManager();
+        if (manager == null) return;
+        final long start = PreferenceTracing.begin(PreferenceMetrics.EVENT_SHOW_DIALOG);
+        try {
+            mShowTime = SystemClock.uptimeMillis();
+            final InnerDialogFragment fragment = new InnerDialogFragment();
+            fragment.setPreference(this);
+            fragment.show(manager, getFragmentTag());
+        } finally {
+            PreferenceTracing.end(PreferenceMetrics.EVENT_SHOW_DIALOG, this, start);
+        }
     }
 
     /**
@@ -138,7 +426,9 @@ public abstract class DialogFragmentPref extends Preference {
     }
 
     /**
-     * Override to build your own custom Dialog container.
+     * Override to build your own custom Dialog container. This method is called from the main
+     * thread, so use {@link #getPreparedDialogData()} to get the data that was loaded in
+     * background.
      *
      * @param savedInstanceState The last saved instance state of the Fragment,
      * or null if this is a freshly created Fragment.
@@ -147,6 +437,16 @@ public abstract class DialogFragmentPref extends Preference {
      */
     public abstract Dialog onCreateDialog(Bundle savedInstanceState);
 
+    /**
+     * Called when the first frame of the dialog is about to be drawn.
+     * */
+    private void dispatchDialogFirstFrame() {
+        if (mShowTime == 0) return;
+        final long latency = SystemClock.uptimeMillis() - mShowTime;
+        mShowTime = 0;
+        onDialogLatency(latency);
+    }
+
     /**
      * Called when the dialog is canceled.
      * <p>This will only be invoked when the dialog is canceled. Cancel events alone will not
@@ -194,13 +494,40 @@ public abstract class DialogFragmentPref extends Preference {
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
             if (ownPreference != null) {
-                return ownPreference.onCreateDialog(savedInstanceState);
+                final long start = PreferenceTracing.begin(PreferenceMetrics.EVENT_CREATE_DIALOG);
+                try {
+                    return ownPreference.onCreateDialog(savedInstanceState);
+                } finally {
+                    PreferenceTracing.end(PreferenceMetrics.EVENT_CREATE_DIALOG, ownPreference,
+                            start);
+                }
             } else {
                 this.dismiss();
                 return super.onCreateDialog(savedInstanceState);
             }
         }
 
+        /**
+         * Called when the dialog is visible to the user. Waits for the first frame of the dialog
+         * to measure the latency, please see {@link #onDialogLatency(long)}.
+         * */
+        @Override
+        public void onStart() {
+            super.onStart();
+            final Dialog dialog = getDialog();
+            if (ownPreference == null || dialog == null || dialog.getWindow() == null) return;
+            final View decor = dialog.getWindow().getDecorView();
+            decor.getViewTreeObserver().addOnPreDrawListener(
+                    new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                    if (ownPreference != null) ownPreference.dispatchDialogFirstFrame();
+                    return true;
+                }
+            });
+        }
+
         /**
          * Called when the dialog is canceled.
          * */
@@ -216,7 +543,50 @@ public abstract class DialogFragmentPref extends Preference {
         @Override
         public void onDismiss(DialogInterface dialog) {
             super.onDismiss(dialog);
-            if (ownPreference != null) ownPreference.onDismissDialog(dialog);
+            if (ownPreference != null) {
+                ownPreference.onDismissDialog(dialog);
+                ownPreference.recycleDialogView();
+            }
         }
     }
+
+    /**
+     * The callbacks, that invalidate the dialog data when the activity is destroyed.
+     * */
+    private final class DestroyWatcher implements Application.ActivityLifecycleCallbacks {
+
+        /** The application, which these callbacks are registered in. */
+        private final Application mApplication;
+
+        /** The activity to watch. */
+        private final Activity mWatched;
+
+        DestroyWatcher(Activity activity) {
+            mApplication = activity.getApplication();
+            mWatched = activity;
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            if (activity == mWatched) invalidateDialogData();
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+        @Override
+        public void onActivityStarted(Activity activity) {}
+
+        @Override
+        public void onActivityResumed(Activity activity) {}
+
+        @Override
+        public void onActivityPaused(Activity activity) {}
+
+        @Override
+        public void onActivityStopped(Activity activity) {}
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+    }
 }
\ No newline at end of file
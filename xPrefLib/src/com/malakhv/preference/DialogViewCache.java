@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Configuration;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The small cache of already inflated dialog content views, one view per context and layout
+ * resource. Preferences that opted in take the view from this cache when the dialog is opened and
+ * put it back when the dialog is closed, so the same layout is not inflated again and again. The
+ * cache is bounded and it's cleared on low memory, on configuration change and when any activity
+ * is destroyed. All methods should be called from the main thread.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class DialogViewCache {
+
+    /** The maximum number of cached views. */
+    public static final int MAX_SIZE = 4;
+
+    /** The cached views, in access order. */
+    private static final LinkedHashMap<Key, View> sViews = new LinkedHashMap<Key, View>(
+            MAX_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, View> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /** The application, which callbacks the cache listens, or null. */
+    private static Application sApplication = null;
+
+    /** The callbacks, that clear this cache. */
+    private static final Callbacks sCallbacks = new Callbacks();
+
+    private DialogViewCache() {}
+
+    /**
+     * Takes the cached view for specified context and layout resource out of the cache.
+     * @return The cached view, or null if there is no such view.
+     * */
+    public static View obtain(Context context, int layoutRes) {
+        if (context == null || layoutRes == 0) return null;
+        final View view = sViews.remove(new Key(context, layoutRes));
+        if (view != null) {
+            // Detach the view from the previous dialog
+            final ViewParent parent = view.getParent();
+            if (parent instanceof ViewGroup) ((ViewGroup) parent).removeView(view);
+        }
+        return view;
+    }
+
+    /**
+     * Puts specified view to the cache, so it can be reused next time.
+     * */
+    public static void recycle(Context context, int layoutRes, View view) {
+        if (context == null || layoutRes == 0 || view == null) return;
+        // The cached views hold their activities, so don't cache anything, if the cache can't
+        // know when the activities are destroyed
+        if (!register(context)) return;
+        sViews.put(new Key(context, layoutRes), view);
+    }
+
+    /**
+     * Inflates the view for specified context and layout resource during idle time, and puts it
+     * to the cache. Does nothing, if there is such view in the cache already.
+     * */
+    public static void prewarm(final Context context, final int layoutRes) {
+        if (context == null || layoutRes == 0) return;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                final Key key = new Key(context, layoutRes);
+                if (!sViews.containsKey(key)) {
+                    // Use the same themed context as the dialog does
+                    final Context themed = new AlertDialog.Builder(context).getContext();
+                    recycle(context, layoutRes, LayoutInflater.from(themed).inflate(layoutRes,
+                            null));
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Removes all views from the cache.
+     * */
+    public static void clear() { sViews.clear(); }
+
+    /**
+     * Registers the application callbacks, that clear this cache, if it needed. The callbacks are
+     * registered before the first view is put to the cache, and again, if the application object
+     * is changed, as the tests create a new application for each test.
+     * @return True, if the callbacks are registered.
+     * */
+    private static boolean register(Context context) {
+        final Application app = getApplication(context);
+        if (app == null) return false;
+        if (app == sApplication) return true;
+        if (sApplication != null) {
+            sApplication.unregisterComponentCallbacks(sCallbacks);
+            sApplication.unregisterActivityLifecycleCallbacks(sCallbacks);
+            clear();
+        }
+        app.registerComponentCallbacks(sCallbacks);
+        app.registerActivityLifecycleCallbacks(sCallbacks);
+        sApplication = app;
+        return true;
+    }
+
+    /**
+     * Returns the {@link Application} of specified context, or null if there is no such one.
+     * */
+    private static Application getApplication(Context context) {
+        final Context app = context.getApplicationContext();
+        if (app instanceof Application) return (Application) app;
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) return ((Activity) context).getApplication();
+            final Context base = ((ContextWrapper) context).getBaseContext();
+            if (base == context) break;
+            context = base;
+        }
+        return null;
+    }
+
+    /**
+     * The key of cached view.
+     * */
+    private static final class Key {
+
+        /** The context of preference. */
+        private final Context mContext;
+
+        /** The layout resource of view. */
+        private final int mLayoutRes;
+
+        Key(Context context, int layoutRes) {
+            mContext = context;
+            mLayoutRes = layoutRes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key key = (Key) o;
+            return mContext == key.mContext && mLayoutRes == key.mLayoutRes;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(mContext) + mLayoutRes;
+        }
+    }
+
+    /**
+     * The application callbacks, that clear this cache.
+     * */
+    private static final class Callbacks implements ComponentCallbacks2,
+            Application.ActivityLifecycleCallbacks {
+
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_BACKGROUND) clear();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) { clear(); }
+
+        @Override
+        public void onLowMemory() { clear(); }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            // Cached views and their keys may hold this activity
+            final Iterator<Map.Entry<Key, View>> it = sViews.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Key, View> entry = it.next();
+                if (isActivityContext(entry.getKey().mContext, activity)
+                        || isActivityContext(entry.getValue().getContext(), activity)) {
+                    it.remove();
+                }
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+        @Override
+        public void onActivityStarted(Activity activity) {}
+
+        @Override
+        public void onActivityResumed(Activity activity) {}
+
+        @Override
+        public void onActivityPaused(Activity activity) {}
+
+        @Override
+        public void onActivityStopped(Activity activity) {}
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+        /**
+         * Returns true, if specified context is the activity or wraps it.
+         * */
+        private static boolean isActivityContext(Context context, Activity activity) {
+            while (context instanceof ContextWrapper) {
+                if (context == activity) return true;
+                final Context base = ((ContextWrapper) context).getBaseContext();
+                if (base == context) break;
+                context = base;
+            }
+            return context == activity;
+        }
+    }
+
+}
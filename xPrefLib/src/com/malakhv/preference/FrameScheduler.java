@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Runs the task at most once per display frame, on the main thread. The {@link Choreographer} is
+ * used on Jelly Bean and higher, the {@link Handler} with frame delay is used otherwise.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+final class FrameScheduler implements Runnable { // package access
+
+    /** The frame delay that used when {@link Choreographer} is not available, in milliseconds. */
+    private static final long FRAME_DELAY = 16;
+
+    /** The task to run. */
+    private final Runnable mTask;
+
+    /** The handler of the main thread, it used when {@link Choreographer} is not available. */
+    private final Handler mHandler;
+
+    /** The frame callback, it used when {@link Choreographer} is available. */
+    private final FrameCallback mFrameCallback;
+
+    /** True, if the task is already scheduled to the next frame. */
+    private boolean mScheduled = false;
+
+    /**
+     * Creates a new scheduler for specified task. Should be called from the main thread.
+     * */
+    FrameScheduler(Runnable task) {
+        mTask = task;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mFrameCallback = new FrameCallback(this);
+            mHandler = null;
+        } else {
+            mFrameCallback = null;
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+    }
+
+    /**
+     * Schedules the task to the next frame, if it is not scheduled yet.
+     * */
+    void schedule() {
+        if (mScheduled) return;
+        mScheduled = true;
+        if (mFrameCallback != null) {
+            mFrameCallback.post();
+        } else {
+            mHandler.postDelayed(this, FRAME_DELAY);
+        }
+    }
+
+    /**
+     * Removes the scheduled task, if it exists.
+     * */
+    void cancel() {
+        if (!mScheduled) return;
+        mScheduled = false;
+        if (mFrameCallback != null) {
+            mFrameCallback.remove();
+        } else {
+            mHandler.removeCallbacks(this);
+        }
+    }
+
+    /**
+     * Returns true, if the task is scheduled to the next frame.
+     * */
+    boolean isScheduled() { return mScheduled; }
+
+    /**
+     * Runs the task, called on the frame.
+     * */
+    @Override
+    public void run() {
+        mScheduled = false;
+        mTask.run();
+    }
+
+    /**
+     * The {@link Choreographer.FrameCallback} that runs specified task.
+     * */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameCallback implements Choreographer.FrameCallback {
+
+        /** The task to run. */
+        private final Runnable mTask;
+
+        FrameCallback(Runnable task) { mTask = task; }
+
+        void post() { Choreographer.getInstance().postFrameCallback(this); }
+
+        void remove() { Choreographer.getInstance().removeFrameCallback(this); }
+
+        @Override
+        public void doFrame(long frameTimeNanos) { mTask.run(); }
+    }
+
+}
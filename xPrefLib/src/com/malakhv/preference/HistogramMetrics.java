@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.Preference;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Simple in-memory implementation of {@link PreferenceMetrics}, for tests and debugging. For each
+ * event it keeps the count, the total, min and max durations and the histogram of durations with
+ * power of two buckets.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public class HistogramMetrics implements PreferenceMetrics {
+
+    /** The number of histogram buckets, the last bucket contains all longer durations. */
+    private static final int BUCKETS = 40;
+
+    /** The statistics, by event. */
+    private final Map<String, Histogram> mHistograms = new HashMap<String, Histogram>();
+
+    /**
+     * Called when the event happened.
+     * */
+    @Override
+    public synchronized void onEvent(String event, Preference preference, long duration) {
+        Histogram histogram = mHistograms.get(event);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(event, histogram);
+        }
+        histogram.add(duration);
+    }
+
+    /**
+     * Returns the number of specified events.
+     * */
+    public synchronized long getCount(String event) {
+        final Histogram histogram = mHistograms.get(event);
+        return histogram != null ? histogram.mCount : 0;
+    }
+
+    /**
+     * Returns the total duration of specified events, in nanoseconds.
+     * */
+    public synchronized long getTotal(String event) {
+        final Histogram histogram = mHistograms.get(event);
+        return histogram != null ? histogram.mTotal : 0;
+    }
+
+    /**
+     * Returns the mean duration of specified events, in nanoseconds.
+     * */
+    public synchronized long getMean(String event) {
+        final Histogram histogram = mHistograms.get(event);
+        return histogram != null && histogram.mCount > 0 ? histogram.mTotal / histogram.mCount : 0;
+    }
+
+    /**
+     * Returns the min duration of specified events, in nanoseconds.
+     * */
+    public synchronized long getMin(String event) {
+        final Histogram histogram = mHistograms.get(event);
+        return histogram != null && histogram.mCount > 0 ? histogram.mMin : 0;
+    }
+
+    /**
+     * Returns the max duration of specified events, in nanoseconds.
+     * */
+    public synchronized long getMax(String event) {
+        final Histogram histogram = mHistograms.get(event);
+        return histogram != null ? histogram.mMax : 0;
+    }
+
+    /**
+     * Returns the approximate percentile of durations of specified events, in nanoseconds. The
+     * result is the upper bound of the histogram bucket that contains the percentile.
+     * @param percentile The percentile, from 0 to 100.
+     * */
+    public synchronized long getPercentile(String event, double percentile) {
+        final Histogram histogram = mHistograms.get(event);
+        if (histogram == null || histogram.mCount == 0) return 0;
+        final long target = (long) Math.ceil(histogram.mCount * percentile / 100.0);
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += histogram.mBuckets[i];
+            if (count >= target) return Math.min(1L << i, histogram.mMax);
+        }
+        return histogram.mMax;
+    }
+
+    /**
+     * Removes all collected statistics.
+     * */
+    public synchronized void reset() { mHistograms.clear(); }
+
+    /**
+     * Returns the summary of collected statistics, one line per event.
+     * */
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (String event: new TreeMap<String, Histogram>(mHistograms).keySet()) {
+            sb.append(event).append(": count=").append(getCount(event))
+                    .append(", mean=").append(getMean(event))
+                    .append("ns, min=").append(getMin(event))
+                    .append("ns, p50=").append(getPercentile(event, 50))
+                    .append("ns, p90=").append(getPercentile(event, 90))
+                    .append("ns, max=").append(getMax(event)).append("ns\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The statistics of one event.
+     * */
+    private static final class Histogram {
+
+        /** The number of events, by bucket. The bucket i contains durations up to 2^i ns. */
+        final long[] mBuckets = new long[BUCKETS];
+
+        long mCount = 0;
+        long mTotal = 0;
+        long mMin = Long.MAX_VALUE;
+        long mMax = 0;
+
+        void add(long duration) {
+            if (duration < 0) duration = 0;
+            mCount++;
+            mTotal += duration;
+            if (duration < mMin) mMin = duration;
+            if (duration > mMax) mMax = duration;
+            final int bucket = 64 - Long.numberOfLeadingZeros(duration);
+            mBuckets[Math.min(bucket, BUCKETS - 1)]++;
+        }
+    }
+
+}
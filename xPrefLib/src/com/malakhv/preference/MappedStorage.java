@@ -0,0 +1,392 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link PreferenceStorage} that keeps values in a memory-mapped binary file. The file is a
+ * header and a sequence of records, each record is the type, the key and the value of fixed size:
+ * <pre>
+ *     header: magic (int), version (int), end of data (int)
+ *     record: type (byte), key length (short), key (UTF-8), value (1, 4 or 8 bytes)
+ * </pre>
+ * The file is scanned once, when the storage is opened, so all reads are O(1) after that. A new
+ * key is appended to the end of data, a new value of existing key is written in place. Removed
+ * records are only marked as removed, and the file is compacted when removed records take too
+ * much space. This class does not depend on Android, and all its methods are thread-safe.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public class MappedStorage extends PreferenceStorage {
+
+    /** The magic number of the file, "XPRF". */
+    private static final int MAGIC = 0x58505246;
+
+    /** The version of file format. */
+    private static final int VERSION = 1;
+
+    /** The size of file header. */
+    private static final int HEADER_SIZE = 12;
+
+    /** The offset of "end of data" field in the header. */
+    private static final int END_OFFSET = 8;
+
+    /** The initial size of the file. */
+    private static final int INITIAL_SIZE = 16 * 1024;
+
+    /** The minimum size of removed records, that makes sense to compact. */
+    private static final int COMPACT_MIN = 4 * 1024;
+
+    /** The record types. */
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_BOOLEAN = 3;
+
+    /** The flag of removed record, it's combined with the record type. */
+    private static final byte FLAG_REMOVED = (byte) 0x80;
+
+    /** The charset of keys. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The storage file. */
+    private final File mFile;
+
+    /** The open storage file. */
+    private RandomAccessFile mRandomAccessFile = null;
+
+    /** The mapped content of storage file. */
+    private MappedByteBuffer mBuffer = null;
+
+    /** The records, by key. */
+    private final Map<String, Slot> mSlots = new HashMap<String, Slot>();
+
+    /** The end of data in the file. */
+    private int mEnd = HEADER_SIZE;
+
+    /** The total size of removed records. */
+    private int mRemovedSize = 0;
+
+    /**
+     * Opens the storage in specified file. The file will be created, if it does not exist.
+     * */
+    public MappedStorage(File file) throws IOException {
+        mFile = file;
+        open();
+    }
+
+    /**
+     * Returns the storage file.
+     * */
+    public File getFile() { return mFile; }
+
+    /**
+     * Returns the number of keys in this storage.
+     * */
+    public synchronized int size() {
+        checkOpen();
+        return mSlots.size();
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        checkOpen();
+        return mSlots.containsKey(key);
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        checkOpen();
+        final Slot slot = mSlots.get(key);
+        return slot != null && slot.type == TYPE_INT ? mBuffer.getInt(slot.value) : defValue;
+    }
+
+    @Override
+    public synchronized void putInt(String key, int value) {
+        checkOpen();
+        final Slot slot = obtainSlot(key, TYPE_INT); // May remap the buffer
+        mBuffer.putInt(slot.value, value);
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        checkOpen();
+        final Slot slot = mSlots.get(key);
+        return slot != null && slot.type == TYPE_LONG ? mBuffer.getLong(slot.value) : defValue;
+    }
+
+    @Override
+    public synchronized void putLong(String key, long value) {
+        checkOpen();
+        final Slot slot = obtainSlot(key, TYPE_LONG); // May remap the buffer
+        mBuffer.putLong(slot.value, value);
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        checkOpen();
+        final Slot slot = mSlots.get(key);
+        return slot != null && slot.type == TYPE_BOOLEAN ? mBuffer.get(slot.value) != 0
+                : defValue;
+    }
+
+    @Override
+    public synchronized void putBoolean(String key, boolean value) {
+        checkOpen();
+        final Slot slot = obtainSlot(key, TYPE_BOOLEAN); // May remap the buffer
+        mBuffer.put(slot.value, (byte) (value ? 1 : 0));
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        checkOpen();
+        final Slot slot = mSlots.remove(key);
+        if (slot == null) return;
+        markRemoved(slot);
+        compactIfNeeded();
+    }
+
+    /**
+     * Forces all changes to be written to the storage device. Does nothing, if the storage is
+     * closed.
+     * */
+    public synchronized void sync() {
+        if (mBuffer != null) mBuffer.force();
+    }
+
+    /**
+     * Writes all changes and closes the storage. The storage cannot be used after that, all its
+     * methods, except {@link #sync()} and this one, throw {@link IllegalStateException}.
+     * */
+    public synchronized void close() throws IOException {
+        if (mBuffer != null) mBuffer.force();
+        if (mRandomAccessFile != null) mRandomAccessFile.close();
+        mBuffer = null;
+        mRandomAccessFile = null;
+    }
+
+    /**
+     * Rewrites the storage file without removed records.
+     * */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        if (mRemovedSize == 0) return;
+
+        // Collect live records
+        final List<Map.Entry<String, Slot>> entries =
+                new ArrayList<Map.Entry<String, Slot>>(mSlots.entrySet());
+        final List<byte[]> values = new ArrayList<byte[]>(entries.size());
+        for (Map.Entry<String, Slot> entry: entries) {
+            final Slot slot = entry.getValue();
+            final byte[] value = new byte[valueSize(slot.type)];
+            for (int i = 0; i < value.length; i++) value[i] = mBuffer.get(slot.value + i);
+            values.add(value);
+        }
+
+        // Write them to the new file, and replace the storage file by the new one
+        final File temp = new File(mFile.getPath() + ".tmp");
+        if (temp.exists() && !temp.delete()) throw new IOException("Cannot delete " + temp);
+        final MappedStorage compacted = new MappedStorage(temp);
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                final Slot slot = compacted.obtainSlot(entries.get(i).getKey(),
+                        entries.get(i).getValue().type);
+                final byte[] value = values.get(i);
+                for (int j = 0; j < value.length; j++) {
+                    compacted.mBuffer.put(slot.value + j, value[j]);
+                }
+            }
+        } finally {
+            compacted.close();
+        }
+        close();
+        try {
+            if (!temp.renameTo(mFile)) {
+                temp.delete();
+                throw new IOException("Cannot rename " + temp);
+            }
+        } finally {
+            // Open the new file, or the old one if it was not replaced, so the storage is usable
+            open();
+        }
+    }
+
+    /**
+     * Opens the storage file and reads all records.
+     * */
+    private void open() throws IOException {
+        mSlots.clear();
+        mRemovedSize = 0;
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        final boolean isNew = mRandomAccessFile.length() < HEADER_SIZE;
+        map(Math.max((int) mRandomAccessFile.length(), INITIAL_SIZE));
+        if (isNew || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+            // New or unknown file, start from scratch
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            setEnd(HEADER_SIZE);
+            return;
+        }
+        final int end = Math.min(mBuffer.getInt(END_OFFSET), mBuffer.capacity());
+        int pos = HEADER_SIZE;
+        while (pos + 3 <= end) {
+            final byte flags = mBuffer.get(pos);
+            final byte type = (byte) (flags & ~FLAG_REMOVED);
+            final int keyLength = mBuffer.getShort(pos + 1) & 0xFFFF;
+            final int size = 3 + keyLength + valueSize(type);
+            if (valueSize(type) == 0 || pos + size > end) break; // Broken tail
+            if ((flags & FLAG_REMOVED) != 0) {
+                mRemovedSize += size;
+            } else {
+                final byte[] key = new byte[keyLength];
+                for (int i = 0; i < keyLength; i++) key[i] = mBuffer.get(pos + 3 + i);
+                final Slot old = mSlots.put(new String(key, UTF_8),
+                        new Slot(type, pos, pos + 3 + keyLength));
+                if (old != null) markRemoved(old); // Duplicate key, the last one wins
+            }
+            pos += size;
+        }
+        mEnd = pos;
+    }
+
+    /**
+     * Throws {@link IllegalStateException}, if the storage is closed.
+     * */
+    private void checkOpen() {
+        if (mBuffer == null) throw new IllegalStateException("The storage is closed: " + mFile);
+    }
+
+    /**
+     * Maps specified number of bytes of the storage file.
+     * */
+    private void map(int size) throws IOException {
+        mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Returns the record for specified key and type. The new record is appended, if there is no
+     * such record or it has other type.
+     * */
+    private Slot obtainSlot(String key, byte type) {
+        Slot slot = mSlots.get(key);
+        if (slot != null && slot.type == type) return slot;
+        if (slot != null) {
+            // The old record is dropped before the compaction, so it does not survive it
+            mSlots.remove(key);
+            markRemoved(slot);
+            compactIfNeeded();
+        }
+
+        // Append a new record
+        final byte[] bytes = key.getBytes(UTF_8);
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("The key is too long");
+        final int size = 3 + bytes.length + valueSize(type);
+        ensureCapacity(size);
+        final int pos = mEnd;
+        mBuffer.put(pos, type);
+        mBuffer.putShort(pos + 1, (short) bytes.length);
+        for (int i = 0; i < bytes.length; i++) mBuffer.put(pos + 3 + i, bytes[i]);
+        slot = new Slot(type, pos, pos + 3 + bytes.length);
+        mSlots.put(key, slot);
+        setEnd(pos + size);
+        return slot;
+    }
+
+    /**
+     * Marks specified record as removed.
+     * */
+    private void markRemoved(Slot slot) {
+        mBuffer.put(slot.record, (byte) (slot.type | FLAG_REMOVED));
+        mRemovedSize += slot.value - slot.record + valueSize(slot.type);
+    }
+
+    /**
+     * Compacts the storage file, if removed records take more than half of data.
+     * */
+    private void compactIfNeeded() {
+        if (mRemovedSize < COMPACT_MIN || mRemovedSize * 2 < mEnd - HEADER_SIZE) return;
+        try {
+            compact();
+        } catch (IOException e) {
+            // Nothing to do, the file is still valid, try again later
+        }
+    }
+
+    /**
+     * Grows the mapped region, if it has not enough space for specified number of bytes.
+     * */
+    private void ensureCapacity(int size) {
+        if (mEnd + size <= mBuffer.capacity()) return;
+        try {
+            map(Math.max(mBuffer.capacity() * 2, mEnd + size));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot grow " + mFile, e);
+        }
+    }
+
+    /**
+     * Sets the end of data.
+     * */
+    private void setEnd(int end) {
+        mEnd = end;
+        mBuffer.putInt(END_OFFSET, end);
+    }
+
+    /**
+     * Returns the size of value of specified type, or 0 if the type is unknown.
+     * */
+    private static int valueSize(byte type) {
+        switch (type) {
+            case TYPE_INT: return 4;
+            case TYPE_LONG: return 8;
+            case TYPE_BOOLEAN: return 1;
+            default: return 0;
+        }
+    }
+
+    /**
+     * The location of one record in the storage file.
+     * */
+    private static final class Slot {
+
+        /** The type of value. */
+        final byte type;
+
+        /** The offset of the record. */
+        final int record;
+
+        /** The offset of the value. */
+        final int value;
+
+        Slot(byte type, int record, int value) {
+            this.type = type;
+            this.record = record;
+            this.value = value;
+        }
+    }
+
+}
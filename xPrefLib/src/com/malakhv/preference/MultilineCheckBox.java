@@ -20,10 +20,10 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.os.Build;
 import android.preference.CheckBoxPreference;
-import android.preference.Preference;
+import android.preference.PreferenceManager;
 import android.util.AttributeSet;
 import android.view.View;
-import android.widget.TextView;
+import android.view.ViewGroup;
 
 /**
  * Class implements {@link CheckBoxPreference} without limiting the number of lines for
@@ -34,6 +34,40 @@ import android.widget.TextView;
 @SuppressWarnings("unused")
 public class MultilineCheckBox extends CheckBoxPreference {
 
+    /** The change handling and storage of this preference, please see {@link TwoStateDelegate}. */
+    private final TwoStateDelegate mDelegate = new TwoStateDelegate(this) {
+        @Override
+        void onNotifyChanged() { MultilineCheckBox.super.notifyChanged(); }
+
+        @Override
+        void onNotifyDependencyChange(boolean disableDependents) {
+            MultilineCheckBox.super.notifyDependencyChange(disableDependents);
+        }
+
+        @Override
+        void onSetChecked(boolean checked) { MultilineCheckBox.super.setChecked(checked); }
+
+        @Override
+        boolean onPersistBoolean(boolean value) {
+            return MultilineCheckBox.super.persistBoolean(value);
+        }
+
+        @Override
+        boolean onGetPersistedBoolean(boolean defaultReturnValue) {
+            return MultilineCheckBox.super.getPersistedBoolean(defaultReturnValue);
+        }
+
+        @Override
+        void onSetInitialValue(boolean restoreValue, Object defaultValue) {
+            MultilineCheckBox.super.onSetInitialValue(restoreValue, defaultValue);
+        }
+
+        @Override
+        void onAttachedToHierarchy(PreferenceManager preferenceManager) {
+            MultilineCheckBox.super.onAttachedToHierarchy(preferenceManager);
+        }
+    };
+
     /**
      * Simple constructor to use when creating a preference from code. Just call super(), in this
      * implementation.
@@ -66,6 +100,40 @@ public class MultilineCheckBox extends CheckBoxPreference {
         super(context, attrs, defStyleAttr, defStyleRes);
     }
 
+    /**
+     * Sets whether the row of this preference is rendered by one flattened view, that measures
+     * and draws the icon, title, summary and widget itself, instead of the framework's row layout.
+     * It's faster to measure, but the row layout resource is not used in this mode. By default,
+     * is false.
+     * */
+    public void setFlatRow(boolean flatRow) {
+        if (mDelegate.setFlatRow(flatRow)) notifyChanged();
+    }
+
+    /**
+     * Returns true, if the row of this preference is rendered by one flattened view.
+     * */
+    public boolean isFlatRow() { return mDelegate.isFlatRow(); }
+
+    /**
+     * Gets the View that will be shown in the PreferenceActivity. In this implementation, does
+     * not reuse the row view of other row mode.
+     * */
+    @Override
+    public View getView(View convertView, ViewGroup parent) {
+        return super.getView(MultilinePreference.checkRowView(convertView, isFlatRow()), parent);
+    }
+
+    /**
+     * Creates the View to be shown for this Preference in the PreferenceActivity. In this
+     * implementation, creates the flattened row view, if it needed.
+     * */
+    @Override
+    protected View onCreateView(ViewGroup parent) {
+        final View view = MultilinePreference.createRowView(this);
+        return view != null ? view : super.onCreateView(parent);
+    }
+
     /**
      * Binds the created View to the data for this Preference. In this implementation, disabled the
      * single line limitation for a preference's title and the number of lines limitation for a
@@ -73,8 +141,102 @@ public class MultilineCheckBox extends CheckBoxPreference {
      * */
     @Override
     protected void onBindView(View view) {
-        super.onBindView(view);
-        MultilinePreference.setMultilineTitle(view);
-        MultilinePreference.setMultilineSummary(view);
+        final long start = PreferenceTracing.begin(PreferenceMetrics.EVENT_BIND);
+        try {
+            super.onBindView(view);
+            MultilinePreference.bindRowView(view, mDelegate, MultilineRowView.WIDGET_CHECKBOX);
+        } finally {
+            PreferenceTracing.end(PreferenceMetrics.EVENT_BIND, this, start);
+        }
     }
-}
\ No newline at end of file
+
+    /**
+     * Should be called when the data of this Preference has changed. In this implementation, the
+     * change is handled by {@link PreferenceDelegate#notifyChanged()}.
+     * */
+    @Override
+    protected void notifyChanged() {
+        // The framework's constructors can notify before the delegate is created
+        if (mDelegate != null) mDelegate.notifyChanged(); else super.notifyChanged();
+    }
+
+    /**
+     * Notifies any listening dependents of a change that affects the dependency. In this
+     * implementation, the notification is handled by
+     * {@link PreferenceDelegate#notifyDependencyChange(boolean)}.
+     * */
+    @Override
+    public void notifyDependencyChange(boolean disableDependents) {
+        mDelegate.notifyDependencyChange(disableDependents);
+    }
+
+    /**
+     * Sets the checked state and saves it. In this implementation, the new state is published to
+     * the {@link PreferenceValueStream}.
+     * */
+    @Override
+    public void setChecked(boolean checked) {
+        // The framework's constructors can set the state before the delegate is created
+        if (mDelegate != null) mDelegate.setChecked(checked); else super.setChecked(checked);
+    }
+
+    /**
+     * Sets whether the value, that is set now, is restored from elsewhere, so it's not published
+     * to the {@link PreferenceValueStream} as a change.
+     * */
+    void setRestoringValue(boolean restoring) { // package access
+        mDelegate.setRestoringValue(restoring);
+    }
+
+    /**
+     * Sets the storage of this preference's value, instead of the SharedPreferences. Should be
+     * called before this preference is added to the hierarchy.
+     * @see PreferenceStorage#setDefault(PreferenceStorage)
+     * */
+    public void setStorage(PreferenceStorage storage) { mDelegate.setStorage(storage); }
+
+    /**
+     * Returns the storage of this preference's value, or null if the value is persisted to the
+     * SharedPreferences.
+     * */
+    public PreferenceStorage getStorage() { return mDelegate.getStorage(); }
+
+    /**
+     * Attempts to persist a boolean to the SharedPreferences, or to the
+     * {@link #getStorage() storage}. If there is the open {@link PreferenceTransaction}, the value
+     * will be written to the SharedPreferences when it's applied.
+     * */
+    @Override
+    protected boolean persistBoolean(boolean value) { return mDelegate.persistBoolean(value); }
+
+    /**
+     * Attempts to get a persisted boolean from the SharedPreferences, or from the
+     * {@link #getStorage() storage}. In the open {@link PreferenceTransaction}, the pending value
+     * will be returned, if it exists.
+     * */
+    @Override
+    protected boolean getPersistedBoolean(boolean defaultReturnValue) {
+        return mDelegate.getPersistedBoolean(defaultReturnValue);
+    }
+
+    /**
+     * Implement this to set the initial value of the Preference. In this implementation, the
+     * value is looked for in the {@link #getStorage() storage}, if it exists.
+     * */
+    @Override
+    protected void onSetInitialValue(boolean restoreValue, Object defaultValue) {
+        mDelegate.setInitialValue(restoreValue, defaultValue);
+    }
+
+    /**
+     * Called when this Preference has been attached to a Preference hierarchy. In this
+     * implementation, restores the value from the {@link #getStorage() storage}, if the framework
+     * did not set the initial value. Before that, waits for the preference file, if it is still
+     * loading by {@link PreferencePreloader}.
+     * */
+    @Override
+    protected void onAttachedToHierarchy(PreferenceManager preferenceManager) {
+        if (mDelegate.attachToHierarchy(preferenceManager)) onSetInitialValue(true, null);
+    }
+
+}
@@ -18,14 +18,14 @@ package com.malakhv.preference;
 
 import android.annotation.TargetApi;
 import android.content.Context;
-import android.content.res.TypedArray;
 import android.os.Build;
 import android.preference.Preference;
+import android.preference.TwoStatePreference;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.TextView;
 
 /**
  * Class implements {@link Preference} without limiting the number of lines for preference's title
@@ -37,9 +37,19 @@ import android.widget.TextView;
 public class MultilinePreference extends Preference {
 
     /** The gravity of preference's title and summary. */
-    //TODO Right now, you can specify this parameter only in xml
     private int mGravity = Gravity.NO_GRAVITY;
 
+    /** The change handling of this preference, please see {@link PreferenceDelegate}. */
+    private final PreferenceDelegate mDelegate = new PreferenceDelegate(this) {
+        @Override
+        void onNotifyChanged() { MultilinePreference.super.notifyChanged(); }
+
+        @Override
+        void onNotifyDependencyChange(boolean disableDependents) {
+            MultilinePreference.super.notifyDependencyChange(disableDependents);
+        }
+    };
+
     /**
      * Simple constructor to use when creating a preference from code. Just call super(), in this
      * implementation.
@@ -75,14 +85,62 @@ public class MultilinePreference extends Preference {
     }
 
     /**
-     * Initialize this {@code preference} object.
+     * Initialize this {@code preference} object. The attributes are resolved once per theme and
+     * style, if there is no {@link AttributeSet}.
      * */
     protected void initFromAttr(Context context, AttributeSet attrs, int defStyleAttr, int
             defStyleRes) {
-        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.Preference, defStyleAttr,
-                defStyleRes);
-        mGravity = a.getInt(R.styleable.Preference_android_gravity, mGravity);
-        a.recycle();
+        mGravity = ResolvedAttributes.forPreference(context, attrs, defStyleAttr,
+                defStyleRes).gravity;
+    }
+
+    /**
+     * Sets the gravity of preference's title and summary.
+     * @see Gravity
+     * */
+    public void setGravity(int gravity) {
+        if (mGravity == gravity) return;
+        mGravity = gravity;
+        notifyChanged();
+    }
+
+    /**
+     * Returns the gravity of preference's title and summary.
+     * */
+    public int getGravity() { return mGravity; }
+
+    /**
+     * Sets whether the row of this preference is rendered by one flattened view, that measures
+     * and draws the icon, title, summary and widget itself, instead of the framework's row layout.
+     * It's faster to measure, but the row layout resource is not used in this mode. By default,
+     * is false.
+     * */
+    public void setFlatRow(boolean flatRow) {
+        if (mDelegate.setFlatRow(flatRow)) notifyChanged();
+    }
+
+    /**
+     * Returns true, if the row of this preference is rendered by one flattened view.
+     * */
+    public boolean isFlatRow() { return mDelegate.isFlatRow(); }
+
+    /**
+     * Gets the View that will be shown in the PreferenceActivity. In this implementation, does
+     * not reuse the row view of other row mode.
+     * */
+    @Override
+    public View getView(View convertView, ViewGroup parent) {
+        return super.getView(checkRowView(convertView, isFlatRow()), parent);
+    }
+
+    /**
+     * Creates the View to be shown for this Preference in the PreferenceActivity. In this
+     * implementation, creates the flattened row view, if it needed.
+     * */
+    @Override
+    protected View onCreateView(ViewGroup parent) {
+        final View view = createRowView(this);
+        return view != null ? view : super.onCreateView(parent);
     }
 
     /**
@@ -92,64 +150,187 @@ public class MultilinePreference extends Preference {
      * */
     @Override
     protected void onBindView(View view) {
-        super.onBindView(view);
-        setMultilineTitle(view);
-        setMultilineSummary(view);
-        if (mGravity != Gravity.NO_GRAVITY) {
-            setTitleGravity(view, mGravity);
-            setSummaryGravity(view, mGravity);
+        final long start = PreferenceTracing.begin(PreferenceMetrics.EVENT_BIND);
+        try {
+            super.onBindView(view);
+            bindRowView(view, mDelegate, getSummary(), mGravity, MultilineRowView.WIDGET_NONE,
+                    false);
+        } finally {
+            PreferenceTracing.end(PreferenceMetrics.EVENT_BIND, this, start);
         }
     }
 
     /**
-     * Disable the single line limitation for a preference's title.
+     * Should be called when the data of this Preference has changed. In this implementation, the
+     * change is handled by {@link PreferenceDelegate#notifyChanged()}.
+     * */
+    @Override
+    protected void notifyChanged() {
+        // The framework's constructors can notify before the delegate is created
+        if (mDelegate != null) mDelegate.notifyChanged(); else super.notifyChanged();
+    }
+
+    /**
+     * Notifies any listening dependents of a change that affects the dependency. In this
+     * implementation, the notification is handled by
+     * {@link PreferenceDelegate#notifyDependencyChange(boolean)}.
+     * */
+    @Override
+    public void notifyDependencyChange(boolean disableDependents) {
+        mDelegate.notifyDependencyChange(disableDependents);
+    }
+
+    /**
+     * Disables the lines limitation for a preference's title and summary and sets the gravity for
+     * them. The {@link Gravity#NO_GRAVITY} resets the gravity from the row layout, so a recycled
+     * row view doesn't keep the gravity of another preference. All views are looked up only once
+     * per row view and only the differences are applied, please see {@link MultilineViewHolder}.
+     * */
+    static void bindMultilineView(View view, int gravity) { // package access
+        final MultilineViewHolder holder = MultilineViewHolder.get(view);
+        if (holder == null) return;
+        holder.applyMultilineTitle();
+        holder.applyMultilineSummary();
+        holder.applyTitleGravity(gravity);
+        holder.applySummaryGravity(gravity);
+    }
+
+    /**
+     * Binds the row view of specified preference: the flattened row view, or the framework's row
+     * view without lines limitations, please see {@link #bindMultilineView(View, int)}.
      * */
-    static void setMultilineTitle(View view) { // package access
-        if (view == null) return;
-        final TextView v = (TextView) view.findViewById(android.R.id.title);
-        if (v != null) {
-            v.setSingleLine(false);
+    static void bindRowView(View view, PreferenceDelegate delegate, CharSequence summary,
+            int gravity, int widget, boolean checked) { // package access
+        delegate.onBind();
+        if (view instanceof MultilineRowView) {
+            final Preference preference = delegate.getPreference();
+            ((MultilineRowView) view).bind(preference.getTitle(), summary, preference.getIcon(),
+                    gravity, preference.isEnabled(), widget, checked);
+        } else {
+            bindMultilineView(view, gravity);
         }
     }
 
+    /**
+     * Binds the row view of specified two state preference, with the summary for its current
+     * state and the widget of specified type.
+     * */
+    static void bindRowView(View view, TwoStateDelegate delegate, int widget) { // package access
+        final TwoStatePreference preference = (TwoStatePreference) delegate.getPreference();
+        bindRowView(view, delegate, getStateSummary(preference), Gravity.NO_GRAVITY, widget,
+                preference.isChecked());
+    }
+
+    /**
+     * Computes the text layouts of specified preference's flattened row in the background, with
+     * the text width and appearance of specified measured row view of the same type, please see
+     * {@link TextLayoutCache#precompute(CharSequence, int, android.text.TextPaint, int)}.
+     * */
+    static void precomputeRowView(View view, Preference preference) { // package access
+        if (!(view instanceof MultilineRowView)) return;
+        final CharSequence summary;
+        final int gravity;
+        if (preference instanceof MultilinePreference) {
+            summary = preference.getSummary();
+            gravity = ((MultilinePreference) preference).getGravity();
+        } else if (preference instanceof TwoStatePreference) {
+            summary = getStateSummary((TwoStatePreference) preference);
+            gravity = Gravity.NO_GRAVITY;
+        } else {
+            return;
+        }
+        ((MultilineRowView) view).precompute(preference.getTitle(), summary,
+                preference.getIcon(), gravity, preference.isEnabled());
+    }
+
+    /**
+     * Returns the flattened row view for specified preference, if its row is flat, otherwise
+     * null, so the framework's row view should be created.
+     * */
+    static View createRowView(Preference preference) { // package access
+        return isFlatRow(preference) ? new MultilineRowView(preference.getContext()) : null;
+    }
+
+    /**
+     * Returns specified row view, if it was created for specified row mode, otherwise null.
+     * */
+    static View checkRowView(View view, boolean flatRow) { // package access
+        return (view instanceof MultilineRowView) == flatRow ? view : null;
+    }
+
+    /**
+     * Returns true, if specified preference is rendered by the flattened row view.
+     * */
+    static boolean isFlatRow(Preference preference) { // package access
+        if (preference instanceof MultilinePreference) {
+            return ((MultilinePreference) preference).isFlatRow();
+        }
+        if (preference instanceof MultilineCheckBox) {
+            return ((MultilineCheckBox) preference).isFlatRow();
+        }
+        return preference instanceof MultilineSwitch && ((MultilineSwitch) preference).isFlatRow();
+    }
+
+    /**
+     * Returns the summary of specified two state preference, that is shown for its current state.
+     * */
+    static CharSequence getStateSummary(TwoStatePreference preference) { // package access
+        final boolean checked = preference.isChecked();
+        if (checked && !TextUtils.isEmpty(preference.getSummaryOn())) {
+            return preference.getSummaryOn();
+        }
+        if (!checked && !TextUtils.isEmpty(preference.getSummaryOff())) {
+            return preference.getSummaryOff();
+        }
+        return preference.getSummary();
+    }
+
+    /**
+     * Disable the single line limitation for a preference's title.
+     * */
+    static void setMultilineTitle(View view) {
+        final MultilineViewHolder holder = MultilineViewHolder.get(view);
+        if (holder != null) holder.applyMultilineTitle();
+    }
+
     /**
      * Disable the number of lines limitation for a preference's summary.
      * */
     static void setMultilineSummary(View view) {
-        if (view == null) return;
-        final TextView v = (TextView) view.findViewById(android.R.id.summary);
-        if (v != null) {
-            v.setMaxLines(Integer.MAX_VALUE);
-        }
+        final MultilineViewHolder holder = MultilineViewHolder.get(view);
+        if (holder != null) holder.applyMultilineSummary();
     }
 
     /**
      * Sets the gravity for a preference's title.
      * */
     static void setTitleGravity(View view, int gravity) {
-        final TextView v = (TextView) view.findViewById(android.R.id.title);
-        if (v != null) {
-            setTextViewGravity(v, gravity);
-        }
+        final MultilineViewHolder holder = MultilineViewHolder.get(view);
+        if (holder != null) holder.applyTitleGravity(gravity);
     }
 
     /**
      * Sets the gravity for a preference's summary.
      * */
     static void setSummaryGravity(View view, int gravity) {
-        final TextView v = (TextView) view.findViewById(android.R.id.summary);
-        if (v != null) {
-            setTextViewGravity(v, gravity);
-        }
+        final MultilineViewHolder holder = MultilineViewHolder.get(view);
+        if (holder != null) holder.applySummaryGravity(gravity);
+    }
+
+    /**
+     * Returns the number of layout requests that were avoided by multiline preferences during
+     * binding, since last reset. Use it to check the effect of binding on scroll performance.
+     * */
+    public static long getSkippedLayoutRequests() {
+        return MultilineViewHolder.getSkippedLayouts();
     }
 
     /**
-     * Sets the gravity of the {@code TextView} into {@code Preference} layout.
+     * Resets the number of layout requests that were avoided by multiline preferences.
+     * @see #getSkippedLayoutRequests()
      * */
-    static void setTextViewGravity(TextView view, int gravity) {
-        if (view == null || view.getGravity() == gravity) return;
-        view.getLayoutParams().width = ViewGroup.LayoutParams.MATCH_PARENT;
-        view.setGravity(gravity);
+    public static void resetSkippedLayoutRequests() {
+        MultilineViewHolder.resetSkippedLayouts();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,456 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.widget.CheckBox;
+import android.widget.Switch;
+import android.widget.TextView;
+
+/**
+ * The flattened preference's row: the icon, title, summary and widget are measured and drawn by
+ * this one view, instead of the framework's row layout, that is several view groups deep. The
+ * text layouts are taken from the {@link TextLayoutCache}. The view reports its title, summary
+ * and checked state to accessibility services as the framework's row does.
+ * <p>The row follows the layout direction: in right to left layout, the icon is at the right side
+ * and the widget is at the left side.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+final class MultilineRowView extends View { // package access
+
+    /** The row has no widget. */
+    static final int WIDGET_NONE = 0;
+
+    /** The row has a check box. */
+    static final int WIDGET_CHECKBOX = 1;
+
+    /** The row has a switch. */
+    static final int WIDGET_SWITCH = 2;
+
+    /** The horizontal padding of the row, in dp. */
+    private static final int PADDING_HORIZONTAL = 16;
+
+    /** The vertical padding of the row, in dp. */
+    private static final int PADDING_VERTICAL = 12;
+
+    /** The gap between the icon, text and widget, in dp. */
+    private static final int GAP = 16;
+
+    /** The checked state of the widget. */
+    private static final int[] STATE_CHECKED = new int[] {
+            android.R.attr.state_enabled, android.R.attr.state_checked};
+
+    /** The unchecked state of the widget. */
+    private static final int[] STATE_UNCHECKED = new int[] {android.R.attr.state_enabled};
+
+    /** The disabled checked state of the widget. */
+    private static final int[] STATE_DISABLED_CHECKED = new int[] {android.R.attr.state_checked};
+
+    /** The disabled unchecked state of the widget. */
+    private static final int[] STATE_DISABLED_UNCHECKED = new int[0];
+
+    private final TextPaint mTitlePaint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+    private final TextPaint mSummaryPaint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+    private final ColorStateList mTitleColors;
+    private final ColorStateList mSummaryColors;
+    private final int mMinHeight;
+    private final int mGap;
+
+    private CharSequence mTitle = null;
+    private CharSequence mSummary = null;
+    private Drawable mIcon = null;
+    private int mGravity = Gravity.NO_GRAVITY;
+    private int mWidget = WIDGET_NONE;
+    private boolean mChecked = false;
+    private boolean mEnabled = true;
+
+    /** The widget drawables, resolved on first use. */
+    private Drawable mCheckBox = null;
+    private Drawable mThumb = null;
+    private Drawable mTrack = null;
+
+    /** The text layouts, computed while measuring. */
+    private Layout mTitleLayout = null;
+    private Layout mSummaryLayout = null;
+
+    /** The left position and width of the text, computed while measuring. */
+    private int mTextLeft = 0;
+    private int mTextWidth = 0;
+
+    /**
+     * Creates a new row view with the text appearance of current theme.
+     * */
+    MultilineRowView(Context context) {
+        super(context);
+        final float density = context.getResources().getDisplayMetrics().density;
+        final int horizontal = (int) (PADDING_HORIZONTAL * density + 0.5f);
+        final int vertical = (int) (PADDING_VERTICAL * density + 0.5f);
+        setPadding(horizontal, vertical, horizontal, vertical);
+        mGap = (int) (GAP * density + 0.5f);
+        mTitleColors = initAppearance(context, android.R.attr.textAppearanceMedium, mTitlePaint);
+        final ColorStateList summaryColors = resolveColor(context,
+                android.R.attr.textColorSecondary);
+        final ColorStateList appearanceColors = initAppearance(context,
+                android.R.attr.textAppearanceSmall, mSummaryPaint);
+        mSummaryColors = summaryColors != null ? summaryColors : appearanceColors;
+        final TypedArray a = context.obtainStyledAttributes(
+                new int[] {android.R.attr.listPreferredItemHeightSmall});
+        mMinHeight = a.getDimensionPixelSize(0, 0);
+        a.recycle();
+        updateTextColors();
+    }
+
+    /**
+     * Binds the preference's data to this row.
+     * @param widget The widget, one of {@code WIDGET_*} constants.
+     * */
+    void bind(CharSequence title, CharSequence summary, Drawable icon, int gravity,
+            boolean enabled, int widget, boolean checked) {
+        final boolean layoutChanged = !TextUtils.equals(mTitle, title)
+                || !TextUtils.equals(mSummary, summary) || mIcon != icon || mGravity != gravity
+                || mWidget != widget || mEnabled != enabled;
+        mTitle = title;
+        mSummary = summary;
+        mIcon = icon;
+        mGravity = gravity;
+        mWidget = widget;
+        mChecked = checked;
+        mEnabled = enabled;
+        if (layoutChanged) {
+            requestLayout();
+        } else {
+            MultilineViewHolder.countSkippedLayout();
+        }
+        setEnabled(enabled);
+        invalidate();
+    }
+
+    /**
+     * Computes the text layouts for specified row data in the background, with the text width and
+     * appearance of this measured row, so the row of the same type, that is bound with this data
+     * later, takes them from the {@link TextLayoutCache}. Does nothing, if this row is not
+     * measured yet, or if its text colors are not the colors of the row with this data.
+     * */
+    void precompute(CharSequence title, CharSequence summary, Drawable icon, int gravity,
+            boolean enabled) {
+        if (mTextWidth <= 0 || enabled != isEnabled() || isPressed()) return;
+        // Only the icon can change the text width of the row of the same type
+        final int width = mTextWidth + getIconSpace(mIcon) - getIconSpace(icon);
+        TextLayoutCache.precompute(title, width, mTitlePaint, gravity);
+        TextLayoutCache.precompute(summary, width, mSummaryPaint, gravity);
+    }
+
+    @Override
+    protected void drawableStateChanged() {
+        super.drawableStateChanged();
+        // The cached text layouts keep the paint colors, so they are taken again, if the row
+        // is not going to be measured anyway
+        if (updateTextColors() && mTextWidth > 0 && !isLayoutRequested()) {
+            obtainTextLayouts();
+            invalidate();
+        }
+    }
+
+    @Override
+    public void onRtlPropertiesChanged(int layoutDirection) {
+        super.onRtlPropertiesChanged(layoutDirection);
+        requestLayout();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int width = MeasureSpec.getSize(widthMeasureSpec);
+
+        // The icon and widget take their intrinsic sizes, the text takes the rest
+        final int iconWidth = getIconSpace(mIcon);
+        final int widgetWidth = getWidgetWidth();
+        final int widgetSpace = widgetWidth > 0 ? widgetWidth + mGap : 0;
+        mTextLeft = getPaddingLeft() + (isRtl() ? widgetSpace : iconWidth);
+        mTextWidth = width - getPaddingLeft() - getPaddingRight() - iconWidth - widgetSpace;
+        obtainTextLayouts();
+
+        int height = getTextHeight();
+        if (mIcon != null) height = Math.max(height, mIcon.getIntrinsicHeight());
+        height = Math.max(height, getWidgetHeight());
+        height = Math.max(height + getPaddingTop() + getPaddingBottom(), mMinHeight);
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        final int centerY = getHeight() / 2;
+        if (mIcon != null) {
+            final int top = centerY - mIcon.getIntrinsicHeight() / 2;
+            final int left = isRtl()
+                    ? getWidth() - getPaddingRight() - mIcon.getIntrinsicWidth() : getPaddingLeft();
+            mIcon.setBounds(left, top, left + mIcon.getIntrinsicWidth(),
+                    top + mIcon.getIntrinsicHeight());
+            mIcon.draw(canvas);
+        }
+
+        // The title and summary are centered vertically
+        int top = centerY - getTextHeight() / 2;
+        if (mTitleLayout != null) {
+            canvas.save();
+            canvas.translate(mTextLeft, top);
+            mTitleLayout.draw(canvas);
+            canvas.restore();
+            top += mTitleLayout.getHeight();
+        }
+        if (mSummaryLayout != null) {
+            canvas.save();
+            canvas.translate(mTextLeft, top);
+            mSummaryLayout.draw(canvas);
+            canvas.restore();
+        }
+        drawWidget(canvas, centerY);
+    }
+
+    @Override
+    public void onInitializeAccessibilityNodeInfo(AccessibilityNodeInfo info) {
+        super.onInitializeAccessibilityNodeInfo(info);
+        info.setClassName(getWidgetClassName());
+        info.setText(getAccessibilityText());
+        if (mWidget != WIDGET_NONE) {
+            info.setCheckable(true);
+            info.setChecked(mChecked);
+        }
+    }
+
+    @Override
+    public void onInitializeAccessibilityEvent(AccessibilityEvent event) {
+        super.onInitializeAccessibilityEvent(event);
+        event.setClassName(getWidgetClassName());
+        if (mWidget != WIDGET_NONE) event.setChecked(mChecked);
+    }
+
+    @Override
+    public void onPopulateAccessibilityEvent(AccessibilityEvent event) {
+        super.onPopulateAccessibilityEvent(event);
+        if (!TextUtils.isEmpty(mTitle)) event.getText().add(mTitle);
+        if (!TextUtils.isEmpty(mSummary)) event.getText().add(mSummary);
+    }
+
+    /**
+     * Returns the class name, that describes this row to accessibility services.
+     * */
+    private String getWidgetClassName() {
+        switch (mWidget) {
+            case WIDGET_CHECKBOX: return CheckBox.class.getName();
+            case WIDGET_SWITCH: return Switch.class.getName();
+            default: return TextView.class.getName();
+        }
+    }
+
+    /**
+     * Returns the text, that describes this row to accessibility services.
+     * */
+    private CharSequence getAccessibilityText() {
+        if (TextUtils.isEmpty(mSummary)) return mTitle;
+        if (TextUtils.isEmpty(mTitle)) return mSummary;
+        return TextUtils.concat(mTitle, "\n", mSummary);
+    }
+
+    /**
+     * Sets the text colors for the current drawable state to the paints.
+     * @return True, if any color was changed.
+     * */
+    private boolean updateTextColors() {
+        // May be called from the super constructor, before the paints are created
+        if (mTitlePaint == null || mSummaryPaint == null) return false;
+        final int[] state = getDrawableState();
+        final int title = mTitleColors != null
+                ? mTitleColors.getColorForState(state, 0) : mTitlePaint.getColor();
+        final int summary = mSummaryColors != null
+                ? mSummaryColors.getColorForState(state, 0) : mSummaryPaint.getColor();
+        if (title == mTitlePaint.getColor() && summary == mSummaryPaint.getColor()) return false;
+        mTitlePaint.setColor(title);
+        mSummaryPaint.setColor(summary);
+        return true;
+    }
+
+    /**
+     * Takes the title and summary layouts for the current text width and paints.
+     * */
+    private void obtainTextLayouts() {
+        mTitleLayout = !TextUtils.isEmpty(mTitle)
+                ? TextLayoutCache.obtain(mTitle, mTextWidth, mTitlePaint, mGravity) : null;
+        mSummaryLayout = !TextUtils.isEmpty(mSummary)
+                ? TextLayoutCache.obtain(mSummary, mTextWidth, mSummaryPaint, mGravity) : null;
+    }
+
+    /**
+     * Returns true, if this row is laid out from right to left.
+     * */
+    private boolean isRtl() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                && getLayoutDirection() == LAYOUT_DIRECTION_RTL;
+    }
+
+    /**
+     * Returns the width, that specified icon takes with the gap, or 0 if there is no icon.
+     * */
+    private int getIconSpace(Drawable icon) {
+        return icon != null ? icon.getIntrinsicWidth() + mGap : 0;
+    }
+
+    /**
+     * Returns the height of title and summary.
+     * */
+    private int getTextHeight() {
+        return (mTitleLayout != null ? mTitleLayout.getHeight() : 0)
+                + (mSummaryLayout != null ? mSummaryLayout.getHeight() : 0);
+    }
+
+    /**
+     * Returns the width of the widget, or 0 if there is no widget.
+     * */
+    private int getWidgetWidth() {
+        switch (mWidget) {
+            case WIDGET_CHECKBOX:
+                return getCheckBox() != null ? mCheckBox.getIntrinsicWidth() : 0;
+            case WIDGET_SWITCH:
+                if (!hasSwitch()) return 0;
+                return Math.max(mTrack.getIntrinsicWidth(), mThumb.getIntrinsicWidth() * 2);
+            default: return 0;
+        }
+    }
+
+    /**
+     * Returns the height of the widget, or 0 if there is no widget.
+     * */
+    private int getWidgetHeight() {
+        switch (mWidget) {
+            case WIDGET_CHECKBOX:
+                return getCheckBox() != null ? mCheckBox.getIntrinsicHeight() : 0;
+            case WIDGET_SWITCH:
+                if (!hasSwitch()) return 0;
+                return Math.max(mTrack.getIntrinsicHeight(), mThumb.getIntrinsicHeight());
+            default: return 0;
+        }
+    }
+
+    /**
+     * Draws the widget at the end side of the row.
+     * */
+    private void drawWidget(Canvas canvas, int centerY) {
+        final int width = getWidgetWidth();
+        if (width == 0) return;
+        final boolean rtl = isRtl();
+        final int right = rtl ? getPaddingLeft() + width : getWidth() - getPaddingRight();
+        final int[] state = isEnabled() ? (mChecked ? STATE_CHECKED : STATE_UNCHECKED)
+                : (mChecked ? STATE_DISABLED_CHECKED : STATE_DISABLED_UNCHECKED);
+        if (mWidget == WIDGET_CHECKBOX) {
+            final int height = mCheckBox.getIntrinsicHeight();
+            mCheckBox.setState(state);
+            mCheckBox.setBounds(right - width, centerY - height / 2, right,
+                    centerY - height / 2 + height);
+            mCheckBox.draw(canvas);
+            return;
+        }
+        final int trackHeight = mTrack.getIntrinsicHeight();
+        mTrack.setState(state);
+        mTrack.setBounds(right - width, centerY - trackHeight / 2, right,
+                centerY - trackHeight / 2 + trackHeight);
+        mTrack.draw(canvas);
+        final int thumbWidth = mThumb.getIntrinsicWidth();
+        final int thumbHeight = mThumb.getIntrinsicHeight();
+        // The switch is mirrored in right to left layout, as the framework's switch is
+        final int thumbLeft = mChecked != rtl ? right - thumbWidth : right - width;
+        mThumb.setState(state);
+        mThumb.setBounds(thumbLeft, centerY - thumbHeight / 2, thumbLeft + thumbWidth,
+                centerY - thumbHeight / 2 + thumbHeight);
+        mThumb.draw(canvas);
+    }
+
+    /**
+     * Returns the check box drawable of current theme, or null.
+     * */
+    private Drawable getCheckBox() {
+        if (mCheckBox == null) {
+            mCheckBox = resolveDrawable(getContext(), 0,
+                    android.R.attr.listChoiceIndicatorMultiple);
+        }
+        return mCheckBox;
+    }
+
+    /**
+     * Returns true, if the switch drawables of current theme are available.
+     * */
+    private boolean hasSwitch() {
+        if (mThumb == null || mTrack == null) {
+            mThumb = resolveDrawable(getContext(), android.R.attr.switchStyle,
+                    android.R.attr.thumb);
+            mTrack = resolveDrawable(getContext(), android.R.attr.switchStyle,
+                    android.R.attr.track);
+        }
+        return mThumb != null && mTrack != null;
+    }
+
+    /**
+     * Returns the drawable of specified attribute, or null.
+     * */
+    private static Drawable resolveDrawable(Context context, int defStyleAttr, int attr) {
+        final TypedArray a = context.obtainStyledAttributes(null, new int[] {attr},
+                defStyleAttr, 0);
+        final Drawable drawable = a.getDrawable(0);
+        a.recycle();
+        return drawable;
+    }
+
+    /**
+     * Returns the color of specified theme attribute, or null.
+     * */
+    private static ColorStateList resolveColor(Context context, int attr) {
+        final TypedArray a = context.obtainStyledAttributes(new int[] {attr});
+        final ColorStateList colors = a.getColorStateList(0);
+        a.recycle();
+        return colors;
+    }
+
+    /**
+     * Sets the text size of specified text appearance to the paint.
+     * @return The text colors of text appearance, or null.
+     * */
+    private static ColorStateList initAppearance(Context context, int appearanceAttr,
+            TextPaint paint) {
+        paint.density = context.getResources().getDisplayMetrics().density;
+        final TypedValue value = new TypedValue();
+        if (!context.getTheme().resolveAttribute(appearanceAttr, value, true)) return null;
+        final TypedArray a = context.obtainStyledAttributes(value.resourceId,
+                new int[] {android.R.attr.textSize, android.R.attr.textColor});
+        paint.setTextSize(a.getDimension(0, paint.getTextSize()));
+        final ColorStateList colors = a.getColorStateList(1);
+        a.recycle();
+        return colors;
+    }
+
+}
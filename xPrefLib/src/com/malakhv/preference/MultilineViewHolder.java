@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+/**
+ * The cache of views into a preference's row layout. The holder stored into the row view as a tag
+ * with {@code R.id.multiline_view_holder} key, so the title and summary views are looked up only
+ * once per row view, even if this row view recycled many times.
+ * <p>Also, the holder records the multiline, gravity and width state that already applied to the
+ * views, and applies only the differences on each bind. Every call of {@code setSingleLine},
+ * {@code setMaxLines} or {@code setGravity} may request a new layout, even if the view is already
+ * configured that way.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+final class MultilineViewHolder { // package access
+
+    /** The preference's title view, may be null. */
+    final TextView title;
+
+    /** The preference's summary view, may be null. */
+    final TextView summary;
+
+    /**
+     * The number of layout requests that were avoided, since last reset. Only the calls that the
+     * row was making on each bind before are counted.
+     * */
+    private static long sSkippedLayouts = 0;
+
+    /** The gravity of the title view from the row layout. */
+    private final int mTitleGravity;
+
+    /** The gravity of the summary view from the row layout. */
+    private final int mSummaryGravity;
+
+    /** The width of the title view from the row layout. */
+    private final int mTitleWidth;
+
+    /** The width of the summary view from the row layout. */
+    private final int mSummaryWidth;
+
+    /** True, if the single line limitation already disabled for the title view. */
+    private boolean mTitleMultiline = false;
+
+    /** True, if the number of lines limitation already disabled for the summary view. */
+    private boolean mSummaryMultiline = false;
+
+    /** True, if the width of the title view already set to {@code MATCH_PARENT}. */
+    private boolean mTitleWidthApplied = false;
+
+    /** True, if the width of the summary view already set to {@code MATCH_PARENT}. */
+    private boolean mSummaryWidthApplied = false;
+
+    /**
+     * Creates a new holder for specified preference's row view.
+     * */
+    private MultilineViewHolder(View view) {
+        title = (TextView) view.findViewById(android.R.id.title);
+        summary = (TextView) view.findViewById(android.R.id.summary);
+        mTitleGravity = title != null ? title.getGravity() : Gravity.NO_GRAVITY;
+        mSummaryGravity = summary != null ? summary.getGravity() : Gravity.NO_GRAVITY;
+        mTitleWidth = getWidth(title);
+        mSummaryWidth = getWidth(summary);
+    }
+
+    /**
+     * Returns the holder for specified preference's row view. The holder will be created and
+     * stored into the row view, if it needed.
+     * */
+    static MultilineViewHolder get(View view) {
+        if (view == null) return null;
+        final Object tag = view.getTag(R.id.multiline_view_holder);
+        if (tag instanceof MultilineViewHolder) return (MultilineViewHolder) tag;
+        final MultilineViewHolder holder = new MultilineViewHolder(view);
+        view.setTag(R.id.multiline_view_holder, holder);
+        return holder;
+    }
+
+    /**
+     * Disables the single line limitation for the title view, if it needed.
+     * */
+    void applyMultilineTitle() {
+        if (title == null) return;
+        // setSingleLine requests a layout, even if the title view is multiline already
+        if (mTitleMultiline) { sSkippedLayouts++; return; }
+        title.setSingleLine(false);
+        mTitleMultiline = true;
+    }
+
+    /**
+     * Disables the number of lines limitation for the summary view, if it needed.
+     * */
+    void applyMultilineSummary() {
+        if (summary == null) return;
+        // setMaxLines requests a layout, even if the number of lines is not changed
+        if (mSummaryMultiline) { sSkippedLayouts++; return; }
+        summary.setMaxLines(Integer.MAX_VALUE);
+        mSummaryMultiline = true;
+    }
+
+    /**
+     * Sets the gravity for the title view, if it needed. The {@link Gravity#NO_GRAVITY} resets
+     * the gravity and the width from the row layout, because the row view may be recycled.
+     * */
+    void applyTitleGravity(int gravity) {
+        if (title == null) return;
+        if (gravity == Gravity.NO_GRAVITY) {
+            gravity = mTitleGravity;
+            if (mTitleWidthApplied) mTitleWidthApplied = !applyWidth(title, mTitleWidth);
+        } else if (!mTitleWidthApplied) {
+            mTitleWidthApplied = applyWidth(title, ViewGroup.LayoutParams.MATCH_PARENT);
+        }
+        applyGravity(title, gravity);
+    }
+
+    /**
+     * Sets the gravity for the summary view, if it needed. The {@link Gravity#NO_GRAVITY} resets
+     * the gravity and the width from the row layout, because the row view may be recycled.
+     * */
+    void applySummaryGravity(int gravity) {
+        if (summary == null) return;
+        if (gravity == Gravity.NO_GRAVITY) {
+            gravity = mSummaryGravity;
+            if (mSummaryWidthApplied) mSummaryWidthApplied = !applyWidth(summary, mSummaryWidth);
+        } else if (!mSummaryWidthApplied) {
+            mSummaryWidthApplied = applyWidth(summary, ViewGroup.LayoutParams.MATCH_PARENT);
+        }
+        applyGravity(summary, gravity);
+    }
+
+    /**
+     * Returns the width of specified view from its layout params, or {@code WRAP_CONTENT} if the
+     * view is null or has no layout params.
+     * */
+    private static int getWidth(TextView view) {
+        final ViewGroup.LayoutParams params = view != null ? view.getLayoutParams() : null;
+        return params != null ? params.width : ViewGroup.LayoutParams.WRAP_CONTENT;
+    }
+
+    /**
+     * Sets the width of specified view. The layout params are changed in place, the view is
+     * measured with them on next layout.
+     * @return True, if the view has specified width now.
+     * */
+    private static boolean applyWidth(TextView view, int width) {
+        final ViewGroup.LayoutParams params = view.getLayoutParams();
+        if (params == null) return false;
+        params.width = width;
+        return true;
+    }
+
+    /**
+     * Sets the gravity for specified view, if it needed.
+     * */
+    private static void applyGravity(TextView view, int gravity) {
+        if (view.getGravity() != gravity) view.setGravity(gravity);
+    }
+
+    /**
+     * Counts the layout request that was avoided outside of this holder.
+     * */
+    static void countSkippedLayout() { sSkippedLayouts++; }
+
+    /**
+     * Returns the number of layout requests that were avoided, since last reset.
+     * */
+    static long getSkippedLayouts() { return sSkippedLayouts; }
+
+    /**
+     * Resets the number of layout requests that were avoided.
+     * */
+    static void resetSkippedLayouts() { sSkippedLayouts = 0; }
+
+}
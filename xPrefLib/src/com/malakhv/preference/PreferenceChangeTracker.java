@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.Preference;
+import android.preference.PreferenceManager;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The tracking of changes of the library's preferences. By default, each change of a preference
+ * makes the hosting list refresh all its rows. When a host registers the
+ * {@link OnRowChangeListener} for its preference hierarchy, the library's preferences report to
+ * it which preference changed and which fields of its row changed, so the host can bind only
+ * that row, or only the changed views of it. Please see {@link RecyclerPreferenceFragment}.
+ * All methods should be called from the main thread.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class PreferenceChangeTracker {
+
+    /** The summary of the row changed. */
+    public static final int FIELD_SUMMARY = 1;
+
+    /** The enabled state of the row changed. */
+    public static final int FIELD_ENABLED = 1 << 1;
+
+    /** The checked state of the row's widget changed. */
+    public static final int FIELD_CHECKED = 1 << 2;
+
+    /** Any data of the row could change, the row should be bound again. */
+    public static final int FIELD_ALL = 0xFFFF;
+
+    /**
+     * The listener of changes of preference rows.
+     * */
+    public interface OnRowChangeListener {
+
+        /**
+         * Called when the row of specified preference should be updated.
+         * @param fields The changed fields, a combination of {@code FIELD_*} constants.
+         * @return True, if the change is handled, or false to refresh the whole list.
+         * */
+        boolean onRowChanged(Preference preference, int fields);
+    }
+
+    /** The registered listeners, by preference manager. */
+    private static final Map<PreferenceManager, OnRowChangeListener> sListeners =
+            new WeakHashMap<PreferenceManager, OnRowChangeListener>();
+
+    private PreferenceChangeTracker() {}
+
+    /**
+     * Registers the listener for the preference hierarchy of specified manager, or removes it if
+     * null.
+     * */
+    public static void setListener(PreferenceManager manager, OnRowChangeListener listener) {
+        if (manager == null) return;
+        if (listener != null) sListeners.put(manager, listener); else sListeners.remove(manager);
+    }
+
+    /**
+     * Returns the listener for the preference hierarchy of specified manager, or null.
+     * */
+    public static OnRowChangeListener getListener(PreferenceManager manager) {
+        return manager != null ? sListeners.get(manager) : null;
+    }
+
+    /**
+     * Handles the change of specified delegate's preference: defers it, if there is the open
+     * {@link PreferenceTransaction}, or reports it to the registered listener.
+     * @return True, if the change is handled, otherwise the whole list should be refreshed.
+     * */
+    static boolean onChanged(PreferenceDelegate delegate, int fields) { // package access
+        return PreferenceTransaction.deferChanged(delegate, fields)
+                || dispatch(delegate.getPreference(), fields);
+    }
+
+    /**
+     * Reports the change of specified preference to the registered listener.
+     * @return True, if the change is handled by the listener.
+     * */
+    static boolean dispatch(Preference preference, int fields) { // package access
+        final OnRowChangeListener listener = getListener(preference.getPreferenceManager());
+        return listener != null && listener.onRowChanged(preference, fields);
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.Preference;
+import android.preference.TwoStatePreference;
+
+/**
+ * The change handling, that is shared by all library's preferences. Each preference owns one
+ * delegate and forwards its {@code notifyChanged} and {@code notifyDependencyChange} to it, the
+ * delegate calls the framework's implementation back through {@link #onNotifyChanged()} and
+ * {@link #onNotifyDependencyChange(boolean)}.
+ * <p>The changed fields of the row, please see {@link PreferenceChangeTracker}, are found by
+ * comparing the row state with the state that was last bound or reported, so the setters do not
+ * mark them. A change that is not seen in the row state, for example a new title or icon, is
+ * reported as {@link PreferenceChangeTracker#FIELD_ALL}.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+abstract class PreferenceDelegate { // package access
+
+    /** The preference of this delegate. */
+    private final Preference mPreference;
+
+    /** True, if the row is rendered by one flattened view, please see {@link MultilineRowView}. */
+    private boolean mFlatRow = false;
+
+    /** True, if the row state below is known. */
+    private boolean mHasState = false;
+
+    /** The last known enabled state of the row. */
+    private boolean mEnabled;
+
+    /** The last known checked state of the row. */
+    private boolean mChecked;
+
+    /** The last known summary of the row, compared by reference. */
+    private CharSequence mSummary;
+
+    PreferenceDelegate(Preference preference) { mPreference = preference; }
+
+    /**
+     * Returns the preference of this delegate.
+     * */
+    final Preference getPreference() { return mPreference; }
+
+    /**
+     * Sets whether the row of the preference is rendered by one flattened view.
+     * @return True, if the row mode is changed.
+     * */
+    final boolean setFlatRow(boolean flatRow) {
+        if (mFlatRow == flatRow) return false;
+        mFlatRow = flatRow;
+        return true;
+    }
+
+    /**
+     * Returns true, if the row of the preference is rendered by one flattened view.
+     * */
+    final boolean isFlatRow() { return mFlatRow; }
+
+    /**
+     * Calls the framework's {@code notifyChanged} of the preference.
+     * */
+    abstract void onNotifyChanged();
+
+    /**
+     * Calls the framework's {@code notifyDependencyChange} of the preference.
+     * */
+    abstract void onNotifyDependencyChange(boolean disableDependents);
+
+    /**
+     * Called when the row of the preference is bound, remembers the row state.
+     * */
+    final void onBind() { updateState(); }
+
+    /**
+     * Handles the change of the preference: the notification is deferred, if there is the open
+     * {@link PreferenceTransaction}, and only the changed fields of the row are reported, if the
+     * host tracks changes, otherwise the framework notifies the whole list.
+     * */
+    final void notifyChanged() {
+        if (!PreferenceChangeTracker.onChanged(this, updateState())) onNotifyChanged();
+    }
+
+    /**
+     * Notifies the dependents of the preference, and reports the duration of notification, please
+     * see {@link PreferenceMetrics#EVENT_DEPENDENCY_CHANGE}. If there is the open
+     * {@link PreferenceTransaction}, the notification is deferred until it's applied. If there is
+     * the attached {@link DependencyGraph}, the dependents are notified through it.
+     * */
+    final void notifyDependencyChange(boolean disableDependents) {
+        if (DependencyGraph.defer(mPreference)) return; // The graph notifies dependents itself
+        if (PreferenceTransaction.deferDependencyChange(mPreference, disableDependents)) return;
+        if (DependencyGraph.propagate(mPreference, disableDependents)) return;
+        final long start = PreferenceTracing.begin(PreferenceMetrics.EVENT_DEPENDENCY_CHANGE);
+        try {
+            onNotifyDependencyChange(disableDependents);
+        } finally {
+            PreferenceTracing.end(PreferenceMetrics.EVENT_DEPENDENCY_CHANGE, mPreference, start);
+        }
+    }
+
+    /**
+     * Remembers the current row state.
+     * @return The fields that changed since the last known state.
+     * */
+    private int updateState() {
+        final boolean enabled = mPreference.isEnabled();
+        final boolean checked = mPreference instanceof TwoStatePreference
+                && ((TwoStatePreference) mPreference).isChecked();
+        final CharSequence summary = mPreference instanceof TwoStatePreference
+                ? MultilinePreference.getStateSummary((TwoStatePreference) mPreference)
+                : mPreference.getSummary();
+        int fields = 0;
+        if (mHasState) {
+            if (enabled != mEnabled) fields |= PreferenceChangeTracker.FIELD_ENABLED;
+            if (checked != mChecked) fields |= PreferenceChangeTracker.FIELD_CHECKED;
+            if (summary != mSummary) fields |= PreferenceChangeTracker.FIELD_SUMMARY;
+        }
+        mHasState = true;
+        mEnabled = enabled;
+        mChecked = checked;
+        mSummary = summary;
+        return fields != 0 ? fields : PreferenceChangeTracker.FIELD_ALL;
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.view.Gravity;
+
+/**
+ * The factory of library preferences that are created from code. All preferences created by one
+ * factory share the same attributes, that were resolved from the theme only once, so creating
+ * thousands of preferences does not resolve the same styled attributes thousands of times.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public class PreferenceFactory {
+
+    /** The context of created preferences. */
+    private final Context mContext;
+
+    /** The gravity of created multiline preferences. */
+    private int mGravity;
+
+    /**
+     * Creates a new factory for specified context. The attributes are resolved right now.
+     * */
+    public PreferenceFactory(Context context) {
+        mContext = context;
+        mGravity = ResolvedAttributes.forPreference(context, null,
+                android.R.attr.preferenceStyle, 0).gravity;
+        ResolvedAttributes.forSeekBar(context, null, android.R.attr.dialogPreferenceStyle, 0);
+    }
+
+    /**
+     * Returns the context of created preferences.
+     * */
+    public Context getContext() { return mContext; }
+
+    /**
+     * Sets the gravity of title and summary for created {@link MultilinePreference}.
+     * */
+    public void setGravity(int gravity) { mGravity = gravity; }
+
+    /**
+     * Returns the gravity of title and summary for created {@link MultilinePreference}.
+     * @see Gravity
+     * */
+    public int getGravity() { return mGravity; }
+
+    /**
+     * Creates a new {@link MultilinePreference}.
+     * */
+    public MultilinePreference createMultilinePreference() {
+        final MultilinePreference preference = new MultilinePreference(mContext, null,
+                android.R.attr.preferenceStyle);
+        preference.setGravity(mGravity);
+        return preference;
+    }
+
+    /**
+     * Creates a new {@link MultilineCheckBox}.
+     * */
+    public MultilineCheckBox createMultilineCheckBox() { return new MultilineCheckBox(mContext); }
+
+    /**
+     * Creates a new {@link MultilineSwitch}.
+     * */
+    public MultilineSwitch createMultilineSwitch() { return new MultilineSwitch(mContext); }
+
+    /**
+     * Creates a new {@link SeekBarDialog}.
+     * */
+    public SeekBarDialog createSeekBarDialog() { return new SeekBarDialog(mContext); }
+
+    /**
+     * Removes all resolved attributes from the cache, for example, after the theme was changed.
+     * The cache does not notice the styles applied to the existing theme by
+     * {@link android.content.res.Resources.Theme#applyStyle(int, boolean)}, so call this method
+     * after that.
+     * */
+    public static void clearCache() { ResolvedAttributes.clearCache(); }
+
+}
@@ -0,0 +1,423 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.preference.Preference;
+import android.preference.TwoStatePreference;
+
+import java.util.BitSet;
+
+/**
+ * The compact model of a long, code-generated list of switches or check boxes, for example the
+ * list of per-application toggles. Each {@link MultilineSwitch} or {@link MultilineCheckBox}
+ * carries its own copy of the row configuration and the full state of the framework's
+ * preference, that costs a lot for thousands of rows. In this model, the configuration is
+ * shared by all rows in a {@link Template}, and each row holds only its key, title, summary and
+ * value:
+ * <pre>
+ *     final PreferenceList.Template toggle = new PreferenceList.Template(
+ *             PreferenceList.Template.TYPE_SWITCH);
+ *     final PreferenceList list = new PreferenceList(storage);
+ *     for (ApplicationInfo info : apps) list.add(toggle, info.packageName, label, null);
+ * </pre>
+ * The preference objects are created only for rows that are visible, and are reused for other
+ * rows while scrolling, please see {@link PreferenceListAdapter} and
+ * {@link RecyclerPreferenceFragment#setPreferenceList(PreferenceList)}.
+ * <p>Values are loaded from the storage on first use, and changed values are written back to it
+ * and published to the {@link PreferenceValueStream}. All methods should be called from the
+ * main thread.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class PreferenceList {
+
+    /** The initial capacity of rows arrays. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The storage of values, may be null. */
+    private final PreferenceStorage mStorage;
+
+    /** The keys of rows. */
+    private String[] mKeys = new String[INITIAL_CAPACITY];
+
+    /** The titles of rows. */
+    private CharSequence[] mTitles = new CharSequence[INITIAL_CAPACITY];
+
+    /** The summaries of rows. */
+    private CharSequence[] mSummaries = new CharSequence[INITIAL_CAPACITY];
+
+    /** The templates of rows. */
+    private Template[] mTemplates = new Template[INITIAL_CAPACITY];
+
+    /** The values of rows. */
+    private final BitSet mChecked = new BitSet();
+
+    /** The rows, which values are loaded from the storage. */
+    private final BitSet mLoaded = new BitSet();
+
+    /** The number of rows. */
+    private int mSize = 0;
+
+    /**
+     * Creates the empty list, that stores values in the default {@link PreferenceStorage}, or
+     * only in memory, if there is no default storage.
+     * */
+    public PreferenceList() { this(PreferenceStorage.getDefault()); }
+
+    /**
+     * Creates the empty list, that stores values in specified storage.
+     * @param storage The storage of values, or null to keep values only in memory.
+     * */
+    public PreferenceList(PreferenceStorage storage) { mStorage = storage; }
+
+    /**
+     * Returns the storage of values, may be null.
+     * */
+    public PreferenceStorage getStorage() { return mStorage; }
+
+    /**
+     * Adds the row to the end of this list.
+     * @return The position of added row.
+     * */
+    public int add(Template template, String key, CharSequence title, CharSequence summary) {
+        if (template == null) throw new IllegalArgumentException("Template should not be null");
+        if (mSize == mKeys.length) grow();
+        final int position = mSize++;
+        mTemplates[position] = template;
+        mKeys[position] = key;
+        mTitles[position] = title;
+        mSummaries[position] = summary;
+        mChecked.clear(position);
+        mLoaded.clear(position);
+        return position;
+    }
+
+    /**
+     * Removes all rows.
+     * */
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mTemplates[i] = null;
+            mKeys[i] = null;
+            mTitles[i] = null;
+            mSummaries[i] = null;
+        }
+        mChecked.clear();
+        mLoaded.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of rows.
+     * */
+    public int size() { return mSize; }
+
+    /**
+     * Returns the template of specified row.
+     * */
+    public Template getTemplate(int position) {
+        checkPosition(position);
+        return mTemplates[position];
+    }
+
+    /**
+     * Returns the key of specified row.
+     * */
+    public String getKey(int position) {
+        checkPosition(position);
+        return mKeys[position];
+    }
+
+    /**
+     * Returns the title of specified row.
+     * */
+    public CharSequence getTitle(int position) {
+        checkPosition(position);
+        return mTitles[position];
+    }
+
+    /**
+     * Sets the title of specified row.
+     * */
+    public void setTitle(int position, CharSequence title) {
+        checkPosition(position);
+        mTitles[position] = title;
+    }
+
+    /**
+     * Returns the summary of specified row.
+     * */
+    public CharSequence getSummary(int position) {
+        checkPosition(position);
+        return mSummaries[position];
+    }
+
+    /**
+     * Sets the summary of specified row.
+     * */
+    public void setSummary(int position, CharSequence summary) {
+        checkPosition(position);
+        mSummaries[position] = summary;
+    }
+
+    /**
+     * Returns the value of specified row, it's loaded from the storage on first use.
+     * */
+    public boolean isChecked(int position) {
+        checkPosition(position);
+        if (!mLoaded.get(position)) {
+            final boolean defValue = mTemplates[position].getDefaultValue();
+            final String key = mKeys[position];
+            final boolean checked = mStorage != null && key != null
+                    && mTemplates[position].isPersistent()
+                    ? mStorage.getBoolean(key, defValue) : defValue;
+            mChecked.set(position, checked);
+            mLoaded.set(position);
+        }
+        return mChecked.get(position);
+    }
+
+    /**
+     * Sets the value of specified row, persists and publishes it, if it changed.
+     * */
+    public void setChecked(int position, boolean checked) {
+        if (isChecked(position) == checked) return;
+        mChecked.set(position, checked);
+        final String key = mKeys[position];
+        if (mStorage != null && key != null && mTemplates[position].isPersistent()) {
+            mStorage.putBoolean(key, checked);
+        }
+        PreferenceValueStream.publish(key, checked);
+    }
+
+    /**
+     * Returns the position of the first row with specified key, or -1.
+     * */
+    public int indexOf(String key) {
+        if (key == null) return -1;
+        for (int i = 0; i < mSize; i++) {
+            if (key.equals(mKeys[i])) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the position of row.
+     * */
+    private void checkPosition(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+    }
+
+    /**
+     * Grows the arrays of rows.
+     * */
+    private void grow() {
+        final int capacity = mKeys.length * 2;
+        final String[] keys = new String[capacity];
+        System.arraycopy(mKeys, 0, keys, 0, mSize);
+        mKeys = keys;
+        final CharSequence[] titles = new CharSequence[capacity];
+        System.arraycopy(mTitles, 0, titles, 0, mSize);
+        mTitles = titles;
+        final CharSequence[] summaries = new CharSequence[capacity];
+        System.arraycopy(mSummaries, 0, summaries, 0, mSize);
+        mSummaries = summaries;
+        final Template[] templates = new Template[capacity];
+        System.arraycopy(mTemplates, 0, templates, 0, mSize);
+        mTemplates = templates;
+    }
+
+    /**
+     * The configuration, that is shared by rows of {@link PreferenceList}. The template should
+     * be configured before its rows are shown.
+     * */
+    public static final class Template {
+
+        /** The rows are {@link MultilineSwitch}. */
+        public static final int TYPE_SWITCH = 1;
+
+        /** The rows are {@link MultilineCheckBox}. */
+        public static final int TYPE_CHECKBOX = 2;
+
+        /** The last used view type, view types of templates are negative. */
+        private static int sLastViewType = 0;
+
+        /** The type of rows. */
+        private final int mType;
+
+        /** The view type of rows, unique for each template. */
+        private final int mViewType;
+
+        /** The layout resource of rows, or 0 to use the default. */
+        private int mLayoutResource = 0;
+
+        /** The widget layout resource of rows, or 0 to use the default. */
+        private int mWidgetLayoutResource = 0;
+
+        /** True, if rows use the flattened row view. */
+        private boolean mFlatRow = false;
+
+        /** True, if values of rows are stored in the list's storage. */
+        private boolean mPersistent = true;
+
+        /** The default value of rows. */
+        private boolean mDefaultValue = false;
+
+        /** True, if rows are enabled. */
+        private boolean mEnabled = true;
+
+        /** The listener that is called before the value of a row changes, may be null. */
+        private Preference.OnPreferenceChangeListener mChangeListener = null;
+
+        /**
+         * Creates the template of specified type of rows.
+         * @param type {@link #TYPE_SWITCH} or {@link #TYPE_CHECKBOX}.
+         * */
+        public Template(int type) {
+            if (type != TYPE_SWITCH && type != TYPE_CHECKBOX) {
+                throw new IllegalArgumentException("Unknown type " + type);
+            }
+            mType = type;
+            mViewType = nextViewType();
+        }
+
+        /**
+         * Returns the type of rows.
+         * */
+        public int getType() { return mType; }
+
+        /**
+         * Sets the layout resource of rows, or 0 to use the default.
+         * */
+        public void setLayoutResource(int layoutResId) { mLayoutResource = layoutResId; }
+
+        /**
+         * Returns the layout resource of rows, or 0.
+         * */
+        public int getLayoutResource() { return mLayoutResource; }
+
+        /**
+         * Sets the widget layout resource of rows, or 0 to use the default.
+         * */
+        public void setWidgetLayoutResource(int widgetLayoutResId) {
+            mWidgetLayoutResource = widgetLayoutResId;
+        }
+
+        /**
+         * Returns the widget layout resource of rows, or 0.
+         * */
+        public int getWidgetLayoutResource() { return mWidgetLayoutResource; }
+
+        /**
+         * Sets whether rows use the flattened row view, please see
+         * {@link MultilineSwitch#setFlatRow(boolean)}.
+         * */
+        public void setFlatRow(boolean flatRow) { mFlatRow = flatRow; }
+
+        /**
+         * Returns true, if rows use the flattened row view.
+         * */
+        public boolean isFlatRow() { return mFlatRow; }
+
+        /**
+         * Sets whether values of rows are stored in the list's storage.
+         * */
+        public void setPersistent(boolean persistent) { mPersistent = persistent; }
+
+        /**
+         * Returns true, if values of rows are stored in the list's storage.
+         * */
+        public boolean isPersistent() { return mPersistent; }
+
+        /**
+         * Sets the value of rows, that have no stored value.
+         * */
+        public void setDefaultValue(boolean defaultValue) { mDefaultValue = defaultValue; }
+
+        /**
+         * Returns the value of rows, that have no stored value.
+         * */
+        public boolean getDefaultValue() { return mDefaultValue; }
+
+        /**
+         * Sets whether rows are enabled.
+         * */
+        public void setEnabled(boolean enabled) { mEnabled = enabled; }
+
+        /**
+         * Returns true, if rows are enabled.
+         * */
+        public boolean isEnabled() { return mEnabled; }
+
+        /**
+         * Sets the listener that is called before the value of a row changes, it can reject the
+         * change. The listener receives the preference that shows the row.
+         * */
+        public void setOnPreferenceChangeListener(
+                Preference.OnPreferenceChangeListener listener) {
+            mChangeListener = listener;
+        }
+
+        /**
+         * Returns the listener that is called before the value of a row changes, may be null.
+         * */
+        public Preference.OnPreferenceChangeListener getOnPreferenceChangeListener() {
+            return mChangeListener;
+        }
+
+        /**
+         * Returns the view type of rows, it's negative and unique for each template, so rows of
+         * templates and of preference screens can share one pool of views.
+         * */
+        int getViewType() { return mViewType; } // package access
+
+        /**
+         * Creates the preference that shows rows of this template. The preference is not
+         * persistent, values are stored by the list.
+         * */
+        TwoStatePreference createPreference(Context context) { // package access
+            final TwoStatePreference preference;
+            if (mType == TYPE_SWITCH) {
+                final MultilineSwitch view = new MultilineSwitch(context);
+                view.setFlatRow(mFlatRow);
+                preference = view;
+            } else {
+                final MultilineCheckBox view = new MultilineCheckBox(context);
+                view.setFlatRow(mFlatRow);
+                preference = view;
+            }
+            if (mLayoutResource != 0) preference.setLayoutResource(mLayoutResource);
+            if (mWidgetLayoutResource != 0) {
+                preference.setWidgetLayoutResource(mWidgetLayoutResource);
+            }
+            preference.setPersistent(false);
+            preference.setEnabled(mEnabled);
+            preference.setOnPreferenceChangeListener(mChangeListener);
+            return preference;
+        }
+
+        /**
+         * Returns the next unique view type.
+         * */
+        private static synchronized int nextViewType() { return --sLastViewType; }
+    }
+
+}
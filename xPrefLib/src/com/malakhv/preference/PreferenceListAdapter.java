@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.preference.Preference;
+import android.preference.TwoStatePreference;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * The {@link RecyclerView} adapter over the {@link PreferenceList}. Each row view holds its own
+ * preference object, that is created by the row's {@link PreferenceList.Template} and is bound
+ * to other rows while scrolling, so the number of preference objects is about the number of
+ * visible rows, not the number of rows in the list. A click on the row toggles its value.
+ * <p>This class requires the RecyclerView support library, please see
+ * {@link RecyclerPreferenceFragment}.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class PreferenceListAdapter
+        extends RecyclerView.Adapter<PreferenceListAdapter.RowHolder> {
+
+    /** The list of rows. */
+    private final PreferenceList mList;
+
+    /** The templates of rows, by view type. */
+    private final SparseArray<PreferenceList.Template> mTemplates =
+            new SparseArray<PreferenceList.Template>();
+
+    /** The recycler view, that shows this adapter, may be null. */
+    private RecyclerView mRecyclerView = null;
+
+    /** The number of created preference objects. */
+    private int mCreatedCount = 0;
+
+    /**
+     * Creates the adapter over specified list.
+     * */
+    public PreferenceListAdapter(PreferenceList list) {
+        if (list == null) throw new IllegalArgumentException("List should not be null");
+        mList = list;
+    }
+
+    /**
+     * Returns the list of rows.
+     * */
+    public PreferenceList getList() { return mList; }
+
+    /**
+     * Returns the number of preference objects that this adapter created.
+     * */
+    public int getCreatedCount() { return mCreatedCount; }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = null;
+    }
+
+    @Override
+    public int getItemCount() { return mList.size(); }
+
+    @Override
+    public int getItemViewType(int position) {
+        final PreferenceList.Template template = mList.getTemplate(position);
+        final int type = template.getViewType();
+        if (mTemplates.get(type) == null) mTemplates.put(type, template);
+        return type;
+    }
+
+    @Override
+    public RowHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        final Context context = parent.getContext();
+        final TwoStatePreference preference = mTemplates.get(viewType).createPreference(context);
+        mCreatedCount++;
+        final View view = preference.getView(null, parent);
+        if (view.getLayoutParams() == null) {
+            view.setLayoutParams(new RecyclerView.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        }
+        RecyclerPreferenceFragment.setItemBackground(view);
+        final RowHolder holder = new RowHolder(view, preference);
+        view.setOnClickListener(holder);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(RowHolder holder, int position) {
+        final TwoStatePreference preference = holder.preference;
+        preference.setKey(mList.getKey(position));
+        // The bound value is restored from the list, it's not published as a change
+        setRestoringValue(preference, true);
+        try {
+            preference.setChecked(mList.isChecked(position));
+        } finally {
+            setRestoringValue(preference, false);
+        }
+        preference.setTitle(mList.getTitle(position));
+        preference.setSummary(mList.getSummary(position));
+        preference.getView(holder.itemView, mRecyclerView);
+        final boolean enabled = preference.isEnabled();
+        holder.itemView.setClickable(enabled);
+        holder.itemView.setFocusable(enabled);
+    }
+
+    /**
+     * Toggles the value of specified row, if the template's change listener accepts it.
+     * */
+    private void toggle(RowHolder holder) {
+        final int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) return;
+        final boolean checked = !mList.isChecked(position);
+        // The same as the framework's callChangeListener, that is not accessible here
+        final Preference.OnPreferenceChangeListener listener =
+                mList.getTemplate(position).getOnPreferenceChangeListener();
+        if (listener != null && !listener.onPreferenceChange(holder.preference, checked)) return;
+        mList.setChecked(position, checked);
+        notifyItemChanged(position);
+    }
+
+    /**
+     * Sets whether the value of specified row preference is restored, please see
+     * {@link PreferenceList.Template#createPreference(Context)}.
+     * */
+    private static void setRestoringValue(TwoStatePreference preference, boolean restoring) {
+        if (preference instanceof MultilineSwitch) {
+            ((MultilineSwitch) preference).setRestoringValue(restoring);
+        } else if (preference instanceof MultilineCheckBox) {
+            ((MultilineCheckBox) preference).setRestoringValue(restoring);
+        }
+    }
+
+    /**
+     * The row view holder with the preference, that binds the row view.
+     * */
+    final class RowHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        /** The preference, that binds the row view. */
+        final TwoStatePreference preference;
+
+        RowHolder(View itemView, TwoStatePreference preference) {
+            super(itemView);
+            this.preference = preference;
+        }
+
+        @Override
+        public void onClick(View view) { toggle(this); }
+    }
+
+}
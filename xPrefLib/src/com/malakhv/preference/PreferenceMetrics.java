@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.Preference;
+
+/**
+ * The listener of library performance metrics. Register it globally by
+ * {@link PreferenceTracing#setMetrics(PreferenceMetrics)}. The listener is called synchronously,
+ * in the thread where the event happened, so it should be fast. The event names are also used as
+ * {@code android.os.Trace} section names. Please see
+ * {@link HistogramMetrics} for simple in-memory implementation.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+public interface PreferenceMetrics {
+
+    /** The preference's row view was bound, please see {@code Preference.onBindView}. */
+    String EVENT_BIND = "xPreference.bind";
+
+    /** The dialog was requested, please see {@link DialogFragmentPref#showDialog()}. */
+    String EVENT_SHOW_DIALOG = "xPreference.show_dialog";
+
+    /** The dialog was created, please see {@link DialogFragmentPref#onCreateDialog}. */
+    String EVENT_CREATE_DIALOG = "xPreference.create_dialog";
+
+    /** The value was persisted, please see {@link SeekBarDialog#persistInt(int)}. */
+    String EVENT_PERSIST = "xPreference.persist";
+
+    /** The batch of values was written to disk, please see {@link AsyncPersistence}. */
+    String EVENT_PERSIST_BATCH = "xPreference.persist_batch";
+
+    /** The dependents were notified, please see {@link Preference#notifyDependencyChange}. */
+    String EVENT_DEPENDENCY_CHANGE = "xPreference.dependency_change";
+
+    /** The main thread waited for preference file, please see {@link PreferencePreloader}. */
+    String EVENT_PRELOAD_WAIT = "xPreference.preload_wait";
+
+    /**
+     * Called when the event happened.
+     * @param event The event, one of {@code EVENT_*} constants.
+     * @param preference The preference, or null if the event is not related to one preference.
+     * @param duration The duration of the event, in nanoseconds.
+     * */
+    void onEvent(String event, Preference preference, long duration);
+
+}
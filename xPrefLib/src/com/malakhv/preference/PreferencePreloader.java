@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.Preference;
+import android.preference.PreferenceManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The background loading of preference files. The first read of {@link SharedPreferences} blocks
+ * until its file is loaded from disk, and for preference screens it happens in the main thread,
+ * while the screen is inflated. The application can start loading files that the library will
+ * use earlier, for example in {@code Application.onCreate}:
+ * <pre>
+ *     PreferencePreloader.preloadDefault(this);
+ * </pre>
+ * Library preferences wait only for the files that are still loading when they are attached to
+ * a screen. The time that was spent in such waiting is reported to the {@link PreferenceMetrics}
+ * as {@link PreferenceMetrics#EVENT_PRELOAD_WAIT} and summarized by {@link #getBlockedTime()}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class PreferencePreloader {
+
+    /** The loads of preference files, by file name. */
+    private static final Map<String, FutureTask<Void>> sLoads =
+            new HashMap<String, FutureTask<Void>>();
+
+    /** The total time that was spent in waiting for loads, in nanoseconds. */
+    private static long sBlockedTime = 0;
+
+    /** The number of waits that were blocked. */
+    private static int sBlockedCount = 0;
+
+    private PreferencePreloader() {}
+
+    /**
+     * Starts loading of the default preference file, that used by {@link PreferenceManager} by
+     * default.
+     * */
+    public static void preloadDefault(Context context) {
+        preload(context, context.getPackageName() + "_preferences");
+    }
+
+    /**
+     * Starts loading of specified preference files in background.
+     * */
+    public static void preload(Context context, String... names) {
+        final Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        for (String name : names) {
+            final FutureTask<Void> load = obtainLoad(appContext.getSharedPreferences(name,
+                    Context.MODE_PRIVATE), name);
+            if (!load.isDone()) BackgroundExecutor.get().execute(load);
+        }
+    }
+
+    /**
+     * Returns true, if specified preference file is loaded by this class.
+     * */
+    public static boolean isLoaded(String name) {
+        synchronized (sLoads) {
+            final FutureTask<Void> load = sLoads.get(name);
+            return load != null && load.isDone();
+        }
+    }
+
+    /**
+     * Returns the total time that was spent in waiting for loads, in nanoseconds.
+     * */
+    public static long getBlockedTime() {
+        synchronized (sLoads) { return sBlockedTime; }
+    }
+
+    /**
+     * Returns the number of waits that were blocked.
+     * */
+    public static int getBlockedCount() {
+        synchronized (sLoads) { return sBlockedCount; }
+    }
+
+    /**
+     * Resets the blocked time and count.
+     * */
+    public static void resetBlockedTime() {
+        synchronized (sLoads) {
+            sBlockedTime = 0;
+            sBlockedCount = 0;
+        }
+    }
+
+    /**
+     * Waits until the preference file of specified manager is loaded. If the file is not loading
+     * yet, or its load is not started by the background thread, it is loaded in the current
+     * thread.
+     * */
+    static void await(PreferenceManager manager, Preference preference) { // package access
+        if (manager == null) return;
+        final FutureTask<Void> load = obtainLoad(manager.getSharedPreferences(),
+                manager.getSharedPreferencesName());
+        if (load.isDone()) return;
+        final long start = System.nanoTime();
+        final long traceStart = PreferenceTracing.begin(PreferenceMetrics.EVENT_PRELOAD_WAIT);
+        load.run(); // Does nothing, if the load was started by other thread
+        try {
+            load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The file will be loaded by the first read
+        }
+        PreferenceTracing.end(PreferenceMetrics.EVENT_PRELOAD_WAIT, preference, traceStart);
+        synchronized (sLoads) {
+            sBlockedTime += System.nanoTime() - start;
+            sBlockedCount++;
+        }
+    }
+
+    /**
+     * Returns the load of specified preference file, creates it if it needed.
+     * */
+    private static FutureTask<Void> obtainLoad(final SharedPreferences preferences,
+            String name) {
+        synchronized (sLoads) {
+            FutureTask<Void> load = sLoads.get(name);
+            if (load == null) {
+                load = new FutureTask<Void>(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Any read blocks until the file is loaded
+                        preferences.contains(null);
+                    }
+                }, null);
+                sLoads.put(name, load);
+            }
+            return load;
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+/**
+ * The storage of preference values, that library preferences can be pointed at instead of the
+ * default {@link android.content.SharedPreferences}. Please see {@link MappedStorage} and
+ * {@link #setDefault(PreferenceStorage)}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public abstract class PreferenceStorage {
+
+    /** The storage for preferences that have no own storage, may be null. */
+    private static volatile PreferenceStorage sDefault = null;
+
+    /**
+     * Sets the storage for library preferences that have no own storage. It affects only
+     * preferences that will be created after this call, so call it as early as possible, for
+     * example, from {@code Application.onCreate()}. Use null to persist values to the
+     * {@link android.content.SharedPreferences}.
+     * */
+    public static void setDefault(PreferenceStorage storage) { sDefault = storage; }
+
+    /**
+     * Returns the storage for library preferences that have no own storage, or null.
+     * */
+    public static PreferenceStorage getDefault() { return sDefault; }
+
+    /**
+     * Returns true, if this storage contains a value for specified key.
+     * */
+    public abstract boolean contains(String key);
+
+    /**
+     * Returns the int value for specified key, or the default value if there is no such int value.
+     * */
+    public abstract int getInt(String key, int defValue);
+
+    /**
+     * Sets the int value for specified key.
+     * */
+    public abstract void putInt(String key, int value);
+
+    /**
+     * Returns the long value for specified key, or the default value if there is no such long
+     * value.
+     * */
+    public abstract long getLong(String key, long defValue);
+
+    /**
+     * Sets the long value for specified key.
+     * */
+    public abstract void putLong(String key, long value);
+
+    /**
+     * Returns the boolean value for specified key, or the default value if there is no such
+     * boolean value.
+     * */
+    public abstract boolean getBoolean(String key, boolean defValue);
+
+    /**
+     * Sets the boolean value for specified key.
+     * */
+    public abstract void putBoolean(String key, boolean value);
+
+    /**
+     * Removes the value for specified key.
+     * */
+    public abstract void remove(String key);
+
+}
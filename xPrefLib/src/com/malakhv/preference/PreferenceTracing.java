@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.os.Build;
+import android.os.Trace;
+import android.preference.Preference;
+
+/**
+ * The tracing of library operations. Each operation is wrapped in {@link Trace} section (on
+ * Jelly Bean MR2 and higher) named as the event, and its duration is reported to the registered
+ * {@link PreferenceMetrics}. When no listener is registered, only the {@link Trace} calls are
+ * made, and they are cheap when tracing is disabled.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class PreferenceTracing {
+
+    /** True, if {@link Trace} is available. */
+    private static final boolean TRACE_AVAILABLE =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    /** The registered metrics listener, may be null. */
+    private static volatile PreferenceMetrics sMetrics = null;
+
+    private PreferenceTracing() {}
+
+    /**
+     * Registers the metrics listener, or removes it if null.
+     * */
+    public static void setMetrics(PreferenceMetrics metrics) { sMetrics = metrics; }
+
+    /**
+     * Returns the registered metrics listener, or null.
+     * */
+    public static PreferenceMetrics getMetrics() { return sMetrics; }
+
+    /**
+     * Begins the operation.
+     * @return The start time of the operation, or 0 if there is no metrics listener.
+     * */
+    static long begin(String event) { // package access
+        if (TRACE_AVAILABLE) TraceCompat.beginSection(event);
+        return sMetrics != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Ends the operation that was started by {@link #begin(String)}.
+     * */
+    static void end(String event, Preference preference, long start) {
+        if (TRACE_AVAILABLE) TraceCompat.endSection();
+        final PreferenceMetrics metrics = sMetrics;
+        if (metrics != null && start != 0) {
+            metrics.onEvent(event, preference, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Keeps {@link Trace} calls out of {@link PreferenceTracing}, so it can be loaded on old
+     * platform versions.
+     * */
+    private static final class TraceCompat {
+
+        static void beginSection(String section) { Trace.beginSection(section); }
+
+        static void endSection() { Trace.endSection(); }
+    }
+
+}
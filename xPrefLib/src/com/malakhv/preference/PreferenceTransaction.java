@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.SharedPreferences;
+import android.preference.Preference;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The batch of preference updates. While a transaction is open, the library's preferences do not
+ * write their values to the {@link SharedPreferences}, do not notify the screen about changes and
+ * do not notify their dependents. When the transaction is applied, all values are written in one
+ * write per file, dependencies are resolved once per preference, with its latest state, and each
+ * changed preference notifies its screen once, or only its changed row is updated, please see
+ * {@link PreferenceChangeTracker}:
+ * <pre>
+ *     final PreferenceTransaction transaction = PreferenceTransaction.begin();
+ *     try {
+ *         // Update many preferences
+ *     } finally {
+ *         transaction.apply();
+ *     }
+ * </pre>
+ * Transactions can be nested, only the outermost one is applied. Values that are persisted
+ * through {@link AsyncPersistence} or a {@link PreferenceStorage} are written as usual, because
+ * they are already cheap. All methods should be called from the main thread.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class PreferenceTransaction {
+
+    /** The current transaction, or null. */
+    private static PreferenceTransaction sCurrent = null;
+
+    /** The pending writes, grouped by {@link SharedPreferences} file. */
+    private final Map<SharedPreferences, Map<String, Object>> mWrites =
+            new LinkedHashMap<SharedPreferences, Map<String, Object>>();
+
+    /** The pending dependency changes, by preference. */
+    private final Map<Preference, Boolean> mDependencies =
+            new LinkedHashMap<Preference, Boolean>();
+
+    /** The changed preferences, by their delegates, with their changed fields. */
+    private final Map<PreferenceDelegate, Integer> mChanged =
+            new LinkedHashMap<PreferenceDelegate, Integer>();
+
+    /** The nesting depth of this transaction. */
+    private int mDepth = 0;
+
+    /** True, if this transaction is resolving dependencies. */
+    private boolean mApplying = false;
+
+    private PreferenceTransaction() {}
+
+    /**
+     * Begins a new transaction, or the nested one, if there is the open transaction.
+     * */
+    public static PreferenceTransaction begin() {
+        if (sCurrent == null) sCurrent = new PreferenceTransaction();
+        sCurrent.mDepth++;
+        return sCurrent;
+    }
+
+    /**
+     * Returns true, if there is the open transaction.
+     * */
+    public static boolean isOpen() { return sCurrent != null; }
+
+    /**
+     * Applies this transaction: writes all values, resolves dependencies and notifies the screen.
+     * If this transaction is nested, only closes it.
+     * @throws IllegalStateException If this transaction is already applied.
+     * */
+    public void apply() {
+        if (sCurrent != this || mDepth <= 0) {
+            throw new IllegalStateException("The transaction is already applied");
+        }
+        if (--mDepth > 0) return;
+
+        // The transaction is closed in any case, otherwise all later changes would be deferred
+        try {
+            // Write values, one write per file
+            for (Map.Entry<SharedPreferences, Map<String, Object>> file: mWrites.entrySet()) {
+                final long start = PreferenceTracing.begin(PreferenceMetrics.EVENT_PERSIST_BATCH);
+                try {
+                    final SharedPreferences.Editor editor = file.getKey().edit();
+                    for (Map.Entry<String, Object> entry: file.getValue().entrySet()) {
+                        AsyncPersistence.putValue(editor, entry.getKey(), entry.getValue());
+                    }
+                    editor.apply();
+                } finally {
+                    PreferenceTracing.end(PreferenceMetrics.EVENT_PERSIST_BATCH, null, start);
+                }
+            }
+
+            // Resolve dependencies, the changes of dependents are still collected
+            mApplying = true;
+            for (Map.Entry<Preference, Boolean> entry: mDependencies.entrySet()) {
+                entry.getKey().notifyDependencyChange(entry.getValue());
+            }
+        } finally {
+            mWrites.clear();
+            mDependencies.clear();
+            mApplying = false;
+            sCurrent = null;
+        }
+
+        // Notify the changed rows, if it's possible, otherwise each changed preference once. The
+        // preferences of nested screens notify the lists of their own screens, so the hierarchy
+        // can't be refreshed through any one preference of it
+        for (Map.Entry<PreferenceDelegate, Integer> entry: mChanged.entrySet()) {
+            final Preference preference = entry.getKey().getPreference();
+            if (!PreferenceChangeTracker.dispatch(preference, entry.getValue())) {
+                entry.getKey().onNotifyChanged();
+            }
+        }
+        mChanged.clear();
+    }
+
+    /**
+     * Defers the change notification of specified delegate's preference, if there is the open
+     * transaction.
+     * @param fields The changed fields, please see {@link PreferenceChangeTracker}.
+     * @return True, if the notification is deferred.
+     * */
+    static boolean deferChanged(PreferenceDelegate delegate, int fields) { // package access
+        if (sCurrent == null) return false;
+        final Integer changed = sCurrent.mChanged.get(delegate);
+        sCurrent.mChanged.put(delegate, changed != null ? changed | fields : fields);
+        return true;
+    }
+
+    /**
+     * Defers the dependency change of specified preference, if there is the open transaction.
+     * @return True, if the dependency change is deferred.
+     * */
+    static boolean deferDependencyChange(Preference preference, boolean disableDependents) {
+        if (sCurrent == null || sCurrent.mApplying) return false;
+        sCurrent.mDependencies.put(preference, disableDependents);
+        return true;
+    }
+
+    /**
+     * Defers the write of specified value, if there is the open transaction.
+     * @return True, if the write is deferred.
+     * */
+    static boolean deferPersist(SharedPreferences prefs, String key, Object value) {
+        if (sCurrent == null || sCurrent.mApplying || prefs == null || key == null) return false;
+        Map<String, Object> values = sCurrent.mWrites.get(prefs);
+        if (values == null) {
+            values = new HashMap<String, Object>();
+            sCurrent.mWrites.put(prefs, values);
+        }
+        values.put(key, value);
+        return true;
+    }
+
+    /**
+     * Returns the pending value for specified key, or null.
+     * */
+    static Object getPending(SharedPreferences prefs, String key) {
+        if (sCurrent == null) return null;
+        final Map<String, Object> values = sCurrent.mWrites.get(prefs);
+        return values != null ? values.get(key) : null;
+    }
+
+}
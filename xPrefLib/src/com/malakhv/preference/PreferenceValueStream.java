@@ -0,0 +1,468 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The stream of value changes of the library's preferences: {@link SeekBarDialog},
+ * {@link MultilineCheckBox} and {@link MultilineSwitch}. Unlike preference change listeners,
+ * that are called in the main thread, subscribers receive changes on the {@link Executor} they
+ * choose, so heavy reactions never block the UI:
+ * <pre>
+ *     PreferenceValueStream.subscribe(executor, new PreferenceValueStream.Subscriber() {
+ *         public void onValueChanged(PreferenceValueStream.Change change) {
+ *             // Runs in the executor's thread
+ *         }
+ *         public void onDropped(Set&lt;String&gt; keys) {
+ *             // Read the current values of these keys
+ *         }
+ *     });
+ * </pre>
+ * The back-pressure is explicit. Each subscription has a bounded buffer of pending changes, in
+ * which changes are merged by preference key (the latest value wins). If the buffer is full,
+ * a change is dropped by the subscription's overflow policy, {@link #OVERFLOW_DROP_OLDEST} or
+ * {@link #OVERFLOW_DROP_LATEST}, and the subscriber receives the keys of dropped changes, so it
+ * does not lose the final state of any preference. Changes are delivered one by one, never
+ * concurrently, and only while the subscription has demand, please see
+ * {@link Subscription#request(long)}. If the executor rejects the delivery, for example it is
+ * shut down, the subscription is cancelled. Changes of preferences without a key are not
+ * published.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class PreferenceValueStream {
+
+    /** The default number of pending changes of one subscription. */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /** If the buffer is full, the oldest pending change is dropped. */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+
+    /** If the buffer is full, the new change is dropped. */
+    public static final int OVERFLOW_DROP_LATEST = 2;
+
+    /** The demand that never ends, changes are delivered as soon as possible. */
+    public static final long UNBOUNDED = Long.MAX_VALUE;
+
+    /** The active subscriptions. */
+    private static final List<Subscription> sSubscriptions =
+            new CopyOnWriteArrayList<Subscription>();
+
+    private PreferenceValueStream() {}
+
+    /**
+     * The subscriber of value changes.
+     * */
+    public interface Subscriber {
+
+        /**
+         * Called on the subscription's executor, when the value of a preference changed.
+         * */
+        void onValueChanged(Change change);
+
+        /**
+         * Called on the subscription's executor, when changes of specified preferences were
+         * dropped, because the buffer was full. The subscriber should read their current values,
+         * if it needs them. This call does not take the demand.
+         * */
+        void onDropped(Set<String> keys);
+    }
+
+    /**
+     * Subscribes to the changes of all preferences, with default capacity, the
+     * {@link #OVERFLOW_DROP_OLDEST} policy and unbounded demand.
+     * @param executor The executor to deliver changes on.
+     * */
+    public static Subscription subscribe(Executor executor, Subscriber subscriber) {
+        return subscribe(executor, subscriber, DEFAULT_CAPACITY, OVERFLOW_DROP_OLDEST, UNBOUNDED);
+    }
+
+    /**
+     * Subscribes to the changes of specified preferences.
+     * @param executor The executor to deliver changes on.
+     * @param capacity The maximum number of pending changes, with different keys.
+     * @param overflow The policy, when the buffer is full: {@link #OVERFLOW_DROP_OLDEST} or
+     * {@link #OVERFLOW_DROP_LATEST}.
+     * @param demand The number of changes to deliver, before the next
+     * {@link Subscription#request(long)}, or {@link #UNBOUNDED}.
+     * @param keys The keys of preferences to observe, or nothing to observe all.
+     * */
+    public static Subscription subscribe(Executor executor, Subscriber subscriber, int capacity,
+            int overflow, long demand, String... keys) {
+        if (executor == null || subscriber == null) {
+            throw new IllegalArgumentException("Executor and subscriber should not be null");
+        }
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity should be positive");
+        if (overflow != OVERFLOW_DROP_OLDEST && overflow != OVERFLOW_DROP_LATEST) {
+            throw new IllegalArgumentException("Unknown overflow policy " + overflow);
+        }
+        if (demand < 0) throw new IllegalArgumentException("Demand should not be negative");
+        final Set<String> filter = keys != null && keys.length > 0
+                ? new HashSet<String>(Arrays.asList(keys)) : null;
+        final Subscription subscription = new Subscription(executor, subscriber, capacity,
+                overflow, demand, filter);
+        sSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Returns true, if there is at least one active subscription.
+     * */
+    public static boolean hasSubscribers() { return !sSubscriptions.isEmpty(); }
+
+    /**
+     * Publishes the new int value of specified preference.
+     * */
+    static void publish(String key, int value) { // package access
+        if (key == null || sSubscriptions.isEmpty()) return;
+        publish(new Change(key, Change.TYPE_INT, value));
+    }
+
+    /**
+     * Publishes the new boolean value of specified preference.
+     * */
+    static void publish(String key, boolean value) { // package access
+        if (key == null || sSubscriptions.isEmpty()) return;
+        publish(new Change(key, Change.TYPE_BOOLEAN, value ? 1 : 0));
+    }
+
+    /**
+     * Offers specified change to all subscriptions.
+     * */
+    private static void publish(Change change) {
+        for (Subscription subscription: sSubscriptions) subscription.offer(change);
+    }
+
+    /**
+     * The change of a preference value. The instance is immutable and can be shared between
+     * threads.
+     * */
+    public static final class Change {
+
+        /** The value is int, please see {@link #getInt()}. */
+        public static final int TYPE_INT = 1;
+
+        /** The value is boolean, please see {@link #getBoolean()}. */
+        public static final int TYPE_BOOLEAN = 2;
+
+        /** The preference key. */
+        private final String mKey;
+
+        /** The type of value. */
+        private final int mType;
+
+        /** The value, the boolean value is stored as 0 or 1. */
+        private final int mValue;
+
+        /** The time of change, in {@link SystemClock#uptimeMillis()} base. */
+        private final long mTime;
+
+        private Change(String key, int type, int value) {
+            mKey = key;
+            mType = type;
+            mValue = value;
+            mTime = SystemClock.uptimeMillis();
+        }
+
+        /**
+         * Returns the key of changed preference.
+         * */
+        public String getKey() { return mKey; }
+
+        /**
+         * Returns the type of value, {@link #TYPE_INT} or {@link #TYPE_BOOLEAN}.
+         * */
+        public int getType() { return mType; }
+
+        /**
+         * Returns the int value, or 0 or 1 for boolean value.
+         * */
+        public int getInt() { return mValue; }
+
+        /**
+         * Returns the boolean value, or true for nonzero int value.
+         * */
+        public boolean getBoolean() { return mValue != 0; }
+
+        /**
+         * Returns the time of change, in {@link SystemClock#uptimeMillis()} base.
+         * */
+        public long getTime() { return mTime; }
+
+        @Override
+        public String toString() {
+            return mKey + "=" + (mType == TYPE_BOOLEAN ? String.valueOf(getBoolean())
+                    : String.valueOf(mValue));
+        }
+    }
+
+    /**
+     * The subscription to value changes. All methods are thread safe.
+     * */
+    public static final class Subscription {
+
+        /** The executor to deliver changes on. */
+        private final Executor mExecutor;
+
+        /** The subscriber. */
+        private final Subscriber mSubscriber;
+
+        /** The maximum number of pending changes. */
+        private final int mCapacity;
+
+        /** The overflow policy. */
+        private final int mOverflow;
+
+        /** The keys of observed preferences, or null to observe all. */
+        private final Set<String> mKeys;
+
+        /** The pending changes by key, the oldest first. */
+        private final LinkedHashMap<String, Change> mPending = new LinkedHashMap<String, Change>();
+
+        /** The keys of dropped changes, that are not reported yet. */
+        private final Set<String> mDropped = new LinkedHashSet<String>();
+
+        /** The number of changes to deliver, or {@link #UNBOUNDED}. */
+        private long mDemand;
+
+        /** True, if the delivery task is scheduled or running. */
+        private boolean mScheduled = false;
+
+        /** True, if this subscription is cancelled. */
+        private volatile boolean mCancelled = false;
+
+        /** The number of delivered changes. */
+        private long mDeliveredCount = 0;
+
+        /** The number of changes that were replaced by newer ones, with the same key. */
+        private long mMergedCount = 0;
+
+        /** The number of changes that were dropped, because the buffer was full. */
+        private long mDroppedCount = 0;
+
+        /** The task that delivers pending changes, one by one. */
+        private final Runnable mDelivery = new Runnable() {
+            @Override
+            public void run() { deliver(); }
+        };
+
+        private Subscription(Executor executor, Subscriber subscriber, int capacity, int overflow,
+                long demand, Set<String> keys) {
+            mExecutor = executor;
+            mSubscriber = subscriber;
+            mCapacity = capacity;
+            mOverflow = overflow;
+            mDemand = demand;
+            mKeys = keys != null ? Collections.unmodifiableSet(keys) : null;
+        }
+
+        /**
+         * Requests the delivery of specified number of changes more, or {@link #UNBOUNDED}.
+         * */
+        public void request(long n) {
+            if (n <= 0) throw new IllegalArgumentException("Request should be positive");
+            synchronized (this) {
+                mDemand = (mDemand > UNBOUNDED - n) ? UNBOUNDED : mDemand + n;
+                if (!scheduleLocked()) return;
+            }
+            execute();
+        }
+
+        /**
+         * Cancels this subscription, pending changes are discarded. The change that is being
+         * delivered now is not interrupted.
+         * */
+        public void cancel() {
+            mCancelled = true;
+            sSubscriptions.remove(this);
+            synchronized (this) {
+                mPending.clear();
+                mDropped.clear();
+            }
+        }
+
+        /**
+         * Returns true, if this subscription is cancelled.
+         * */
+        public boolean isCancelled() { return mCancelled; }
+
+        /**
+         * Returns the remaining demand, or {@link #UNBOUNDED}.
+         * */
+        public synchronized long getDemand() { return mDemand; }
+
+        /**
+         * Returns the number of pending changes.
+         * */
+        public synchronized int getPendingCount() { return mPending.size(); }
+
+        /**
+         * Returns the number of delivered changes.
+         * */
+        public synchronized long getDeliveredCount() { return mDeliveredCount; }
+
+        /**
+         * Returns the number of changes that were replaced by newer changes of the same
+         * preference, before they were delivered.
+         * */
+        public synchronized long getMergedCount() { return mMergedCount; }
+
+        /**
+         * Returns the number of changes that were dropped, because the buffer was full or the
+         * executor rejected the delivery.
+         * */
+        public synchronized long getDroppedCount() { return mDroppedCount; }
+
+        /**
+         * Adds specified change to the pending changes, and schedules the delivery if it needed.
+         * */
+        private void offer(Change change) {
+            if (mCancelled || (mKeys != null && !mKeys.contains(change.getKey()))) return;
+            final String key = change.getKey();
+            synchronized (this) {
+                // The latest value wins, and it goes to the end of the queue
+                boolean accepted = true;
+                if (mPending.remove(key) != null) {
+                    mMergedCount++;
+                } else if (mPending.size() >= mCapacity) {
+                    if (mOverflow == OVERFLOW_DROP_LATEST) {
+                        drop(key);
+                        accepted = false;
+                    } else {
+                        final Iterator<Change> eldest = mPending.values().iterator();
+                        drop(eldest.next().getKey());
+                        eldest.remove();
+                    }
+                }
+                if (accepted) {
+                    // The new value will be delivered, so the key is not lost anymore
+                    mDropped.remove(key);
+                    mPending.put(key, change);
+                }
+                if (!scheduleLocked()) return;
+            }
+            execute();
+        }
+
+        /**
+         * Marks the delivery as scheduled, if there is something to deliver.
+         * @return True, if the delivery task should be executed.
+         * */
+        private boolean scheduleLocked() {
+            if (mScheduled || mCancelled) return false;
+            if (mDropped.isEmpty() && (mDemand == 0 || mPending.isEmpty())) return false;
+            mScheduled = true;
+            return true;
+        }
+
+        /**
+         * Counts the dropped change of specified key, it will be reported to the subscriber, even
+         * without demand.
+         * */
+        private void drop(String key) {
+            mDroppedCount++;
+            mDropped.add(key);
+        }
+
+        /**
+         * Executes the delivery task. If the executor rejects it, this subscription is cancelled
+         * and its pending changes are counted as dropped, the publisher is never affected.
+         * */
+        private void execute() {
+            try {
+                mExecutor.execute(mDelivery);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    mScheduled = false;
+                    mDroppedCount += mPending.size();
+                }
+                cancel();
+            }
+        }
+
+        /**
+         * Delivers pending changes, while there is demand.
+         * */
+        private void deliver() {
+            while (true) {
+                Change change = null;
+                Set<String> dropped = null;
+                synchronized (this) {
+                    if (mCancelled) {
+                        mScheduled = false;
+                        return;
+                    }
+                    if (!mDropped.isEmpty()) {
+                        dropped = new LinkedHashSet<String>(mDropped);
+                        mDropped.clear();
+                    } else if (mDemand == 0 || mPending.isEmpty()) {
+                        mScheduled = false;
+                        return;
+                    } else {
+                        final Iterator<Map.Entry<String, Change>> eldest =
+                                mPending.entrySet().iterator();
+                        change = eldest.next().getValue();
+                        eldest.remove();
+                        if (mDemand != UNBOUNDED) mDemand--;
+                        mDeliveredCount++;
+                    }
+                }
+                boolean delivered = false;
+                try {
+                    if (dropped != null) {
+                        mSubscriber.onDropped(Collections.unmodifiableSet(dropped));
+                    } else {
+                        mSubscriber.onValueChanged(change);
+                    }
+                    delivered = true;
+                } finally {
+                    // The subscriber failed, the rest will be delivered by the next task
+                    if (!delivered) {
+                        boolean reschedule;
+                        synchronized (this) {
+                            mScheduled = false;
+                            reschedule = scheduleLocked();
+                        }
+                        if (reschedule) execute();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Subscription{keys=" + (mKeys != null ? mKeys : "all") + ", pending="
+                    + getPendingCount() + ", demand=" + getDemand() + "}";
+        }
+    }
+
+}
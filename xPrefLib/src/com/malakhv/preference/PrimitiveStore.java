@@ -0,0 +1,291 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+/**
+ * The in-memory {@link PreferenceStorage} with primitive values. Each key is interned to an int
+ * id once, and values are kept in int, long and boolean arrays indexed by this id, so there is no
+ * boxing on reads and writes. Code-generated screens can use the id based methods, please see
+ * {@link #keyId(String)}, to avoid even the key lookup.
+ * <p>The values are loaded from the durable backend on first access, and all changes are written
+ * through to it. The backend can be any {@link PreferenceStorage}, for example
+ * {@link MappedStorage} or {@link SharedPreferencesStorage}, or null for the storage that lives
+ * only in memory.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public class PrimitiveStore extends PreferenceStorage {
+
+    /** The initial capacity of the store. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The states of value. */
+    private static final byte STATE_NOT_LOADED = 0;
+    private static final byte STATE_ABSENT = 1;
+    private static final byte STATE_INT = 2;
+    private static final byte STATE_LONG = 3;
+    private static final byte STATE_BOOLEAN = 4;
+
+    /** The durable backend, may be null. */
+    private final PreferenceStorage mBackend;
+
+    /** The hash table of keys, the open addressing with linear probing is used. */
+    private String[] mTableKeys = new String[INITIAL_CAPACITY * 2];
+
+    /** The ids of keys from {@link #mTableKeys}. */
+    private int[] mTableIds = new int[INITIAL_CAPACITY * 2];
+
+    /** The keys, by id. */
+    private String[] mKeys = new String[INITIAL_CAPACITY];
+
+    /** The states of values, by id. */
+    private byte[] mStates = new byte[INITIAL_CAPACITY];
+
+    /** The int values, by id. */
+    private int[] mInts = new int[INITIAL_CAPACITY];
+
+    /** The long values, by id. */
+    private long[] mLongs = new long[INITIAL_CAPACITY];
+
+    /** The boolean values, by id. */
+    private boolean[] mBooleans = new boolean[INITIAL_CAPACITY];
+
+    /** The number of interned keys. */
+    private int mSize = 0;
+
+    /**
+     * Creates a new store with specified durable backend.
+     * @param backend The durable backend, or null for the storage that lives only in memory.
+     * */
+    public PrimitiveStore(PreferenceStorage backend) { mBackend = backend; }
+
+    /**
+     * Returns the durable backend of this store, or null.
+     * */
+    public PreferenceStorage getBackend() { return mBackend; }
+
+    /**
+     * Returns the number of interned keys.
+     * */
+    public synchronized int size() { return mSize; }
+
+    /**
+     * Returns the id of specified key. The key is interned, if it needed. The id is valid for the
+     * lifetime of this store.
+     * */
+    public synchronized int keyId(String key) {
+        if (key == null) throw new IllegalArgumentException("The key is null");
+        final int mask = mTableKeys.length - 1;
+        int index = key.hashCode() & mask;
+        while (mTableKeys[index] != null) {
+            if (mTableKeys[index].equals(key)) return mTableIds[index];
+            index = (index + 1) & mask;
+        }
+
+        // Intern a new key
+        final int id = mSize++;
+        if (id == mKeys.length) grow();
+        mKeys[id] = key;
+        if (mSize * 2 > mTableKeys.length) {
+            rehash(mTableKeys.length * 2);
+        } else {
+            mTableKeys[index] = key;
+            mTableIds[index] = id;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the key of specified id.
+     * */
+    public synchronized String keyOf(int id) { return mKeys[id]; }
+
+    @Override
+    public boolean contains(String key) { return contains(keyId(key)); }
+
+    /**
+     * Returns true, if this store contains a value for specified key id.
+     * */
+    public synchronized boolean contains(int id) {
+        switch (mStates[id]) {
+            case STATE_NOT_LOADED: return mBackend != null && mBackend.contains(mKeys[id]);
+            case STATE_ABSENT: return false;
+            default: return true;
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) { return getInt(keyId(key), defValue); }
+
+    /**
+     * Returns the int value for specified key id, or the default value.
+     * */
+    public synchronized int getInt(int id, int defValue) {
+        if (mStates[id] == STATE_NOT_LOADED && isInBackend(id)) {
+            final int value = mBackend.getInt(mKeys[id], defValue);
+            // The backend returns the default value, if the stored value has other type
+            if (value != defValue || mBackend.getInt(mKeys[id], ~defValue) == value) {
+                mInts[id] = value;
+                mStates[id] = STATE_INT;
+            }
+        }
+        return mStates[id] == STATE_INT ? mInts[id] : defValue;
+    }
+
+    @Override
+    public void putInt(String key, int value) { putInt(keyId(key), value); }
+
+    /**
+     * Sets the int value for specified key id.
+     * */
+    public synchronized void putInt(int id, int value) {
+        if (mStates[id] == STATE_INT && mInts[id] == value) return;
+        mInts[id] = value;
+        mStates[id] = STATE_INT;
+        if (mBackend != null) mBackend.putInt(mKeys[id], value);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) { return getLong(keyId(key), defValue); }
+
+    /**
+     * Returns the long value for specified key id, or the default value.
+     * */
+    public synchronized long getLong(int id, long defValue) {
+        if (mStates[id] == STATE_NOT_LOADED && isInBackend(id)) {
+            final long value = mBackend.getLong(mKeys[id], defValue);
+            // The backend returns the default value, if the stored value has other type
+            if (value != defValue || mBackend.getLong(mKeys[id], ~defValue) == value) {
+                mLongs[id] = value;
+                mStates[id] = STATE_LONG;
+            }
+        }
+        return mStates[id] == STATE_LONG ? mLongs[id] : defValue;
+    }
+
+    @Override
+    public void putLong(String key, long value) { putLong(keyId(key), value); }
+
+    /**
+     * Sets the long value for specified key id.
+     * */
+    public synchronized void putLong(int id, long value) {
+        if (mStates[id] == STATE_LONG && mLongs[id] == value) return;
+        mLongs[id] = value;
+        mStates[id] = STATE_LONG;
+        if (mBackend != null) mBackend.putLong(mKeys[id], value);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return getBoolean(keyId(key), defValue);
+    }
+
+    /**
+     * Returns the boolean value for specified key id, or the default value.
+     * */
+    public synchronized boolean getBoolean(int id, boolean defValue) {
+        if (mStates[id] == STATE_NOT_LOADED && isInBackend(id)) {
+            final boolean value = mBackend.getBoolean(mKeys[id], defValue);
+            // The backend returns the default value, if the stored value has other type
+            if (value != defValue || mBackend.getBoolean(mKeys[id], !defValue) == value) {
+                mBooleans[id] = value;
+                mStates[id] = STATE_BOOLEAN;
+            }
+        }
+        return mStates[id] == STATE_BOOLEAN ? mBooleans[id] : defValue;
+    }
+
+    @Override
+    public void putBoolean(String key, boolean value) { putBoolean(keyId(key), value); }
+
+    /**
+     * Sets the boolean value for specified key id.
+     * */
+    public synchronized void putBoolean(int id, boolean value) {
+        if (mStates[id] == STATE_BOOLEAN && mBooleans[id] == value) return;
+        mBooleans[id] = value;
+        mStates[id] = STATE_BOOLEAN;
+        if (mBackend != null) mBackend.putBoolean(mKeys[id], value);
+    }
+
+    @Override
+    public void remove(String key) { remove(keyId(key)); }
+
+    /**
+     * Removes the value for specified key id.
+     * */
+    public synchronized void remove(int id) {
+        mStates[id] = STATE_ABSENT;
+        if (mBackend != null) mBackend.remove(mKeys[id]);
+    }
+
+    /**
+     * Returns true, if the backend contains the value for specified key id. If it does not, the
+     * value is marked as absent, so the backend will not be asked again.
+     * */
+    private boolean isInBackend(int id) {
+        if (mBackend != null && mBackend.contains(mKeys[id])) return true;
+        mStates[id] = STATE_ABSENT;
+        return false;
+    }
+
+    /**
+     * Grows the arrays of values.
+     * */
+    private void grow() {
+        final int capacity = mKeys.length * 2;
+        mKeys = copyOf(mKeys, new String[capacity]);
+        final byte[] states = new byte[capacity];
+        System.arraycopy(mStates, 0, states, 0, mStates.length);
+        mStates = states;
+        final int[] ints = new int[capacity];
+        System.arraycopy(mInts, 0, ints, 0, mInts.length);
+        mInts = ints;
+        final long[] longs = new long[capacity];
+        System.arraycopy(mLongs, 0, longs, 0, mLongs.length);
+        mLongs = longs;
+        final boolean[] booleans = new boolean[capacity];
+        System.arraycopy(mBooleans, 0, booleans, 0, mBooleans.length);
+        mBooleans = booleans;
+    }
+
+    /**
+     * Rebuilds the hash table of keys with specified capacity.
+     * */
+    private void rehash(int capacity) {
+        mTableKeys = new String[capacity];
+        mTableIds = new int[capacity];
+        final int mask = capacity - 1;
+        for (int id = 0; id < mSize; id++) {
+            int index = mKeys[id].hashCode() & mask;
+            while (mTableKeys[index] != null) index = (index + 1) & mask;
+            mTableKeys[index] = mKeys[id];
+            mTableIds[index] = id;
+        }
+    }
+
+    /**
+     * Copies the content of source array to the destination array.
+     * */
+    private static String[] copyOf(String[] src, String[] dst) {
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
+    }
+
+}
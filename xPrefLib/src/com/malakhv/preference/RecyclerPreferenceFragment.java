@@ -0,0 +1,640 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.database.DataSetObserver;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Bundle;
+import android.preference.Preference;
+import android.preference.PreferenceFragment;
+import android.preference.PreferenceScreen;
+import android.preference.TwoStatePreference;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.ListAdapter;
+import android.widget.ListView;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link PreferenceFragment} that shows its preference screen in a {@link RecyclerView},
+ * instead of a {@code ListView}. The screen is inflated as usual, for example by
+ * {@link #addPreferencesFromResource(int)} or {@link CompiledPreferences}, and each preference
+ * creates and binds its row view as usual, but rows are recycled by class and row layout, even
+ * for preferences that the framework's list never recycles.
+ * <p>The adapter has stable ids, so on each change of the screen only the rows that are visible
+ * are bound again. Moreover, changes of the library's preferences are tracked by
+ * {@link PreferenceChangeTracker}, so only the changed row is bound again, and if only its title
+ * or summary changed, only these views are updated. All hosts of one activity share one
+ * {@link RecyclerView.RecycledViewPool} and its view types, the pool is dropped when the last host
+ * destroys its view or when the activity is destroyed.
+ * Rows beyond the visible area are laid out in advance, please see
+ * {@link #setPrefetchDistance(int)}. When a flattened row is bound, the text of next rows of the
+ * same type is laid out in the background, please see {@link TextLayoutCache}.</p>
+ * <p>Instead of the preference screen, this host can show the {@link PreferenceList}, please see
+ * {@link #setPreferenceList(PreferenceList)}.</p>
+ * <p>This class requires the RecyclerView support library, that is an optional dependency of
+ * this library, so the application should add it to its dependencies.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public class RecyclerPreferenceFragment extends PreferenceFragment {
+
+    /** The default distance of rows prefetching, in dp. */
+    public static final int DEFAULT_PREFETCH_DISTANCE = 320;
+
+    /** The number of next rows, which text is laid out in the background, on each bind. */
+    private static final int PRECOMPUTE_ROWS = 4;
+
+    /** The selectable item background attribute. */
+    private static final int[] BACKGROUND_ATTR = new int[] {
+            android.R.attr.selectableItemBackground};
+
+    /**
+     * The shared pools of row views, by activity. The pooled views hold their activity, so weak
+     * keys would never be cleared, the pool is removed when the activity is destroyed instead.
+     * */
+    private static final Map<Activity, SharedPool> sPools = new HashMap<Activity, SharedPool>();
+
+    /** The application, which activity callbacks remove the pools, or null. */
+    private static Application sApplication = null;
+
+    /** The activity callbacks, that remove the pools. */
+    private static final PoolReleaser sPoolReleaser = new PoolReleaser();
+
+    /** The recycler view of this host. */
+    private RecyclerView mRecyclerView = null;
+
+    /** The adapter of this host. */
+    private final PreferenceAdapter mAdapter = new PreferenceAdapter();
+
+    /** The adapter of preference list, that is shown instead of the screen, may be null. */
+    private PreferenceListAdapter mListAdapter = null;
+
+    /** The distance of rows prefetching, in dp. */
+    private int mPrefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+
+    /** The activity, which pool is used by this host, while its view exists. */
+    private Activity mPoolOwner = null;
+
+    /** The pool, that is used by this host, while its view exists. */
+    private SharedPool mPool = null;
+
+    /**
+     * Creates the view hierarchy of this fragment: the {@link RecyclerView} and the hidden
+     * {@code ListView}, that {@link PreferenceFragment} requires.
+     * */
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        final Context context = inflater.getContext();
+        final FrameLayout root = new FrameLayout(context);
+        final ListView list = new ListView(context);
+        list.setId(android.R.id.list);
+        list.setVisibility(View.GONE);
+        root.addView(list);
+        mRecyclerView = onCreateRecyclerView(inflater, root);
+        root.addView(mRecyclerView, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        return root;
+    }
+
+    /**
+     * Creates the {@link RecyclerView} for this host. Override to customize it.
+     * */
+    protected RecyclerView onCreateRecyclerView(LayoutInflater inflater, ViewGroup parent) {
+        final Context context = inflater.getContext();
+        final RecyclerView view = new RecyclerView(context);
+        final float density = context.getResources().getDisplayMetrics().density;
+        view.setLayoutManager(new PrefetchLayoutManager(context, density));
+        view.addItemDecoration(new DividerDecoration(context));
+        return view;
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        mPoolOwner = getActivity();
+        mPool = acquirePool(mPoolOwner);
+        mRecyclerView.setRecycledViewPool(mPool.pool);
+        mRecyclerView.setAdapter(mListAdapter != null ? mListAdapter : mAdapter);
+        mAdapter.setScreen(getPreferenceScreen());
+        PreferenceChangeTracker.setListener(getPreferenceManager(), mAdapter);
+    }
+
+    @Override
+    public void onDestroyView() {
+        PreferenceChangeTracker.setListener(getPreferenceManager(), null);
+        mAdapter.setScreen(null);
+        if (mRecyclerView != null) mRecyclerView.setAdapter(null);
+        mRecyclerView = null;
+        // The pool is acquired for each view, as the view can be created again in other activity
+        if (mPoolOwner != null) releasePool(mPoolOwner);
+        mPoolOwner = null;
+        mPool = null;
+        super.onDestroyView();
+    }
+
+    /**
+     * Sets the root of the preference hierarchy that this fragment is showing.
+     * */
+    @Override
+    public void setPreferenceScreen(PreferenceScreen preferenceScreen) {
+        super.setPreferenceScreen(preferenceScreen);
+        if (mRecyclerView != null) mAdapter.setScreen(getPreferenceScreen());
+    }
+
+    /**
+     * Shows specified list instead of the preference screen, the preference objects are created
+     * only for visible rows. The list should be set again, after the rows are changed.
+     * @param list The list to show, or null to show the preference screen.
+     * */
+    public void setPreferenceList(PreferenceList list) {
+        mListAdapter = list != null ? new PreferenceListAdapter(list) : null;
+        if (mRecyclerView != null && mPoolOwner != null) {
+            mRecyclerView.setAdapter(mListAdapter != null ? mListAdapter : mAdapter);
+        }
+    }
+
+    /**
+     * Returns the list, that is shown instead of the preference screen, or null.
+     * */
+    public PreferenceList getPreferenceList() {
+        return mListAdapter != null ? mListAdapter.getList() : null;
+    }
+
+    /**
+     * Returns the adapter of the list, that is shown instead of the preference screen, or null.
+     * */
+    public PreferenceListAdapter getPreferenceListAdapter() { return mListAdapter; }
+
+    /**
+     * Returns the {@link RecyclerView} of this host, or null if the view is not created.
+     * */
+    public RecyclerView getRecyclerView() { return mRecyclerView; }
+
+    /**
+     * Sets the distance beyond the visible area, in which rows are laid out in advance.
+     * @param distance The distance in dp, or 0 to disable prefetching.
+     * */
+    public void setPrefetchDistance(int distance) { mPrefetchDistance = Math.max(distance, 0); }
+
+    /**
+     * Returns the distance of rows prefetching, in dp.
+     * */
+    public int getPrefetchDistance() { return mPrefetchDistance; }
+
+    /**
+     * Returns the number of rows that were bound completely, since last reset.
+     * */
+    public int getBindCount() { return mAdapter.mBindCount; }
+
+    /**
+     * Returns the number of rows that were updated partially, only the changed title or summary,
+     * since last reset.
+     * */
+    public int getPartialBindCount() { return mAdapter.mPartialBindCount; }
+
+    /**
+     * Resets the numbers of bound rows.
+     * */
+    public void resetBindCounts() {
+        mAdapter.mBindCount = 0;
+        mAdapter.mPartialBindCount = 0;
+    }
+
+    /**
+     * Returns the shared pool of specified activity, creates it if it needed.
+     * */
+    private static SharedPool acquirePool(Activity activity) {
+        SharedPool pool = sPools.get(activity);
+        if (pool == null) {
+            register(activity.getApplication());
+            pool = new SharedPool();
+            sPools.put(activity, pool);
+        }
+        pool.users++;
+        return pool;
+    }
+
+    /**
+     * Releases the shared pool of specified activity, it's removed when it has no users.
+     * */
+    private static void releasePool(Activity activity) {
+        final SharedPool pool = sPools.get(activity);
+        if (pool != null && --pool.users <= 0) {
+            pool.pool.clear();
+            sPools.remove(activity);
+        }
+    }
+
+    /**
+     * Registers the activity callbacks of specified application, that remove the pools of
+     * destroyed activities, if they are not registered yet.
+     * */
+    private static void register(Application app) {
+        if (app == null || app == sApplication) return;
+        if (sApplication != null) sApplication.unregisterActivityLifecycleCallbacks(sPoolReleaser);
+        app.registerActivityLifecycleCallbacks(sPoolReleaser);
+        sApplication = app;
+    }
+
+    /**
+     * Sets the selectable item background of current theme to specified row view, if it has no
+     * background.
+     * */
+    @SuppressWarnings("deprecation")
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    static void setItemBackground(View view) { // package access
+        if (view.getBackground() != null) return;
+        final TypedArray a = view.getContext().obtainStyledAttributes(BACKGROUND_ATTR);
+        final Drawable background = a.getDrawable(0);
+        a.recycle();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            view.setBackground(background);
+        } else {
+            view.setBackgroundDrawable(background);
+        }
+    }
+
+    /**
+     * The activity callbacks, that remove the pool of destroyed activity, if its hosts didn't
+     * release it.
+     * */
+    private static final class PoolReleaser implements Application.ActivityLifecycleCallbacks {
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            final SharedPool pool = sPools.remove(activity);
+            if (pool != null) pool.pool.clear();
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+        @Override
+        public void onActivityStarted(Activity activity) {}
+
+        @Override
+        public void onActivityResumed(Activity activity) {}
+
+        @Override
+        public void onActivityPaused(Activity activity) {}
+
+        @Override
+        public void onActivityStopped(Activity activity) {}
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+    }
+
+    /**
+     * The shared pool of row views with its view types and number of its users.
+     * */
+    private static final class SharedPool {
+        final RecyclerView.RecycledViewPool pool = new RecyclerView.RecycledViewPool();
+        int users = 0;
+
+        /** The view types of rows, by row key, they live as long as the pooled views. */
+        private final Map<RowKey, Integer> mViewTypes = new HashMap<RowKey, Integer>();
+
+        /** The key to look up the view type of row, to avoid allocations. */
+        private final RowKey mLookupKey = new RowKey();
+
+        /**
+         * Returns the view type of specified preference's row. The rows of one type are
+         * interchangeable: they are created by preferences of the same class, with the same row
+         * layout and widget layout resources and the same row mode.
+         * */
+        int getViewType(Preference preference) {
+            mLookupKey.set(preference);
+            Integer type = mViewTypes.get(mLookupKey);
+            if (type == null) {
+                final RowKey key = new RowKey();
+                key.set(preference);
+                type = mViewTypes.size();
+                mViewTypes.put(key, type);
+            }
+            return type;
+        }
+    }
+
+    /**
+     * The key of row view type.
+     * */
+    private static final class RowKey {
+        private Class<?> mClass;
+        private int mLayout;
+        private int mWidgetLayout;
+        private boolean mFlatRow;
+
+        void set(Preference preference) {
+            mClass = preference.getClass();
+            mLayout = preference.getLayoutResource();
+            mWidgetLayout = preference.getWidgetLayoutResource();
+            mFlatRow = MultilinePreference.isFlatRow(preference);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RowKey)) return false;
+            final RowKey key = (RowKey) o;
+            return mClass == key.mClass && mLayout == key.mLayout
+                    && mWidgetLayout == key.mWidgetLayout && mFlatRow == key.mFlatRow;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mClass.hashCode();
+            hash = 31 * hash + mLayout;
+            hash = 31 * hash + mWidgetLayout;
+            return 31 * hash + (mFlatRow ? 1 : 0);
+        }
+    }
+
+    /**
+     * The row view holder.
+     * */
+    private static final class RowHolder extends RecyclerView.ViewHolder {
+        RowHolder(View itemView) { super(itemView); }
+    }
+
+    /**
+     * The adapter over the flattened preference screen. The screen's root adapter is used as
+     * the model, so positions, ids and clicks are the same as in the framework's list.
+     * */
+    private final class PreferenceAdapter extends RecyclerView.Adapter<RowHolder>
+            implements View.OnClickListener, PreferenceChangeTracker.OnRowChangeListener {
+
+        /** The preference screen, may be null. */
+        private PreferenceScreen mScreen = null;
+
+        /** The root adapter of preference screen, may be null. */
+        private ListAdapter mItems = null;
+
+        /** The preferences that create row views, by view type. */
+        private final SparseArray<Preference> mCreators = new SparseArray<Preference>();
+
+        /** The positions of preferences, built on first use. */
+        private final Map<Preference, Integer> mPositions = new HashMap<Preference, Integer>();
+
+        /** True, if {@link #mPositions} should be built again. */
+        private boolean mPositionsInvalid = true;
+
+        /** The number of rows that were bound completely. */
+        int mBindCount = 0;
+
+        /** The number of rows that were updated partially. */
+        int mPartialBindCount = 0;
+
+        /** The position of last completely bound row, to know the direction of scrolling. */
+        private int mLastBound = 0;
+
+        /** Listens the changes of preference screen. */
+        private final DataSetObserver mObserver = new DataSetObserver() {
+            @Override
+            public void onChanged() {
+                mPositionsInvalid = true;
+                notifyDataSetChanged();
+            }
+
+            @Override
+            public void onInvalidated() {
+                mPositionsInvalid = true;
+                notifyDataSetChanged();
+            }
+        };
+
+        PreferenceAdapter() { setHasStableIds(true); }
+
+        /**
+         * Sets the preference screen of this adapter.
+         * */
+        void setScreen(PreferenceScreen screen) {
+            if (mItems != null) mItems.unregisterDataSetObserver(mObserver);
+            mScreen = screen;
+            mItems = screen != null ? screen.getRootAdapter() : null;
+            if (mItems != null) mItems.registerDataSetObserver(mObserver);
+            mCreators.clear();
+            mPositionsInvalid = true;
+            notifyDataSetChanged();
+        }
+
+        /**
+         * Returns the preference at specified position.
+         * */
+        Preference getItem(int position) { return (Preference) mItems.getItem(position); }
+
+        @Override
+        public int getItemCount() { return mItems != null ? mItems.getCount() : 0; }
+
+        @Override
+        public long getItemId(int position) { return mItems.getItemId(position); }
+
+        @Override
+        public int getItemViewType(int position) {
+            final Preference preference = getItem(position);
+            final int type = mPool.getViewType(preference);
+            mCreators.put(type, preference);
+            return type;
+        }
+
+        @Override
+        public RowHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            final View view = mCreators.get(viewType).getView(null, parent);
+            if (view.getLayoutParams() == null) {
+                view.setLayoutParams(new RecyclerView.LayoutParams(
+                        ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+            }
+            setItemBackground(view);
+            view.setOnClickListener(this);
+            return new RowHolder(view);
+        }
+
+        @Override
+        public boolean onRowChanged(Preference preference, int fields) {
+            if (mItems == null) return false;
+            if (mPositionsInvalid) {
+                mPositions.clear();
+                for (int i = 0; i < mItems.getCount(); i++) mPositions.put(getItem(i), i);
+                mPositionsInvalid = false;
+            }
+            final Integer position = mPositions.get(preference);
+            // The preference is not shown by this host, for example it's in a nested screen
+            if (position == null) return false;
+            notifyItemChanged(position, fields);
+            return true;
+        }
+
+        @Override
+        public void onBindViewHolder(RowHolder holder, int position, List<Object> payloads) {
+            int fields = 0;
+            for (Object payload: payloads) fields |= (Integer) payload;
+            if (fields != 0 && bindPartially(getItem(position), holder.itemView, fields)) {
+                mPartialBindCount++;
+                return;
+            }
+            onBindViewHolder(holder, position);
+        }
+
+        @Override
+        public void onBindViewHolder(RowHolder holder, int position) {
+            mBindCount++;
+            final Preference preference = getItem(position);
+            preference.getView(holder.itemView, mRecyclerView);
+            final boolean clickable = preference.isSelectable() && preference.isEnabled();
+            holder.itemView.setClickable(clickable);
+            holder.itemView.setFocusable(clickable);
+            precomputeRows(holder, position);
+        }
+
+        /**
+         * Lays out the text of next rows in the direction of scrolling in the background, with
+         * the text width and appearance of specified bound row, if it's flattened and already
+         * measured. Only the rows of the same type are taken, as they have the same text width.
+         * */
+        private void precomputeRows(RowHolder holder, int position) {
+            final int step = position >= mLastBound ? 1 : -1;
+            mLastBound = position;
+            if (!(holder.itemView instanceof MultilineRowView)) return;
+            final int type = holder.getItemViewType();
+            final int count = getItemCount();
+            for (int i = 1; i <= PRECOMPUTE_ROWS; i++) {
+                final int next = position + i * step;
+                if (next < 0 || next >= count) break;
+                final Preference preference = getItem(next);
+                if (mPool.getViewType(preference) == type) {
+                    MultilinePreference.precomputeRowView(holder.itemView, preference);
+                }
+            }
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (mRecyclerView == null || mScreen == null) return;
+            final int position = mRecyclerView.getChildAdapterPosition(view);
+            if (position == RecyclerView.NO_POSITION) return;
+            // The same as the framework's list does
+            mScreen.onItemClick(null, view, position, getItemId(position));
+        }
+    }
+
+    /**
+     * Updates only the summary of specified preference's row view, if only it changed.
+     * @return True, if the row is updated, or false if it should be bound completely.
+     * */
+    private static boolean bindPartially(Preference preference, View view, int fields) {
+        if (fields != PreferenceChangeTracker.FIELD_SUMMARY) return false;
+        // The flattened row binds all at once, and it's cheap
+        if (view instanceof MultilineRowView) return false;
+        final MultilineViewHolder holder = MultilineViewHolder.get(view);
+        if (holder == null || holder.summary == null) return false;
+        final CharSequence summary = preference instanceof TwoStatePreference
+                ? MultilinePreference.getStateSummary((TwoStatePreference) preference)
+                : preference.getSummary();
+        if (TextUtils.isEmpty(summary)) {
+            holder.summary.setVisibility(View.GONE);
+        } else {
+            holder.summary.setText(summary);
+            holder.summary.setVisibility(View.VISIBLE);
+        }
+        return true;
+    }
+
+    /**
+     * The layout manager, that lays out rows beyond the visible area in advance, so they are
+     * ready when the list is scrolled.
+     * */
+    private final class PrefetchLayoutManager extends LinearLayoutManager {
+
+        private final float mDensity;
+
+        PrefetchLayoutManager(Context context, float density) {
+            super(context);
+            mDensity = density;
+        }
+
+        @Override
+        protected int getExtraLayoutSpace(RecyclerView.State state) {
+            return Math.max(super.getExtraLayoutSpace(state),
+                    (int) (mPrefetchDistance * mDensity + 0.5f));
+        }
+    }
+
+    /**
+     * Draws the list divider of current theme between rows, as the framework's list does.
+     * */
+    private static final class DividerDecoration extends RecyclerView.ItemDecoration {
+
+        private final Drawable mDivider;
+
+        DividerDecoration(Context context) {
+            final TypedArray a = context.obtainStyledAttributes(
+                    new int[] {android.R.attr.listDivider});
+            mDivider = a.getDrawable(0);
+            a.recycle();
+        }
+
+        @Override
+        public void getItemOffsets(Rect outRect, View view, RecyclerView parent,
+                RecyclerView.State state) {
+            outRect.set(0, 0, 0, getHeight());
+        }
+
+        @Override
+        public void onDraw(Canvas canvas, RecyclerView parent, RecyclerView.State state) {
+            if (mDivider == null) return;
+            final int height = getHeight();
+            final int left = parent.getPaddingLeft();
+            final int right = parent.getWidth() - parent.getPaddingRight();
+            final int count = parent.getChildCount();
+            for (int i = 0; i < count - 1; i++) {
+                final View child = parent.getChildAt(i);
+                final int top = child.getBottom() + Math.round(child.getTranslationY());
+                mDivider.setBounds(left, top, right, top + height);
+                mDivider.draw(canvas);
+            }
+        }
+
+        /**
+         * Returns the height of the divider.
+         * */
+        private int getHeight() {
+            if (mDivider == null) return 0;
+            return mDivider.getIntrinsicHeight() > 0 ? mDivider.getIntrinsicHeight() : 1;
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.util.AttributeSet;
+import android.view.Gravity;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The resolved library attributes of a preference. When a preference is created from code (the
+ * {@link AttributeSet} is null), the attributes depend only on the theme and the default style,
+ * so they are resolved once and shared by all such preferences, please see
+ * {@link PreferenceFactory}. The attributes are cached by theme instance, the theme has no way to
+ * tell that it was changed, so the styles applied to it by
+ * {@link android.content.res.Resources.Theme#applyStyle(int, boolean)} after the first lookup are
+ * not seen until {@link #clearCache()} is called.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+final class ResolvedAttributes { // package access
+
+    /** The attributes from {@code R.styleable.Preference}. */
+    private static final int KIND_PREFERENCE = 0;
+
+    /** The attributes from {@code R.styleable.SeekBarDialog}. */
+    private static final int KIND_SEEK_BAR = 1;
+
+    /** The resolved attributes, by theme. */
+    private static final WeakHashMap<Resources.Theme, Map<Key, ResolvedAttributes>> sCache =
+            new WeakHashMap<Resources.Theme, Map<Key, ResolvedAttributes>>();
+
+    /** The key to look up the cache, to avoid allocations, it's guarded by {@link #sCache}. */
+    private static final Key sLookupKey = new Key();
+
+    /** The gravity of preference's title and summary. */
+    final int gravity;
+
+    /** The maximum value of progress. */
+    final int max;
+
+    /** The initial value of progress. */
+    final int progress;
+
+    /** The dialog message, may be null. */
+    final String dialogMessage;
+
+    /** The summary, may be null. */
+    final String summary;
+
+    private ResolvedAttributes(int gravity, int max, int progress, String dialogMessage,
+            String summary) {
+        this.gravity = gravity;
+        this.max = max;
+        this.progress = progress;
+        this.dialogMessage = dialogMessage;
+        this.summary = summary;
+    }
+
+    /**
+     * Returns the attributes from {@code R.styleable.Preference}.
+     * */
+    static ResolvedAttributes forPreference(Context context, AttributeSet attrs,
+            int defStyleAttr, int defStyleRes) {
+        return get(KIND_PREFERENCE, context, attrs, defStyleAttr, defStyleRes);
+    }
+
+    /**
+     * Returns the attributes from {@code R.styleable.SeekBarDialog}.
+     * */
+    static ResolvedAttributes forSeekBar(Context context, AttributeSet attrs, int defStyleAttr,
+            int defStyleRes) {
+        return get(KIND_SEEK_BAR, context, attrs, defStyleAttr, defStyleRes);
+    }
+
+    /**
+     * Removes all resolved attributes from the cache.
+     * */
+    static void clearCache() {
+        synchronized (sCache) { sCache.clear(); }
+    }
+
+    /**
+     * Returns the attributes of specified kind. The cache is used, if there is no
+     * {@link AttributeSet}.
+     * */
+    private static ResolvedAttributes get(int kind, Context context, AttributeSet attrs,
+            int defStyleAttr, int defStyleRes) {
+        if (attrs != null) return resolve(kind, context, attrs, defStyleAttr, defStyleRes);
+        final Resources.Theme theme = context.getTheme();
+        synchronized (sCache) {
+            Map<Key, ResolvedAttributes> values = sCache.get(theme);
+            if (values == null) {
+                values = new HashMap<Key, ResolvedAttributes>();
+                sCache.put(theme, values);
+            }
+            sLookupKey.set(kind, defStyleAttr, defStyleRes);
+            ResolvedAttributes value = values.get(sLookupKey);
+            if (value == null) {
+                value = resolve(kind, context, null, defStyleAttr, defStyleRes);
+                final Key key = new Key();
+                key.set(kind, defStyleAttr, defStyleRes);
+                values.put(key, value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Resolves the attributes of specified kind.
+     * */
+    private static ResolvedAttributes resolve(int kind, Context context, AttributeSet attrs,
+            int defStyleAttr, int defStyleRes) {
+        if (kind == KIND_PREFERENCE) {
+            final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.Preference,
+                    defStyleAttr, defStyleRes);
+            final int gravity = a.getInt(R.styleable.Preference_android_gravity,
+                    Gravity.NO_GRAVITY);
+            a.recycle();
+            return new ResolvedAttributes(gravity, SeekBarDialog.DEFAULT_MAX_VALUE,
+                    SeekBarDialog.DEFAULT_VALUE, null, null);
+        } else {
+            final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.SeekBarDialog,
+                    defStyleAttr, defStyleRes);
+            final ResolvedAttributes value = new ResolvedAttributes(Gravity.NO_GRAVITY,
+                    a.getInt(R.styleable.SeekBarDialog_android_max,
+                            SeekBarDialog.DEFAULT_MAX_VALUE),
+                    a.getInt(R.styleable.SeekBarDialog_android_progress,
+                            SeekBarDialog.DEFAULT_VALUE),
+                    a.getString(R.styleable.SeekBarDialog_android_dialogMessage),
+                    a.getString(R.styleable.SeekBarDialog_android_summary));
+            a.recycle();
+            return value;
+        }
+    }
+
+    /**
+     * The key of resolved attributes for one theme.
+     * */
+    private static final class Key {
+
+        private int mKind;
+        private int mDefStyleAttr;
+        private int mDefStyleRes;
+
+        void set(int kind, int defStyleAttr, int defStyleRes) {
+            mKind = kind;
+            mDefStyleAttr = defStyleAttr;
+            mDefStyleRes = defStyleRes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key key = (Key) o;
+            return mKind == key.mKind && mDefStyleAttr == key.mDefStyleAttr
+                    && mDefStyleRes == key.mDefStyleRes;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * mKind + mDefStyleAttr) + mDefStyleRes;
+        }
+    }
+
+}
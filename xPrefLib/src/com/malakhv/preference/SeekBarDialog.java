@@ -21,15 +21,23 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.DialogPreference;
 import android.preference.Preference;
+import android.preference.PreferenceManager;
 import android.util.AttributeSet;
 import android.view.View;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * A {@link Preference} that displays a {@link SeekBar} as a dialog.
+ * A {@link Preference} that displays a {@link SeekBar} as a dialog. The value changes are
+ * published to the {@link PreferenceValueStream}.
  * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
  */
 @SuppressWarnings("unused")
@@ -44,6 +52,9 @@ public class SeekBarDialog extends DialogPreference {
     /** The default dialog message formatted text. */
     public static final String DEFAULT_DIALOG_MESSAGE = "%s %%";
 
+    /** The default minimum interval between live preview notifications, in milliseconds. */
+    public static final long DEFAULT_PREVIEW_INTERVAL = 100;
+
     /** The maximum value of progress for {@link SeekBar} in the dialog. */
     private int mMax = DEFAULT_MAX_VALUE;
 
@@ -53,15 +64,75 @@ public class SeekBarDialog extends DialogPreference {
     /** The summary of this Preference. */
     private String mSummary = null;
 
+    /** The compiled summary, or null if the summary cannot be compiled. */
+    private ValueFormat mSummaryFormat = null;
+
+    /** The last rendered summary, or null if there is no rendered summary yet. */
+    private CharSequence mRenderedSummary = null;
+
+    /** The value that was used to render {@link #mRenderedSummary}. */
+    private int mRenderedSummaryValue;
+
     /** The dialog message of this Preference.  */
     private String mDialogMessage = null;
 
+    /** The compiled dialog message, or null if the message cannot be compiled. */
+    private ValueFormat mDialogMessageFormat = null;
+
     /** The {@link SeekBar} shown in the dialog. */
     private SeekBar mSeekBar = null;
 
     /** The {@link TextView} shown in the dialog as a message. */
     private TextView mDialogMessageView = null;
 
+    /** The storage of this preference's value, or null to use the SharedPreferences. */
+    private PreferenceStorage mStorage = PreferenceStorage.getDefault();
+
+    /** True, if the initial value was set while attaching to the hierarchy. */
+    private boolean mInitialValueSet = false;
+
+    /** True, while the initial value is being set, it's not published as a change. */
+    private boolean mRestoringValue = false;
+
+    /** The change handling of this preference, please see {@link PreferenceDelegate}. */
+    private final PreferenceDelegate mDelegate = new PreferenceDelegate(this) {
+        @Override
+        void onNotifyChanged() { SeekBarDialog.super.notifyChanged(); }
+
+        @Override
+        void onNotifyDependencyChange(boolean disableDependents) {
+            SeekBarDialog.super.notifyDependencyChange(disableDependents);
+        }
+    };
+
+    /** True, if this preference uses {@link AsyncPersistence} to persist its value. */
+    private boolean mAsyncPersistence = AsyncPersistence.isEnabledByDefault();
+
+    /** True, if the live preview mode is enabled. */
+    private boolean mLivePreview = false;
+
+    /** The minimum interval between live preview notifications, in milliseconds. */
+    private long mPreviewInterval = DEFAULT_PREVIEW_INTERVAL;
+
+    /** True, if the value should be persisted during live preview. */
+    private boolean mPersistPreview = false;
+
+    /** True, if the preview value was persisted and should be restored on cancel. */
+    private boolean mPreviewPersisted = false;
+
+    /** The listeners of live preview, please see {@link #addOnValuePreviewListener}. */
+    private final List<OnValuePreviewListener> mPreviewListeners =
+            new ArrayList<OnValuePreviewListener>();
+
+    /** The live preview controller, will be created on first use. */
+    private LivePreview mLivePreviewController = null;
+
+    /** True, if the dialog content view should be reused, please see {@link DialogViewCache}. */
+    private boolean mReuseDialogView = false;
+
+    /** The current dialog content view. */
+    private View mDialogView = null;
+
     /** The internal listener for {@link SeekBar} shown in the dialog. */
     private OnSeekBarChangeListener mOnSeekBarChangeListener = new OnSeekBarChangeListener();
 
@@ -92,17 +163,19 @@ public class SeekBarDialog extends DialogPreference {
     public SeekBarDialog(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
         super(context, attrs, defStyleAttr, defStyleRes);
 
-        // Retrieve the SeekBar attributes
-        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.SeekBarDialog,
-                defStyleAttr, defStyleRes);
-        mMax = a.getInt(R.styleable.SeekBarDialog_android_max, DEFAULT_MAX_VALUE);
-        mValue = a.getInt(R.styleable.SeekBarDialog_android_progress, DEFAULT_VALUE);
-        mDialogMessage = a.getString(R.styleable.SeekBarDialog_android_dialogMessage);
+        // Retrieve the SeekBar attributes, they are resolved once per theme and style, if there
+        // is no AttributeSet
+        final ResolvedAttributes a = ResolvedAttributes.forSeekBar(context, attrs, defStyleAttr,
+                defStyleRes);
+        mMax = a.max;
+        mValue = a.progress;
+        mDialogMessage = a.dialogMessage;
         if (mDialogMessage == null) mDialogMessage = DEFAULT_DIALOG_MESSAGE;
+        mDialogMessageFormat = ValueFormat.compile(mDialogMessage);
 
         // Retrieve the Preference summary attribute since it's private in the Preference class
-        mSummary = a.getString(R.styleable.SeekBarDialog_android_summary);
-        a.recycle();
+        mSummary = a.summary;
+        mSummaryFormat = ValueFormat.compile(mSummary);
 
         // Set custom layout with SeekBar for the dialog
         this.setDialogLayoutResource(R.layout.seek_bar_dialog);
@@ -113,6 +186,55 @@ public class SeekBarDialog extends DialogPreference {
      * */
     public int getValue() { return mValue; }
 
+    /**
+     * Sets the maximum value of progress for {@link SeekBar} in the dialog. The current value will
+     * be limited by this maximum value.
+     * */
+    public void setMax(int max) {
+        mMax = max < 0 ? 0 : max;
+        if (mValue > mMax) setValue(mMax);
+    }
+
+    /**
+     * Returns the maximum value of progress for {@link SeekBar} in the dialog.
+     * */
+    public int getMax() { return mMax; }
+
+    /**
+     * Sets whether the dialog content view should be kept in {@link DialogViewCache} after the
+     * dialog is closed, and reused when the dialog is opened next time.
+     * */
+    public void setReuseDialogView(boolean reuse) { mReuseDialogView = reuse; }
+
+    /**
+     * Returns true, if the dialog content view is reused.
+     * */
+    public boolean isReuseDialogView() { return mReuseDialogView; }
+
+    /**
+     * Inflates the dialog content view during idle time, so the first opening of the dialog will
+     * be faster. Makes sense only if the dialog content view is reused.
+     * @see #setReuseDialogView(boolean)
+     * */
+    public void prewarmDialogView() {
+        if (mReuseDialogView) DialogViewCache.prewarm(getContext(), getDialogLayoutResource());
+    }
+
+    /**
+     * Creates the content view for the dialog. In this implementation, the cached view is used,
+     * if it exists and reusing is enabled.
+     * */
+    @Override
+    protected View onCreateDialogView() {
+        View view = null;
+        if (mReuseDialogView) {
+            view = DialogViewCache.obtain(getContext(), getDialogLayoutResource());
+        }
+        if (view == null) view = super.onCreateDialogView();
+        mDialogView = view;
+        return view;
+    }
+
     /**
      * Binds views in the content View of the dialog to data. <p>Make sure to call through to the
      * superclass implementation.</p>
@@ -141,11 +263,118 @@ public class SeekBarDialog extends DialogPreference {
     @Override
     protected void onDialogClosed(boolean positiveResult) {
         super.onDialogClosed(positiveResult);
+        if (mLivePreviewController != null) mLivePreviewController.reset();
+        final int oldValue = mValue;
         if (positiveResult) { // Need to persist value
             final int value = mSeekBar.getProgress();
             if (callChangeListener(value)) setValue(value);
         }
+        if (mLivePreview && mValue == oldValue) {
+            // The preview was canceled, restore the current value
+            if (mPreviewPersisted) persistInt(mValue);
+            dispatchValuePreview(mValue);
+        }
+        mPreviewPersisted = false;
         mSeekBar.setOnSeekBarChangeListener(null);
+
+        // Keep the dialog content view for next time
+        if (mReuseDialogView) {
+            DialogViewCache.recycle(getContext(), getDialogLayoutResource(), mDialogView);
+        }
+        mDialogView = null;
+        mDialogMessageView = null;
+    }
+
+    /**
+     * Sets whether the live preview mode is enabled. In this mode, the dialog message is updated
+     * at most once per display frame, and the current value is pushed to the
+     * {@link OnValuePreviewListener listeners} (and optionally persisted) at a capped rate while
+     * the user drags the {@link SeekBar}. If the dialog is canceled, the listeners receive the
+     * current value again.
+     * @see #setPreviewInterval(long)
+     * @see #setPersistPreview(boolean)
+     * */
+    public void setLivePreview(boolean enabled) {
+        mLivePreview = enabled;
+        if (!enabled && mLivePreviewController != null) mLivePreviewController.reset();
+    }
+
+    /**
+     * Returns true, if the live preview mode is enabled.
+     * */
+    public boolean isLivePreview() { return mLivePreview; }
+
+    /**
+     * Sets the minimum interval between live preview notifications, in milliseconds.
+     * */
+    public void setPreviewInterval(long interval) {
+        mPreviewInterval = interval < 0 ? 0 : interval;
+    }
+
+    /**
+     * Returns the minimum interval between live preview notifications, in milliseconds.
+     * */
+    public long getPreviewInterval() { return mPreviewInterval; }
+
+    /**
+     * Sets whether the value should be persisted during live preview. The persisted value will be
+     * restored, if the dialog is canceled.
+     * */
+    public void setPersistPreview(boolean persist) { mPersistPreview = persist; }
+
+    /**
+     * Returns true, if the value is persisted during live preview.
+     * */
+    public boolean isPersistPreview() { return mPersistPreview; }
+
+    /**
+     * Registers a listener to be notified about value changes during live preview.
+     * */
+    public void addOnValuePreviewListener(OnValuePreviewListener listener) {
+        if (listener != null && !mPreviewListeners.contains(listener)) {
+            mPreviewListeners.add(listener);
+        }
+    }
+
+    /**
+     * Unregisters a listener that was registered by {@link #addOnValuePreviewListener}.
+     * */
+    public void removeOnValuePreviewListener(OnValuePreviewListener listener) {
+        mPreviewListeners.remove(listener);
+    }
+
+    /**
+     * Pushes specified preview value to the listeners and persists it, if it needed.
+     * */
+    private void dispatchValuePreview(int value) {
+        if (mPersistPreview && persistInt(value)) mPreviewPersisted = true;
+        for (int i = 0; i < mPreviewListeners.size(); i++) {
+            mPreviewListeners.get(i).onValuePreview(this, value);
+        }
+    }
+
+    /**
+     * Updates the dialog message view for specified value.
+     * */
+    private void updateDialogMessage(int value) {
+        if (mDialogMessageView == null) return;
+        if (mDialogMessageFormat != null) {
+            // Render into the reused buffer, without any allocations. The view keeps the buffer,
+            // and only this method renders into it
+            final int length = mDialogMessageFormat.render(value);
+            mDialogMessageView.setText(mDialogMessageFormat.getBuffer(), 0, length);
+        } else {
+            mDialogMessageView.setText(getDialogMessage(value));
+        }
+    }
+
+    /**
+     * Sets the initial progress value, the same way as {@code android:progress} attribute does.
+     * The value is used until the preference gets the persisted or default value; unlike
+     * {@link #setValue(int)}, it is not persisted and nobody is notified.
+     * */
+    public void setInitialValue(int value) {
+        mValue = value < 0 ? 0 : (value > mMax ? mMax : value);
     }
 
     /**
@@ -162,13 +391,120 @@ public class SeekBarDialog extends DialogPreference {
         persistInt(mValue);
 
         // Notify about value was changed
-        if (changed) notifyChanged();
+        if (changed) {
+            notifyChanged();
+            if (!mRestoringValue) PreferenceValueStream.publish(getKey(), mValue);
+        }
 
         // Resolve dependencies
         final boolean isBlocking = shouldDisableDependents();
         if (isBlocking != wasBlocking) notifyDependencyChange(isBlocking);
     }
 
+    /**
+     * Sets whether this preference should persist its value through {@link AsyncPersistence},
+     * instead of writing to the {@link SharedPreferences} directly.
+     * */
+    public void setAsyncPersistence(boolean async) { mAsyncPersistence = async; }
+
+    /**
+     * Returns true, if this preference persists its value through {@link AsyncPersistence}.
+     * */
+    public boolean isAsyncPersistence() { return mAsyncPersistence; }
+
+    /**
+     * Sets the storage of this preference's value, instead of the {@link SharedPreferences}. Should
+     * be called before this preference is added to the hierarchy.
+     * @see PreferenceStorage#setDefault(PreferenceStorage)
+     * */
+    public void setStorage(PreferenceStorage storage) { mStorage = storage; }
+
+    /**
+     * Returns the storage of this preference's value, or null if the value is persisted to the
+     * {@link SharedPreferences}.
+     * */
+    public PreferenceStorage getStorage() { return mStorage; }
+
+    /**
+     * Attempts to persist an int to the {@link SharedPreferences}, or to the
+     * {@link #getStorage() storage}. In async persistence mode, the value will be written later,
+     * in the background thread. If there is the open {@link PreferenceTransaction}, the value
+     * will be written when it's applied.
+     * @see #setAsyncPersistence(boolean)
+     * */
+    @Override
+    protected boolean persistInt(int value) {
+        final long start = PreferenceTracing.begin(PreferenceMetrics.EVENT_PERSIST);
+        try {
+            if (mStorage != null) {
+                if (!shouldPersist()) return false;
+                mStorage.putInt(getKey(), value);
+                return true;
+            }
+            if (!mAsyncPersistence) {
+                if (shouldPersist() && PreferenceTransaction.deferPersist(getSharedPreferences(),
+                        getKey(), value)) {
+                    return true;
+                }
+                return super.persistInt(value);
+            }
+            if (!shouldPersist()) return false;
+            if (value == getPersistedInt(~value)) return true; // It's already there
+            AsyncPersistence.putInt(getSharedPreferences(), getKey(), value);
+            return true;
+        } finally {
+            PreferenceTracing.end(PreferenceMetrics.EVENT_PERSIST, this, start);
+        }
+    }
+
+    /**
+     * Attempts to get a persisted int from the {@link SharedPreferences}, or from the
+     * {@link #getStorage() storage}. In async persistence mode, or in the open
+     * {@link PreferenceTransaction}, the latest pending value will be returned, if it exists.
+     * */
+    @Override
+    protected int getPersistedInt(int defaultReturnValue) {
+        if (mStorage != null) {
+            return shouldPersist() ? mStorage.getInt(getKey(), defaultReturnValue)
+                    : defaultReturnValue;
+        }
+        if (!shouldPersist()) return super.getPersistedInt(defaultReturnValue);
+        final Object pending = PreferenceTransaction.getPending(getSharedPreferences(), getKey());
+        if (pending instanceof Integer) return (Integer) pending;
+        if (!mAsyncPersistence) return super.getPersistedInt(defaultReturnValue);
+        return AsyncPersistence.getInt(getSharedPreferences(), getKey(), defaultReturnValue);
+    }
+
+    /**
+     * Binds the created View to the data for this Preference. In this implementation, the bound
+     * row state is remembered by {@link PreferenceDelegate#onBind()}.
+     * */
+    @Override
+    protected void onBindView(View view) {
+        super.onBindView(view);
+        mDelegate.onBind();
+    }
+
+    /**
+     * Should be called when the data of this Preference has changed. In this implementation, the
+     * change is handled by {@link PreferenceDelegate#notifyChanged()}.
+     * */
+    @Override
+    protected void notifyChanged() {
+        // The framework's constructors can notify before the delegate is created
+        if (mDelegate != null) mDelegate.notifyChanged(); else super.notifyChanged();
+    }
+
+    /**
+     * Notifies any listening dependents of a change that affects the dependency. In this
+     * implementation, the notification is handled by
+     * {@link PreferenceDelegate#notifyDependencyChange(boolean)}.
+     * */
+    @Override
+    public void notifyDependencyChange(boolean disableDependents) {
+        mDelegate.notifyDependencyChange(disableDependents);
+    }
+
     /**
      * Returns the summary of this {@link SeekBarDialog}. If the summary has a
      * {@link String#format String formatting} marker in it (i.e. "%s" or "%1$s"), then
@@ -176,7 +512,14 @@ public class SeekBarDialog extends DialogPreference {
      * */
     @Override
     public CharSequence getSummary() {
-        return mSummary != null ? String.format(mSummary, mValue) : super.getSummary();
+        if (mSummary == null) return super.getSummary();
+        // The rendered summary is cached until the value or the summary changed
+        if (mRenderedSummary == null || mRenderedSummaryValue != mValue) {
+            mRenderedSummary = mSummaryFormat != null ? mSummaryFormat.format(mValue)
+                    : String.format(mSummary, mValue);
+            mRenderedSummaryValue = mValue;
+        }
+        return mRenderedSummary;
     }
 
     /**
@@ -186,8 +529,22 @@ public class SeekBarDialog extends DialogPreference {
      */
     @Override
     public void setSummary(CharSequence summary) {
-        super.setSummary(summary);
         mSummary = (summary != null ? summary.toString() : null);
+        mSummaryFormat = ValueFormat.compile(mSummary);
+        mRenderedSummary = null;
+        super.setSummary(summary);
+    }
+
+    /**
+     * Sets the message of the dialog. If the message has a {@link String#format String formatting}
+     * marker in it (i.e. "%s" or "%1$s"), then the current value will be substituted in its
+     * place when it's retrieved.
+     * */
+    @Override
+    public void setDialogMessage(CharSequence dialogMessage) {
+        super.setDialogMessage(dialogMessage);
+        mDialogMessage = dialogMessage != null ? dialogMessage.toString() : null;
+        mDialogMessageFormat = ValueFormat.compile(mDialogMessage);
     }
 
     /**
@@ -204,6 +561,7 @@ public class SeekBarDialog extends DialogPreference {
      * then the current value will be substituted in its place.
      * */
     public CharSequence getDialogMessage(int value) {
+        if (mDialogMessageFormat != null) return mDialogMessageFormat.format(value);
         return mDialogMessage != null ? String.format(mDialogMessage, value)
                 : super.getDialogMessage();
     }
@@ -222,7 +580,37 @@ public class SeekBarDialog extends DialogPreference {
      * */
     @Override
     protected void onSetInitialValue(boolean restoreValue, Object defaultValue) {
-        setValue(restoreValue ? getPersistedInt(mValue) : (int) defaultValue);
+        mInitialValueSet = true;
+        if (mStorage != null) {
+            // The framework looks for the value in the SharedPreferences, not in the storage
+            restoreValue = shouldPersist() && mStorage.contains(getKey());
+            if (!restoreValue && defaultValue == null) return;
+        }
+        mRestoringValue = true;
+        try {
+            setValue(restoreValue ? getPersistedInt(mValue) : (int) defaultValue);
+        } finally {
+            mRestoringValue = false;
+        }
+    }
+
+    /**
+     * Called when this Preference has been attached to a Preference hierarchy. In this
+     * implementation, restores the value from the {@link #getStorage() storage}, if the framework
+     * did not set the initial value. Before that, waits for the preference file, if it is still
+     * loading by {@link PreferencePreloader}.
+     * */
+    @Override
+    protected void onAttachedToHierarchy(PreferenceManager preferenceManager) {
+        mInitialValueSet = false;
+        if (mStorage == null && isPersistent()) {
+            PreferencePreloader.await(preferenceManager, this);
+        }
+        super.onAttachedToHierarchy(preferenceManager);
+        if (mStorage != null && !mInitialValueSet && shouldPersist()
+                && mStorage.contains(getKey())) {
+            onSetInitialValue(true, null);
+        }
     }
 
     /**
@@ -237,7 +625,12 @@ public class SeekBarDialog extends DialogPreference {
          * */
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-            if (mDialogMessageView != null) mDialogMessageView.setText(getDialogMessage(progress));
+            if (mLivePreview) {
+                if (mLivePreviewController == null) mLivePreviewController = new LivePreview();
+                mLivePreviewController.onProgressChanged(progress);
+            } else {
+                updateDialogMessage(progress);
+            }
         }
 
         /** Notification that the user has started a touch gesture. */
@@ -248,7 +641,121 @@ public class SeekBarDialog extends DialogPreference {
          * Notification that the user has finished a touch gesture.
          */
         @Override
-        public void onStopTrackingTouch(SeekBar seekBar) { /* do nothing */ }
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            if (mLivePreview && mLivePreviewController != null) mLivePreviewController.flush();
+        }
+    }
+
+    /**
+     * Merges progress events to at most one UI update per display frame and pushes the preview
+     * value to the listeners at a capped rate.
+     * */
+    private class LivePreview implements Runnable {
+
+        /** The scheduler of UI updates. */
+        private final FrameScheduler mFrameScheduler = new FrameScheduler(this);
+
+        /** The handler that used for delayed preview notifications. */
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        /** The delayed preview notification. */
+        private final Runnable mDispatchTask = new Runnable() {
+            @Override
+            public void run() { dispatch(); }
+        };
+
+        /** The latest progress value. */
+        private int mProgress;
+
+        /** The last value that was pushed to the listeners. */
+        private int mDispatchedProgress;
+
+        /** True, if there is no value that was pushed to the listeners. */
+        private boolean mNothingDispatched = true;
+
+        /** The time of last preview notification, please see {@link SystemClock#uptimeMillis}. */
+        private long mDispatchTime = 0;
+
+        /** True, if the delayed preview notification is scheduled. */
+        private boolean mDispatchScheduled = false;
+
+        /**
+         * Called on each progress event.
+         * */
+        void onProgressChanged(int progress) {
+            mProgress = progress;
+            mFrameScheduler.schedule();
+        }
+
+        /**
+         * Called once per display frame.
+         * */
+        @Override
+        public void run() {
+            updateDialogMessage(mProgress);
+            final long next = mDispatchTime + mPreviewInterval;
+            if (SystemClock.uptimeMillis() >= next) {
+                dispatch();
+            } else if (!mDispatchScheduled) {
+                mDispatchScheduled = true;
+                mHandler.postAtTime(mDispatchTask, next);
+            }
+        }
+
+        /**
+         * Pushes the latest progress value to the listeners, if it was changed.
+         * */
+        private void dispatch() {
+            mDispatchScheduled = false;
+            if (!mNothingDispatched && mDispatchedProgress == mProgress) return;
+            mNothingDispatched = false;
+            mDispatchedProgress = mProgress;
+            mDispatchTime = SystemClock.uptimeMillis();
+            dispatchValuePreview(mProgress);
+        }
+
+        /**
+         * Applies the latest progress value right now, for example, when the user has finished a
+         * touch gesture.
+         * */
+        void flush() {
+            cancel();
+            updateDialogMessage(mProgress);
+            dispatch();
+        }
+
+        /**
+         * Removes all scheduled updates.
+         * */
+        void cancel() {
+            mFrameScheduler.cancel();
+            mHandler.removeCallbacks(mDispatchTask);
+            mDispatchScheduled = false;
+        }
+
+        /**
+         * Removes all scheduled updates and forgets the last pushed value, for example, when the
+         * dialog is closed.
+         * */
+        void reset() {
+            cancel();
+            mNothingDispatched = true;
+            mDispatchTime = 0;
+        }
+    }
+
+    /**
+     * Interface definition for a callback to be invoked when the value of {@link SeekBarDialog}
+     * is changed by the user during live preview.
+     * @see #setLivePreview(boolean)
+     * */
+    public interface OnValuePreviewListener {
+
+        /**
+         * Called when the preview value is changed. The value is not applied to the preference
+         * yet, it will be applied only if the user accepts the dialog.
+         * */
+        void onValuePreview(SeekBarDialog preference, int value);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.SharedPreferences;
+
+/**
+ * The {@link PreferenceStorage} that keeps values in the {@link SharedPreferences}. It can be used
+ * as a durable backend of {@link PrimitiveStore}. All changes are written by
+ * {@link SharedPreferences.Editor#apply()}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public class SharedPreferencesStorage extends PreferenceStorage {
+
+    /** The SharedPreferences of this storage. */
+    private final SharedPreferences mPreferences;
+
+    /**
+     * Creates a new storage for specified {@link SharedPreferences}.
+     * */
+    public SharedPreferencesStorage(SharedPreferences preferences) { mPreferences = preferences; }
+
+    /**
+     * Returns the {@link SharedPreferences} of this storage.
+     * */
+    public SharedPreferences getSharedPreferences() { return mPreferences; }
+
+    @Override
+    public boolean contains(String key) { return mPreferences.contains(key); }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        try {
+            return mPreferences.getInt(key, defValue);
+        } catch (ClassCastException e) {
+            return defValue; // The value has other type
+        }
+    }
+
+    @Override
+    public void putInt(String key, int value) { mPreferences.edit().putInt(key, value).apply(); }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        try {
+            return mPreferences.getLong(key, defValue);
+        } catch (ClassCastException e) {
+            return defValue; // The value has other type
+        }
+    }
+
+    @Override
+    public void putLong(String key, long value) {
+        mPreferences.edit().putLong(key, value).apply();
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        try {
+            return mPreferences.getBoolean(key, defValue);
+        } catch (ClassCastException e) {
+            return defValue; // The value has other type
+        }
+    }
+
+    @Override
+    public void putBoolean(String key, boolean value) {
+        mPreferences.edit().putBoolean(key, value).apply();
+    }
+
+    @Override
+    public void remove(String key) { mPreferences.edit().remove(key).apply(); }
+
+}
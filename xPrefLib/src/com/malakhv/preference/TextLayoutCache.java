@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.graphics.Typeface;
+import android.os.AsyncTask;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.view.Gravity;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The bounded cache of text layouts for long preference titles and summaries. A layout is keyed
+ * by the text, the width, the text appearance (the size, typeface, color and flags of the paint)
+ * and the gravity. Layouts can be computed in the background thread by
+ * {@link #precompute(CharSequence, int, TextPaint, int)}, so the main thread only takes them
+ * from the cache. The layouts are drawn directly by the flattened row view, please see
+ * {@link MultilinePreference#setFlatRow(boolean)}, and {@link RecyclerPreferenceFragment}
+ * precomputes them for the rows next to the bound one.
+ * <p>On platform versions that this library is built with, {@code PrecomputedText} is not
+ * available, so {@link StaticLayout} is used. Also, computing a layout in the background warms
+ * up the platform's text measurement cache, so a {@code TextView} with the same text measures it
+ * faster.</p>
+ * <p>Spanned text is not cached, because its spans can change without changing the text.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class TextLayoutCache {
+
+    /** The maximum number of cached layouts. */
+    public static final int MAX_SIZE = 64;
+
+    /** The number of evicted layouts. */
+    private static long sEvictions = 0;
+
+    /** The cached layouts, in access order. */
+    private static final LinkedHashMap<Key, Layout> sLayouts = new LinkedHashMap<Key, Layout>(
+            MAX_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest) {
+            if (size() <= MAX_SIZE) return false;
+            sEvictions++;
+            return true;
+        }
+    };
+
+    /** The layouts that are computing in the background. */
+    private static final Set<Key> sPending = new HashSet<Key>();
+
+    /** The number of cache hits. */
+    private static long sHits = 0;
+
+    /** The number of cache misses. */
+    private static long sMisses = 0;
+
+    private TextLayoutCache() {}
+
+    /**
+     * Returns the cached layout for specified text and appearance.
+     * @return The cached layout, or null if there is no such layout.
+     * */
+    public static Layout get(CharSequence text, int width, TextPaint paint, int gravity) {
+        if (!isCacheable(text, width)) return null;
+        synchronized (sLayouts) {
+            final Layout layout = sLayouts.get(new Key(text, width, paint, gravity));
+            if (layout != null) sHits++; else sMisses++;
+            return layout;
+        }
+    }
+
+    /**
+     * Returns the layout for specified text and appearance. The layout is computed in the
+     * current thread and cached, if it is not cached yet.
+     * */
+    public static Layout obtain(CharSequence text, int width, TextPaint paint, int gravity) {
+        final Layout cached = get(text, width, paint, gravity);
+        if (cached != null) return cached;
+        // The paint is copied, because the cached layout keeps it
+        final Layout layout = createLayout(text, Math.max(width, 0), new TextPaint(paint),
+                gravity);
+        if (isCacheable(text, width)) put(new Key(text, width, paint, gravity), layout);
+        return layout;
+    }
+
+    /**
+     * Computes the layout for specified text and appearance in the background thread, if it is
+     * not cached and not computing yet. The paint is copied, so it can be changed after this call.
+     * */
+    public static void precompute(CharSequence text, final int width, TextPaint paint,
+            final int gravity) {
+        if (!isCacheable(text, width)) return;
+        final Key key = new Key(text, width, paint, gravity);
+        synchronized (sLayouts) {
+            if (sLayouts.containsKey(key) || !sPending.add(key)) return;
+        }
+        final String source = text.toString();
+        final TextPaint copy = new TextPaint(paint);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(key, createLayout(source, width, copy, gravity));
+                } finally {
+                    synchronized (sLayouts) { sPending.remove(key); }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of cached layouts.
+     * */
+    public static int size() {
+        synchronized (sLayouts) { return sLayouts.size(); }
+    }
+
+    /**
+     * Returns the number of cache hits, since last reset.
+     * */
+    public static long getHitCount() {
+        synchronized (sLayouts) { return sHits; }
+    }
+
+    /**
+     * Returns the number of cache misses, since last reset.
+     * */
+    public static long getMissCount() {
+        synchronized (sLayouts) { return sMisses; }
+    }
+
+    /**
+     * Returns the number of evicted layouts, since last reset.
+     * */
+    public static long getEvictionCount() {
+        synchronized (sLayouts) { return sEvictions; }
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     * */
+    public static void resetCounters() {
+        synchronized (sLayouts) {
+            sHits = 0;
+            sMisses = 0;
+            sEvictions = 0;
+        }
+    }
+
+    /**
+     * Removes all cached layouts.
+     * */
+    public static void clear() {
+        synchronized (sLayouts) { sLayouts.clear(); }
+    }
+
+    /**
+     * Puts the layout into the cache.
+     * */
+    private static void put(Key key, Layout layout) {
+        synchronized (sLayouts) { sLayouts.put(key, layout); }
+    }
+
+    /**
+     * Returns true, if the layout for specified text can be cached.
+     * */
+    private static boolean isCacheable(CharSequence text, int width) {
+        return text != null && text.length() > 0 && width > 0 && !(text instanceof Spanned);
+    }
+
+    /**
+     * Creates the layout with the same spacing that {@code TextView} uses by default.
+     * */
+    private static Layout createLayout(CharSequence text, int width, TextPaint paint,
+            int gravity) {
+        if (text == null) text = "";
+        return new StaticLayout(text, paint, width, toAlignment(gravity, isRtl(text)), 1.0f, 0.0f,
+                true);
+    }
+
+    /**
+     * Returns the text alignment for specified gravity. The alignment of {@link Layout} is relative
+     * to the paragraph direction, so the absolute {@link Gravity#LEFT} and {@link Gravity#RIGHT}
+     * are mapped through it, the same way {@code TextView} does.
+     * @param rtl True, if the paragraph direction is right to left.
+     * */
+    static Layout.Alignment toAlignment(int gravity, boolean rtl) { // package access
+        switch (gravity & Gravity.RELATIVE_HORIZONTAL_GRAVITY_MASK) {
+            case Gravity.CENTER_HORIZONTAL: return Layout.Alignment.ALIGN_CENTER;
+            case Gravity.END: return Layout.Alignment.ALIGN_OPPOSITE;
+            case Gravity.LEFT:
+                return rtl ? Layout.Alignment.ALIGN_OPPOSITE : Layout.Alignment.ALIGN_NORMAL;
+            case Gravity.RIGHT:
+                return rtl ? Layout.Alignment.ALIGN_NORMAL : Layout.Alignment.ALIGN_OPPOSITE;
+            default: return Layout.Alignment.ALIGN_NORMAL;
+        }
+    }
+
+    /**
+     * Returns true, if the paragraph direction of specified text is right to left. The direction
+     * is resolved by the first strong character, as {@link StaticLayout} does by default.
+     * */
+    static boolean isRtl(CharSequence text) { // package access
+        for (int i = 0, length = text.length(); i < length; i++) {
+            switch (Character.getDirectionality(text.charAt(i))) {
+                case Character.DIRECTIONALITY_LEFT_TO_RIGHT: return false;
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT:
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC: return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The key of cached layout.
+     * */
+    private static final class Key {
+
+        private final String mText;
+        private final int mWidth;
+        private final float mTextSize;
+        private final float mTextScaleX;
+        private final float mTextSkewX;
+        private final Typeface mTypeface;
+        private final int mColor;
+        private final int mFlags;
+        private final int mGravity;
+        private final int mHash;
+
+        Key(CharSequence text, int width, TextPaint paint, int gravity) {
+            mText = text.toString();
+            mWidth = width;
+            mTextSize = paint.getTextSize();
+            mTextScaleX = paint.getTextScaleX();
+            mTextSkewX = paint.getTextSkewX();
+            mTypeface = paint.getTypeface();
+            mColor = paint.getColor();
+            mFlags = paint.getFlags();
+            mGravity = gravity;
+            int hash = mText.hashCode();
+            hash = 31 * hash + mWidth;
+            hash = 31 * hash + Float.floatToIntBits(mTextSize);
+            hash = 31 * hash + (mTypeface != null ? mTypeface.hashCode() : 0);
+            hash = 31 * hash + mColor;
+            hash = 31 * hash + mGravity;
+            mHash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key key = (Key) o;
+            return mHash == key.mHash && mWidth == key.mWidth && mTextSize == key.mTextSize
+                    && mTextScaleX == key.mTextScaleX && mTextSkewX == key.mTextSkewX
+                    && mColor == key.mColor && mFlags == key.mFlags && mGravity == key.mGravity
+                    && (mTypeface == null ? key.mTypeface == null
+                            : mTypeface.equals(key.mTypeface))
+                    && mText.equals(key.mText);
+        }
+
+        @Override
+        public int hashCode() { return mHash; }
+    }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.Preference;
+import android.preference.PreferenceManager;
+import android.preference.TwoStatePreference;
+
+/**
+ * The {@link PreferenceDelegate} of library's two state preferences, {@link MultilineCheckBox}
+ * and {@link MultilineSwitch}. In addition to the change handling, it keeps the checked state in
+ * the {@link PreferenceStorage}, if the preference has one, defers the writes to the open
+ * {@link PreferenceTransaction}, waits for the {@link PreferencePreloader} and publishes the
+ * changes of the checked state to the {@link PreferenceValueStream}.
+ * <p>The preference forwards its {@code setChecked}, {@code persistBoolean},
+ * {@code getPersistedBoolean}, {@code onSetInitialValue} and {@code onAttachedToHierarchy} to
+ * this delegate, the delegate calls the framework's implementation back through the methods with
+ * {@code on} prefix.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+abstract class TwoStateDelegate extends PreferenceDelegate { // package access
+
+    /** The storage of the preference's value, or null to use the SharedPreferences. */
+    private PreferenceStorage mStorage = PreferenceStorage.getDefault();
+
+    /** True, if the initial value was set while attaching to the hierarchy. */
+    private boolean mInitialValueSet = false;
+
+    /** True, while the initial value is being set, it's not published as a change. */
+    private boolean mRestoringValue = false;
+
+    TwoStateDelegate(TwoStatePreference preference) { super(preference); }
+
+    /**
+     * Calls the framework's {@code setChecked} of the preference.
+     * */
+    abstract void onSetChecked(boolean checked);
+
+    /**
+     * Calls the framework's {@code persistBoolean} of the preference.
+     * */
+    abstract boolean onPersistBoolean(boolean value);
+
+    /**
+     * Calls the framework's {@code getPersistedBoolean} of the preference.
+     * */
+    abstract boolean onGetPersistedBoolean(boolean defaultReturnValue);
+
+    /**
+     * Calls the framework's {@code onSetInitialValue} of the preference.
+     * */
+    abstract void onSetInitialValue(boolean restoreValue, Object defaultValue);
+
+    /**
+     * Calls the framework's {@code onAttachedToHierarchy} of the preference.
+     * */
+    abstract void onAttachedToHierarchy(PreferenceManager preferenceManager);
+
+    /**
+     * Sets the checked state of the preference, the new state is published to the
+     * {@link PreferenceValueStream}, if it's not restored.
+     * */
+    final void setChecked(boolean checked) {
+        final TwoStatePreference preference = (TwoStatePreference) getPreference();
+        final boolean changed = preference.isChecked() != checked;
+        onSetChecked(checked);
+        if (changed && !mRestoringValue) {
+            PreferenceValueStream.publish(preference.getKey(), checked);
+        }
+    }
+
+    /**
+     * Sets whether the value, that is set now, is restored from elsewhere, so it's not published
+     * to the {@link PreferenceValueStream} as a change.
+     * */
+    final void setRestoringValue(boolean restoring) { mRestoringValue = restoring; }
+
+    /**
+     * Sets the storage of the preference's value, or null to use the SharedPreferences.
+     * */
+    final void setStorage(PreferenceStorage storage) { mStorage = storage; }
+
+    /**
+     * Returns the storage of the preference's value, or null.
+     * */
+    final PreferenceStorage getStorage() { return mStorage; }
+
+    /**
+     * Persists the boolean to the storage, or to the SharedPreferences. If there is the open
+     * {@link PreferenceTransaction}, the value is written to the SharedPreferences when it's
+     * applied.
+     * */
+    final boolean persistBoolean(boolean value) {
+        final Preference preference = getPreference();
+        if (mStorage == null) {
+            if (shouldPersist() && PreferenceTransaction.deferPersist(
+                    preference.getSharedPreferences(), preference.getKey(), value)) {
+                return true;
+            }
+            return onPersistBoolean(value);
+        }
+        if (!shouldPersist()) return false;
+        mStorage.putBoolean(preference.getKey(), value);
+        return true;
+    }
+
+    /**
+     * Returns the persisted boolean from the storage, or from the SharedPreferences. In the open
+     * {@link PreferenceTransaction}, the pending value is returned, if it exists.
+     * */
+    final boolean getPersistedBoolean(boolean defaultReturnValue) {
+        final Preference preference = getPreference();
+        if (mStorage == null) {
+            final Object pending = shouldPersist() ? PreferenceTransaction.getPending(
+                    preference.getSharedPreferences(), preference.getKey()) : null;
+            if (pending instanceof Boolean) return (Boolean) pending;
+            return onGetPersistedBoolean(defaultReturnValue);
+        }
+        return shouldPersist() ? mStorage.getBoolean(preference.getKey(), defaultReturnValue)
+                : defaultReturnValue;
+    }
+
+    /**
+     * Sets the initial value of the preference, the value is looked for in the storage, if it
+     * exists. The initial value is not published as a change.
+     * */
+    final void setInitialValue(boolean restoreValue, Object defaultValue) {
+        mInitialValueSet = true;
+        if (mStorage != null) {
+            // The framework looks for the value in the SharedPreferences, not in the storage
+            restoreValue = shouldPersist() && mStorage.contains(getPreference().getKey());
+            if (!restoreValue && defaultValue == null) return;
+        }
+        mRestoringValue = true;
+        try {
+            onSetInitialValue(restoreValue, defaultValue);
+        } finally {
+            mRestoringValue = false;
+        }
+    }
+
+    /**
+     * Attaches the preference to the hierarchy. Before that, waits for the preference file, if
+     * it is still loading by {@link PreferencePreloader}.
+     * @return True, if the framework did not set the initial value, but the storage has it, so
+     * the preference should restore it.
+     * */
+    final boolean attachToHierarchy(PreferenceManager preferenceManager) {
+        final Preference preference = getPreference();
+        mInitialValueSet = false;
+        if (mStorage == null && preference.isPersistent()) {
+            PreferencePreloader.await(preferenceManager, preference);
+        }
+        onAttachedToHierarchy(preferenceManager);
+        return mStorage != null && !mInitialValueSet && shouldPersist()
+                && mStorage.contains(preference.getKey());
+    }
+
+    /**
+     * Returns true, if the preference should persist its value, the same as the framework's
+     * {@code shouldPersist}, that is not accessible here.
+     * */
+    private boolean shouldPersist() {
+        final Preference preference = getPreference();
+        return preference.getPreferenceManager() != null && preference.isPersistent()
+                && preference.hasKey();
+    }
+
+}
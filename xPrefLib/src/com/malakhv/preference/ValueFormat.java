@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The compiled {@link String#format String formatting} template with one int argument. The
+ * template is parsed once and can be rendered many times into the reused buffer without any
+ * allocations. Only simple templates are supported: "%s", "%d", "%1$s", "%1$d", "%%" and "%n"
+ * markers; for other templates {@link #compile(String)} returns null, so the caller should fall
+ * back to {@link String#format}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+final class ValueFormat { // package access
+
+    /** The max number of chars in the int value, including sign. */
+    private static final int MAX_INT_CHARS = 11;
+
+    /** The literal parts of the template, the value is placed between them. */
+    private final char[][] mParts;
+
+    /** The buffer that contains the last rendered text. */
+    private final char[] mBuffer;
+
+    /** The buffer of {@link #format(int)}, so it doesn't change the rendered text. */
+    private final char[] mFormatBuffer;
+
+    /** The temporary buffer for digits of the value. */
+    private final char[] mDigits = new char[MAX_INT_CHARS];
+
+    /**
+     * Creates a new compiled template with specified literal parts.
+     * */
+    private ValueFormat(char[][] parts) {
+        mParts = parts;
+        int length = MAX_INT_CHARS * (parts.length - 1);
+        for (char[] part: parts) length += part.length;
+        mBuffer = new char[length];
+        mFormatBuffer = new char[length];
+    }
+
+    /**
+     * Compiles specified template.
+     * @return The compiled template, or null if the template is not supported.
+     * */
+    static ValueFormat compile(String template) {
+        if (template == null) return null;
+        final List<char[]> parts = new ArrayList<char[]>();
+        final StringBuilder part = new StringBuilder();
+        final int length = template.length();
+        int i = 0;
+        while (i < length) {
+            final char c = template.charAt(i++);
+            if (c != '%') { part.append(c); continue; }
+            if (i >= length) return null;
+            char conversion = template.charAt(i++);
+            if (conversion == '1') { // Only "1$" argument index is supported
+                if (i + 1 >= length || template.charAt(i) != '$') return null;
+                conversion = template.charAt(i + 1);
+                if (conversion != 's' && conversion != 'd') return null;
+                i += 2;
+            }
+            switch (conversion) {
+                case '%': part.append('%'); break;
+                case 'n': part.append(System.getProperty("line.separator")); break;
+                case 'd':
+                    // The "%d" uses locale specific digits
+                    if (!hasAsciiDigits()) return null;
+                    // fall through
+                case 's':
+                    parts.add(toChars(part));
+                    part.setLength(0);
+                    break;
+                default: return null;
+            }
+        }
+        parts.add(toChars(part));
+        return new ValueFormat(parts.toArray(new char[parts.size()][]));
+    }
+
+    /**
+     * Renders the template with specified value into the internal buffer.
+     * @return The length of rendered text.
+     * @see #getBuffer()
+     * */
+    int render(int value) { return render(value, mBuffer); }
+
+    /**
+     * Renders the template with specified value into specified buffer.
+     * @return The length of rendered text.
+     * */
+    private int render(int value, char[] buffer) {
+        // Convert the value to digits, from the end
+        int start = MAX_INT_CHARS;
+        long v = value < 0 ? -(long) value : value;
+        do {
+            mDigits[--start] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (value < 0) mDigits[--start] = '-';
+
+        // Build text
+        int length = 0;
+        for (int i = 0; i < mParts.length; i++) {
+            final char[] part = mParts[i];
+            System.arraycopy(part, 0, buffer, length, part.length);
+            length += part.length;
+            if (i < mParts.length - 1) {
+                System.arraycopy(mDigits, start, buffer, length, MAX_INT_CHARS - start);
+                length += MAX_INT_CHARS - start;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns the buffer that contains the last rendered text. The buffer is reused, so its
+     * content will be changed on next {@link #render(int)} call, but not by
+     * {@link #format(int)}. So, the buffer can be shown by the view, that doesn't copy it.
+     * */
+    char[] getBuffer() { return mBuffer; }
+
+    /**
+     * Renders the template with specified value into the new String. The text in
+     * {@link #getBuffer()} is not changed.
+     * */
+    String format(int value) {
+        return new String(mFormatBuffer, 0, render(value, mFormatBuffer));
+    }
+
+    /**
+     * Returns true, if the default locale uses ASCII digits.
+     * */
+    private static boolean hasAsciiDigits() {
+        return DecimalFormatSymbols.getInstance(Locale.getDefault()).getZeroDigit() == '0';
+    }
+
+    /**
+     * Returns the content of specified {@link StringBuilder} as a char array.
+     * */
+    private static char[] toChars(StringBuilder builder) {
+        final char[] chars = new char[builder.length()];
+        builder.getChars(0, chars.length, chars, 0);
+        return chars;
+    }
+
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Simple benchmark runner for the JVM, the benchmarks of xPrefLib and TestApp share it. Each
+ * operation is measured after warm up, as the time of one call in the fastest run, the slower runs
+ * were interrupted by the GC or by other threads. The tracked metric is that time relative to the
+ * time of the calibration operation, whose runs alternate with the operation's runs on the same
+ * JVM, so the metrics of a slower or busy host are close to the baseline ones. Also, it counts the bytes
+ * that one operation allocates.
+ * <p>If the {@code benchmark.results} system property is set, the results are written in JSON
+ * format to the file with the benchmark's name in that directory, please see
+ * {@code xPrefLib/benchmark.gradle}.</p>
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@SuppressWarnings("unused")
+public final class Benchmark {
+
+    /** The system property with the directory for results. */
+    public static final String RESULTS_PROPERTY = "benchmark.results";
+
+    /** The minimal number of warm up runs for each metric. */
+    private static final int WARM_UP = 20;
+
+    /** The minimal time of warm up for each metric, it lets the JIT compile the operation. */
+    private static final long WARM_UP_NS = 1000000000L;
+
+    /** The number of measured runs for each metric. */
+    private static final int RUNS = 15;
+
+    /** The number of runs, that count the allocations of each operation. */
+    private static final int ALLOCATION_RUNS = 5;
+
+    /** The number of calls of the calibration operation in one run. */
+    private static final int CALIBRATION_CALLS = 10000;
+
+    /** The number of keys in the calibration operation. */
+    private static final int CALIBRATION_KEYS = 64;
+
+    /** The name of this benchmark, it's the name of results file. */
+    private final String mName;
+
+    /** The calibration operation. */
+    private final Calibration mCalibration = new Calibration();
+
+    /** The metrics, by name. */
+    private final Map<String, Double> mResults = new TreeMap<String, Double>();
+
+    /** The time of each operation, in nanoseconds, by metric name. */
+    private final Map<String, Double> mTimes = new TreeMap<String, Double>();
+
+    /** The number of allocated bytes per operation, by operation name. */
+    private final Map<String, Double> mAllocations = new TreeMap<String, Double>();
+
+    /**
+     * Creates the benchmark with specified name, the name of its results file.
+     * */
+    public Benchmark(String name) { mName = name; }
+
+    /**
+     * Measures specified operation, the metric is its time relative to the calibration one.
+     * @param iterations The number of operation calls in one run.
+     * */
+    public void measure(String name, int iterations, Runnable operation) {
+        warmUp(CALIBRATION_CALLS, mCalibration);
+        warmUp(iterations, operation);
+        // The runs of both operations alternate, so they see the same state of the host
+        long calibration = Long.MAX_VALUE;
+        long time = Long.MAX_VALUE;
+        for (int r = 0; r < RUNS; r++) {
+            calibration = Math.min(calibration, run(CALIBRATION_CALLS, mCalibration));
+            time = Math.min(time, run(iterations, operation));
+        }
+        final double operationTime = (double) time / iterations;
+        mTimes.put(name, operationTime);
+        mResults.put(name, operationTime / ((double) calibration / CALIBRATION_CALLS));
+    }
+
+    /**
+     * Counts the bytes that specified operation allocates in the current thread, after warm up.
+     * The count is the least one of several runs, the other runs may include the allocations of
+     * the JVM itself, such as the class loading. Does nothing, if the JVM can't count allocated
+     * bytes.
+     * @param iterations The number of operation calls in one run.
+     * */
+    public void countAllocations(String name, int iterations, Runnable operation) {
+        final com.sun.management.ThreadMXBean threads = getThreads();
+        if (threads == null) return;
+        for (int r = 0; r < WARM_UP; r++) {
+            for (int i = 0; i < iterations; i++) operation.run();
+        }
+        final long thread = Thread.currentThread().getId();
+        long min = Long.MAX_VALUE;
+        for (int r = 0; r < ALLOCATION_RUNS; r++) {
+            // The counter itself allocates, that's subtracted
+            long start = threads.getThreadAllocatedBytes(thread);
+            final long overhead = threads.getThreadAllocatedBytes(thread) - start;
+            start = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < iterations; i++) operation.run();
+            min = Math.min(min, threads.getThreadAllocatedBytes(thread) - start - overhead);
+        }
+        mAllocations.put(name, (double) Math.max(min, 0) / iterations);
+    }
+
+    /**
+     * Puts the metric that is not a time, such as the size of heap.
+     * */
+    public void put(String name, double value) { mResults.put(name, value); }
+
+    /**
+     * Returns the metric with specified name, or null.
+     * */
+    public Double get(String name) { return mResults.get(name); }
+
+    /**
+     * Writes the results to the directory from {@link #RESULTS_PROPERTY} system property, if it
+     * is set.
+     * */
+    public void write() throws IOException {
+        final String dir = System.getProperty(RESULTS_PROPERTY);
+        if (dir != null) write(new File(dir, mName + ".json"));
+    }
+
+    /**
+     * Writes the results in JSON format to specified file.
+     * */
+    public void write(File file) throws IOException {
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(toJson().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the results in JSON format, with the JVM that produced them.
+     * */
+    public String toJson() {
+        final Map<String, String> environment = new TreeMap<String, String>();
+        environment.put("java.specification.version",
+                System.getProperty("java.specification.version"));
+        environment.put("java.vm.name", System.getProperty("java.vm.name"));
+        environment.put("java.vm.version", System.getProperty("java.vm.version"));
+        environment.put("os.name", System.getProperty("os.name"));
+        environment.put("os.arch", System.getProperty("os.arch"));
+        environment.put("processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        return "{\n  \"environment\": " + toJson(environment) + ",\n  \"metrics\": "
+                + toJson(mResults) + ",\n  \"times_ns\": " + toJson(mTimes)
+                + ",\n  \"allocations\": " + toJson(mAllocations) + "\n}\n";
+    }
+
+    /**
+     * Runs specified operation until the JIT has compiled it, at least {@link #WARM_UP} runs.
+     * @param iterations The number of operation calls in one run.
+     * */
+    private static void warmUp(int iterations, Runnable operation) {
+        final long end = System.nanoTime() + WARM_UP_NS;
+        for (int r = 0; r < WARM_UP || System.nanoTime() < end; r++) run(iterations, operation);
+    }
+
+    /**
+     * Returns the time of one run of specified operation, in nanoseconds.
+     * @param iterations The number of operation calls in one run.
+     * */
+    private static long run(int iterations, Runnable operation) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) operation.run();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Returns specified values as JSON object.
+     * */
+    private static String toJson(Map<String, ?> values) {
+        final StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, ?> entry: values.entrySet()) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append("\n    \"").append(entry.getKey()).append("\": ");
+            final Object value = entry.getValue();
+            if (value instanceof Number) {
+                sb.append(value);
+            } else {
+                sb.append('"').append(String.valueOf(value).replace("\\", "\\\\")
+                        .replace("\"", "\\\"")).append('"');
+            }
+        }
+        return sb.append(values.isEmpty() ? "}" : "\n  }").toString();
+    }
+
+    /**
+     * Returns the thread bean that counts allocated bytes, or null if the JVM doesn't support it.
+     * */
+    private static com.sun.management.ThreadMXBean getThreads() {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+        final com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        if (!counter.isThreadAllocatedMemorySupported()) return null;
+        if (!counter.isThreadAllocatedMemoryEnabled()) {
+            counter.setThreadAllocatedMemoryEnabled(true);
+        }
+        return counter;
+    }
+
+    /**
+     * The calibration operation, the lookup of the string key and the formatting of the int
+     * value, as the preferences do.
+     * */
+    private static final class Calibration implements Runnable {
+
+        private final Map<String, Integer> mValues = new HashMap<String, Integer>();
+        private final String[] mKeys = new String[CALIBRATION_KEYS];
+        private final StringBuilder mBuilder = new StringBuilder();
+        private int mIndex = 0;
+
+        /** The result, it's kept, so the JIT can't drop the operation. */
+        int mResult = 0;
+
+        Calibration() {
+            for (int i = 0; i < CALIBRATION_KEYS; i++) {
+                mKeys[i] = "calibration_key_" + i;
+                mValues.put(mKeys[i], i);
+            }
+        }
+
+        @Override
+        public void run() {
+            final Integer value = mValues.get(mKeys[mIndex++ % CALIBRATION_KEYS]);
+            mBuilder.setLength(0);
+            mBuilder.append("The value is ").append(value.intValue()).append(" %");
+            mResult += mBuilder.length();
+        }
+    }
+
+}
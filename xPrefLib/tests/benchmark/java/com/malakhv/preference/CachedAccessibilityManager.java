@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.view.accessibility.AccessibilityManager;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowAccessibilityManager;
+
+/**
+ * The shadow of {@link AccessibilityManager}, that creates it once for the application. The
+ * shadow of Robolectric creates the new one, with the new system service, on each call, and views
+ * call it on almost every change. So, without this shadow, the benchmarks of views measure
+ * Robolectric, and they are slower and slower while they run.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@Implements(AccessibilityManager.class)
+public class CachedAccessibilityManager extends ShadowAccessibilityManager {
+
+    /** The application, that the manager was created for. */
+    private static Context sApplication = null;
+
+    /** The manager of that application. */
+    private static AccessibilityManager sInstance = null;
+
+    @Implementation
+    public static AccessibilityManager getInstance(Context context) throws Exception {
+        final Context application = context.getApplicationContext();
+        if (sInstance == null || sApplication != application) {
+            sInstance = ShadowAccessibilityManager.getInstance(context);
+            sApplication = application;
+        }
+        return sInstance;
+    }
+
+}
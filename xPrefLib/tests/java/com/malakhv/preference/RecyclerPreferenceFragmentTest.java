@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.app.FragmentManager;
+import android.preference.PreferenceScreen;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.UiThreadTest;
+import android.util.DisplayMetrics;
+import android.view.View;
+
+/**
+ * The tests of rows that {@link RecyclerPreferenceFragment} binds again on changes, they run on
+ * a device.
+ * */
+public class RecyclerPreferenceFragmentTest extends ActivityInstrumentationTestCase2<TestActivity> {
+
+    /** The number of rows around the changed one. */
+    private static final int ROWS = 20;
+
+    /** The number of changes. */
+    private static final int CHANGES = 10;
+
+    /** The fragment under test. */
+    private RecyclerPreferenceFragment mHost;
+
+    public RecyclerPreferenceFragmentTest() { super(TestActivity.class); }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The activity is launched here, not in the main thread
+        getActivity();
+    }
+
+    @UiThreadTest
+    public void testSetValueBindsOnlySummary() {
+        final SeekBarDialog seekBar = showSeekBar();
+        for (int i = 1; i <= CHANGES; i++) {
+            seekBar.setValue(i);
+            layout(mHost.getRecyclerView());
+            assertEquals(i, mHost.getPartialBindCount());
+            assertEquals(0, mHost.getBindCount());
+        }
+    }
+
+    @UiThreadTest
+    public void testSetEnabledBindsRow() {
+        final SeekBarDialog seekBar = showSeekBar();
+        seekBar.setEnabled(false);
+        layout(mHost.getRecyclerView());
+        assertEquals(0, mHost.getPartialBindCount());
+        assertEquals(1, mHost.getBindCount());
+    }
+
+    /**
+     * Shows the list with the seek bar among other rows, and resets the numbers of bound rows.
+     * */
+    private SeekBarDialog showSeekBar() {
+        final TestActivity activity = getActivity();
+        final FragmentManager manager = activity.getFragmentManager();
+        mHost = new RecyclerPreferenceFragment();
+        manager.beginTransaction().add(android.R.id.content, mHost).commit();
+        manager.executePendingTransactions();
+
+        final PreferenceScreen screen = mHost.getPreferenceManager().createPreferenceScreen(
+                activity);
+        final SeekBarDialog seekBar = new SeekBarDialog(activity);
+        for (int i = 0; i < ROWS; i++) {
+            final MultilinePreference preference = new MultilinePreference(activity);
+            preference.setKey("row_" + i);
+            preference.setTitle("Row " + i);
+            preference.setPersistent(false);
+            screen.addPreference(preference);
+            if (i == 1) {
+                seekBar.setKey("seek_bar");
+                seekBar.setTitle("Seek bar");
+                seekBar.setSummary("The value is %s");
+                seekBar.setPersistent(false);
+                screen.addPreference(seekBar);
+            }
+        }
+        mHost.setPreferenceScreen(screen);
+        layout(mHost.getRecyclerView());
+        mHost.resetBindCounts();
+        return seekBar;
+    }
+
+    /**
+     * Measures and lays out the list with the size of display, it binds the changed rows, as
+     * the next frame does.
+     * */
+    private static void layout(RecyclerView list) {
+        final DisplayMetrics metrics = list.getResources().getDisplayMetrics();
+        list.measure(View.MeasureSpec.makeMeasureSpec(metrics.widthPixels,
+                View.MeasureSpec.EXACTLY), View.MeasureSpec.makeMeasureSpec(
+                metrics.heightPixels, View.MeasureSpec.EXACTLY));
+        list.layout(0, 0, list.getMeasuredWidth(), list.getMeasuredHeight());
+    }
+
+}
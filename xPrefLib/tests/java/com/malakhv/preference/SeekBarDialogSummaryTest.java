@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.test.AndroidTestCase;
+
+/**
+ * The tests of the cached summary rendering of {@link SeekBarDialog}, they run on a device.
+ * */
+public class SeekBarDialogSummaryTest extends AndroidTestCase {
+
+    /** The preference under test. */
+    private SeekBarDialog mPreference;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPreference = new SeekBarDialog(getContext());
+        mPreference.setPersistent(false);
+    }
+
+    public void testSummaryIsCachedUntilChanged() {
+        mPreference.setSummary("The value is %s");
+        mPreference.setValue(10);
+        final CharSequence summary = mPreference.getSummary();
+        assertEquals("The value is 10", summary.toString());
+        assertSame(summary, mPreference.getSummary());
+    }
+
+    public void testSetValueInvalidatesSummary() {
+        mPreference.setSummary("The value is %1$s");
+        mPreference.setValue(10);
+        assertEquals("The value is 10", mPreference.getSummary().toString());
+        mPreference.setValue(20);
+        assertEquals("The value is 20", mPreference.getSummary().toString());
+    }
+
+    public void testSetSummaryInvalidatesSummary() {
+        mPreference.setValue(30);
+        mPreference.setSummary("First %s");
+        assertEquals("First 30", mPreference.getSummary().toString());
+        mPreference.setSummary("Second %s");
+        assertEquals("Second 30", mPreference.getSummary().toString());
+    }
+
+    public void testPercentAndNewLine() {
+        mPreference.setValue(40);
+        mPreference.setSummary("%s %%%nnext");
+        assertEquals(String.format("%s %%%nnext", 40), mPreference.getSummary().toString());
+    }
+
+    public void testUnsupportedTemplate() {
+        mPreference.setValue(5);
+        mPreference.setSummary("%03d");
+        assertEquals("005", mPreference.getSummary().toString());
+    }
+
+    public void testNullSummary() {
+        mPreference.setSummary("The value is %s");
+        mPreference.setValue(50);
+        assertNotNull(mPreference.getSummary());
+        mPreference.setSummary(null);
+        assertNull(mPreference.getSummary());
+        mPreference.setValue(60);
+        assertNull(mPreference.getSummary());
+    }
+
+}
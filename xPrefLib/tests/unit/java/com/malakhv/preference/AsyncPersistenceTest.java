@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.Preference;
+import android.preference.PreferenceScreen;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of {@link AsyncPersistence}, they run on the JVM, with Robolectric.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class AsyncPersistenceTest {
+
+    /** The timeout of waiting for the pending writes, in seconds. */
+    private static final long TIMEOUT = 10;
+
+    /** The number of batched writes. */
+    private final AtomicInteger mBatches = new AtomicInteger();
+
+    /** The first preferences file. */
+    private SharedPreferences mFirst;
+
+    /** The second preferences file. */
+    private SharedPreferences mSecond;
+
+    @Before
+    public void setUp() {
+        mFirst = RuntimeEnvironment.application.getSharedPreferences("first",
+                Context.MODE_PRIVATE);
+        mSecond = RuntimeEnvironment.application.getSharedPreferences("second",
+                Context.MODE_PRIVATE);
+        PreferenceTracing.setMetrics(new PreferenceMetrics() {
+            @Override
+            public void onEvent(String event, Preference preference, long duration) {
+                if (PreferenceMetrics.EVENT_PERSIST_BATCH.equals(event)) {
+                    mBatches.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        AsyncPersistence.await(TIMEOUT, TimeUnit.SECONDS);
+        PreferenceTracing.setMetrics(null);
+        mFirst.edit().clear().commit();
+        mSecond.edit().clear().commit();
+    }
+
+    @Test
+    public void mergesWritesToOneBatch() throws InterruptedException {
+        AsyncPersistence.putInt(mFirst, "key", 1);
+        AsyncPersistence.putInt(mFirst, "key", 2);
+        AsyncPersistence.putInt(mFirst, "other", 3);
+        AsyncPersistence.putInt(mFirst, "key", 4);
+        assertTrue(AsyncPersistence.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(1, mBatches.get());
+        assertEquals(4, mFirst.getInt("key", 0));
+        assertEquals(3, mFirst.getInt("other", 0));
+    }
+
+    @Test
+    public void writesOneBatchPerFile() throws InterruptedException {
+        AsyncPersistence.putInt(mFirst, "key", 1);
+        AsyncPersistence.putInt(mSecond, "key", 2);
+        AsyncPersistence.putInt(mFirst, "key", 3);
+        assertTrue(AsyncPersistence.await(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(2, mBatches.get());
+        assertEquals(3, mFirst.getInt("key", 0));
+        assertEquals(2, mSecond.getInt("key", 0));
+    }
+
+    @Test
+    public void readsSeePendingValue() {
+        mFirst.edit().putInt("key", 1).commit();
+        AsyncPersistence.putInt(mFirst, "key", 2);
+        assertEquals(2, AsyncPersistence.getInt(mFirst, "key", 0));
+        assertEquals(0, AsyncPersistence.getInt(mSecond, "key", 0));
+        assertEquals(1, AsyncPersistence.getInt(mFirst, "other", 1));
+    }
+
+    @Test
+    public void preferenceSeesPendingValue() throws InterruptedException {
+        final PreferenceScreen screen = PreferenceHost.create().getPreferenceScreen();
+        final SeekBarDialog preference = new SeekBarDialog(screen.getContext());
+        preference.setKey("seek_bar");
+        preference.setAsyncPersistence(true);
+        screen.addPreference(preference);
+        final SharedPreferences prefs = preference.getSharedPreferences();
+        try {
+            preference.setValue(42);
+            assertTrue(AsyncPersistence.hasPendingWrites());
+            assertEquals(42, preference.getPersistedInt(0));
+            assertTrue(AsyncPersistence.await(TIMEOUT, TimeUnit.SECONDS));
+            assertEquals(42, prefs.getInt("seek_bar", 0));
+            assertEquals(42, preference.getPersistedInt(0));
+        } finally {
+            prefs.edit().remove("seek_bar").commit();
+        }
+    }
+
+    @Test
+    public void awaitWritesPendingValues() throws InterruptedException {
+        AsyncPersistence.putInt(mFirst, "key", 42);
+        assertTrue(AsyncPersistence.hasPendingWrites());
+        assertTrue(AsyncPersistence.await(TIMEOUT, TimeUnit.SECONDS));
+        assertFalse(AsyncPersistence.hasPendingWrites());
+        assertEquals(42, mFirst.getInt("key", 0));
+        assertEquals(42, AsyncPersistence.getInt(mFirst, "key", 0));
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.Preference;
+import android.preference.PreferenceScreen;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The benchmark of {@link DependencyGraph} of a long chain, each preference depends on previous
+ * one: the build of the graph, its cycle check, and the toggling of the chain's root, through the
+ * framework and through the attached graph. It runs on the JVM, with Robolectric, please see
+ * {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class DependencyGraphBenchmarkTest {
+
+    /** The number of preferences in the chain. */
+    private static final int CHAIN_SIZE = 1000;
+
+    @Test
+    public void measureGraph() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        final PreferenceScreen chain = PreferenceHost.create().getPreferenceScreen();
+        for (int i = 0; i < CHAIN_SIZE; i++) {
+            final Preference node = new Preference(chain.getContext());
+            node.setKey("chain_" + i);
+            node.setPersistent(false);
+            chain.addPreference(node);
+            // The dependency should be in the hierarchy already
+            if (i > 0) node.setDependency("chain_" + (i - 1));
+        }
+        benchmark.measure("dependency_graph_build_1k", 1, new Runnable() {
+            @Override
+            public void run() { DependencyGraph.build(chain); }
+        });
+        final DependencyGraph graph = DependencyGraph.build(chain);
+        benchmark.measure("dependency_graph_cycle_check_1k", 1, new Runnable() {
+            @Override
+            public void run() { graph.findCycle(); }
+        });
+        assertEquals(CHAIN_SIZE - 1, graph.getDepth(chain.getPreference(CHAIN_SIZE - 1)));
+        assertTrue(graph.findCycle().isEmpty());
+        benchmark.write();
+    }
+
+    @Test
+    public void measureToggle() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName() + "_toggle");
+        final PreferenceScreen chain = PreferenceHost.create().getPreferenceScreen();
+        for (int i = 0; i < CHAIN_SIZE; i++) {
+            final MultilineSwitch node = new MultilineSwitch(chain.getContext());
+            node.setKey("chain_" + i);
+            node.setPersistent(false);
+            node.setChecked(true);
+            chain.addPreference(node);
+            if (i > 0) node.setDependency("chain_" + (i - 1));
+        }
+        final MultilineSwitch root = (MultilineSwitch) chain.getPreference(0);
+        final Runnable toggle = new Runnable() {
+            @Override
+            public void run() { root.setChecked(!root.isChecked()); }
+        };
+        benchmark.measure("dependency_chain_1k", 1, toggle);
+        // The library references the graph weakly, it's kept here while it's measured
+        final DependencyGraph graph = DependencyGraph.attach(chain);
+        try {
+            benchmark.measure("dependency_chain_1k_graph", 1, toggle);
+            root.setChecked(false);
+            assertFalse(chain.getPreference(CHAIN_SIZE - 1).isEnabled());
+            root.setChecked(true);
+            assertTrue(chain.getPreference(CHAIN_SIZE - 1).isEnabled());
+        } finally {
+            DependencyGraph.detach(chain);
+        }
+        assertEquals(CHAIN_SIZE - 1, graph.getDepth(chain.getPreference(CHAIN_SIZE - 1)));
+        benchmark.write();
+    }
+
+}
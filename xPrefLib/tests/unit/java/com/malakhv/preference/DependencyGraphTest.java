@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.preference.Preference;
+import android.preference.PreferenceScreen;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of the propagation of dependency changes through the attached
+ * {@link DependencyGraph}, they run on the JVM, with Robolectric. The hierarchy is:
+ * <pre>
+ *     a -> b -> d
+ *       -> c -> e
+ *       -> x
+ *     y -> z
+ * </pre>
+ * and the hierarchy order is a, b, d, c, e, x, y, z, so the breadth-first order of the graph
+ * differs from the depth-first order of the framework.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class DependencyGraphTest {
+
+    /** The keys of preferences, which dependency changed, in order of notification. */
+    private final List<String> mNotified = new ArrayList<String>();
+
+    /** The screen under test. */
+    private PreferenceScreen mScreen;
+
+    /** The root of the main tree. */
+    private RecordingCheckBox mRoot;
+
+    /** The preference, that changes the other tree, when it's disabled. */
+    private RecordingCheckBox mTrigger;
+
+    /** The root of the other tree. */
+    private RecordingCheckBox mOther;
+
+    @Before
+    public void setUp() {
+        mScreen = PreferenceHost.create().getPreferenceScreen();
+        mRoot = add("a", null);
+        add("b", "a");
+        add("d", "b");
+        add("c", "a");
+        add("e", "c");
+        mTrigger = add("x", "a");
+        mOther = add("y", null);
+        add("z", "y");
+        // The dependents are notified, when they are registered
+        mNotified.clear();
+    }
+
+    @After
+    public void tearDown() { DependencyGraph.detach(mScreen); }
+
+    @Test
+    public void frameworkNotifiesDepthFirst() {
+        mRoot.setChecked(false);
+        assertEquals(Arrays.asList("b", "d", "c", "e", "x"), mNotified);
+        assertDisabled("b", "c", "d", "e", "x");
+    }
+
+    @Test
+    public void graphNotifiesBreadthFirst() {
+        final DependencyGraph graph = DependencyGraph.attach(mScreen);
+        mRoot.setChecked(false);
+        assertEquals(Arrays.asList("b", "c", "x", "d", "e"), mNotified);
+        assertDisabled("b", "c", "d", "e", "x");
+        mNotified.clear();
+        mRoot.setChecked(true);
+        assertEquals(Arrays.asList("b", "c", "x", "d", "e"), mNotified);
+        assertEnabled("b", "c", "d", "e", "x");
+        assertEquals(8, graph.size());
+    }
+
+    @Test
+    public void graphStopsAtUnchangedState() {
+        final DependencyGraph graph = DependencyGraph.attach(mScreen);
+        // The state of "c" is not changed by "a", so its dependents are not notified again
+        find("c").setEnabled(false);
+        mNotified.clear();
+        mRoot.setChecked(false);
+        assertEquals(Arrays.asList("b", "c", "x", "d"), mNotified);
+        assertEquals(8, graph.size());
+    }
+
+    @Test
+    public void changeDuringPropagationIsAppliedAfterIt() {
+        final DependencyGraph graph = DependencyGraph.attach(mScreen);
+        mTrigger.mOnDisabled = new Runnable() {
+            @Override
+            public void run() { mOther.setChecked(false); }
+        };
+        mRoot.setChecked(false);
+        // The propagation has its own transaction, so the change waits for the walk in progress
+        assertEquals(Arrays.asList("b", "c", "x", "d", "e", "z"), mNotified);
+        assertDisabled("b", "c", "d", "e", "x", "z");
+        assertEquals(8, graph.size());
+    }
+
+    @Test
+    public void nestedPropagationDoesNotBreakWalk() {
+        final DependencyGraph graph = DependencyGraph.attach(mScreen);
+        mTrigger.mOnDisabled = new Runnable() {
+            @Override
+            public void run() { mOther.setChecked(false); }
+        };
+        // The transaction resolves its dependencies when it's applied, so the change of "y" is
+        // propagated right away, by the nested walk
+        final PreferenceTransaction transaction = PreferenceTransaction.begin();
+        try {
+            mRoot.setChecked(false);
+            assertTrue(mNotified.isEmpty());
+        } finally {
+            transaction.apply();
+        }
+        assertEquals(Arrays.asList("b", "c", "x", "z", "d", "e"), mNotified);
+        assertDisabled("b", "c", "d", "e", "x", "z");
+        assertEquals(8, graph.size());
+    }
+
+    /**
+     * Adds the new checked preference with specified key and dependency to the screen.
+     * */
+    private RecordingCheckBox add(String key, String dependency) {
+        final RecordingCheckBox preference = new RecordingCheckBox(mScreen.getContext());
+        preference.setKey(key);
+        preference.setPersistent(false);
+        preference.setChecked(true);
+        mScreen.addPreference(preference);
+        // The dependency should be in the hierarchy already
+        if (dependency != null) preference.setDependency(dependency);
+        return preference;
+    }
+
+    /**
+     * Returns the preference with specified key.
+     * */
+    private Preference find(String key) { return mScreen.findPreference(key); }
+
+    /**
+     * Asserts that the preferences with specified keys are disabled.
+     * */
+    private void assertDisabled(String... keys) {
+        for (String key: keys) assertFalse(key, find(key).isEnabled());
+    }
+
+    /**
+     * Asserts that the preferences with specified keys are enabled.
+     * */
+    private void assertEnabled(String... keys) {
+        for (String key: keys) assertTrue(key, find(key).isEnabled());
+    }
+
+    /**
+     * The check box, that records the changes of its dependency.
+     * */
+    private class RecordingCheckBox extends MultilineCheckBox {
+
+        /** Runs when this preference is disabled by its dependency, or null. */
+        private Runnable mOnDisabled = null;
+
+        RecordingCheckBox(Context context) { super(context); }
+
+        @Override
+        public void onDependencyChanged(Preference dependency, boolean disableDependent) {
+            mNotified.add(getKey());
+            super.onDependencyChanged(dependency, disableDependent);
+            if (disableDependent && mOnDisabled != null) mOnDisabled.run();
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.os.Bundle;
+import android.preference.PreferenceScreen;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ActivityController;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The tests of the background preparation of the dialog data of {@link DialogFragmentPref},
+ * they run on the JVM, with Robolectric. The data is prepared on the manual executor, so the
+ * tests decide when the preparation happens.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class DialogFragmentPrefTest {
+
+    /** The executor of the preparation. */
+    private final ManualExecutor mExecutor = new ManualExecutor();
+
+    /** The screen, that hosts the preference. */
+    private PreferenceScreen mScreen;
+
+    /** The preference under test. */
+    private TestPref mPreference;
+
+    @Before
+    public void setUp() {
+        mScreen = PreferenceHost.create().getPreferenceScreen();
+        mPreference = new TestPref(mScreen.getContext());
+        mPreference.setKey("dialog");
+        mPreference.setPersistent(false);
+        mScreen.addPreference(mPreference);
+    }
+
+    @Test
+    public void bindPrefetchesData() {
+        mPreference.setPrefetchOnBind(true);
+        bind();
+        bind();
+        assertEquals(1, mExecutor.getTaskCount());
+        assertEquals(0, mPreference.mPrepared);
+        mExecutor.runAll();
+        assertEquals(1, mPreference.mPrepared);
+        assertEquals("data 1", mPreference.getPreparedDialogData());
+        assertEquals(1, mPreference.mPrepared);
+    }
+
+    @Test
+    public void bindDoesNotPrefetchByDefault() {
+        bind();
+        assertEquals(0, mExecutor.getTaskCount());
+    }
+
+    @Test
+    public void dataIsPreparedInPlaceIfNotReady() {
+        mPreference.prefetchDialog();
+        assertEquals("data 1", mPreference.getPreparedDialogData());
+        // The queued preparation does nothing, the data is ready already
+        mExecutor.runAll();
+        assertEquals(1, mPreference.mPrepared);
+        assertEquals("data 1", mPreference.getPreparedDialogData());
+    }
+
+    @Test
+    public void invalidateCancelsPreparation() {
+        mPreference.prefetchDialog();
+        mPreference.invalidateDialogData();
+        mExecutor.runAll();
+        assertEquals(0, mPreference.mPrepared);
+        // The data is prepared again, when it's needed
+        assertEquals("data 1", mPreference.getPreparedDialogData());
+    }
+
+    @Test
+    public void invalidateForgetsPreparedData() {
+        mPreference.prefetchDialog();
+        mExecutor.runAll();
+        mPreference.invalidateDialogData();
+        mPreference.prefetchDialog();
+        mExecutor.runAll();
+        assertEquals(2, mPreference.mPrepared);
+        assertEquals("data 2", mPreference.getPreparedDialogData());
+    }
+
+    @Test
+    public void removalCancelsPreparation() {
+        mPreference.prefetchDialog();
+        mScreen.removePreference(mPreference);
+        mExecutor.runAll();
+        assertEquals(0, mPreference.mPrepared);
+    }
+
+    @Test
+    public void activityDestroyCancelsPreparation() {
+        final ActivityController<Activity> controller =
+                Robolectric.buildActivity(Activity.class).setup();
+        final TestPref preference = new TestPref(controller.get());
+        preference.prefetchDialog();
+        controller.pause().stop().destroy();
+        mExecutor.runAll();
+        assertEquals(0, preference.mPrepared);
+    }
+
+    /**
+     * Binds the row view of the preference, as the list does.
+     * */
+    private void bind() {
+        mPreference.getView(null, new FrameLayout(mScreen.getContext()));
+    }
+
+    /**
+     * The preference, that prepares its dialog data on the manual executor.
+     * */
+    private class TestPref extends DialogFragmentPref {
+
+        /** The number of preparations. */
+        private int mPrepared = 0;
+
+        TestPref(Context context) { super(context); }
+
+        @Override
+        protected Executor getPrepareExecutor() { return mExecutor; }
+
+        @Override
+        protected Object onPrepareDialogData() { return "data " + (++mPrepared); }
+
+        @Override
+        public Dialog onCreateDialog(Bundle savedInstanceState) {
+            return new AlertDialog.Builder(getContext()).create();
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.app.FragmentManager;
+import android.content.Context;
+import android.os.Bundle;
+import android.preference.PreferenceFragment;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * The benchmark of {@link DialogFragmentPref#showDialog}, the dialog fragment is shown and
+ * dismissed. It runs on the JVM, with Robolectric, please see {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class DialogShowBenchmarkTest {
+
+    @Test
+    public void measureShowDialog() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        final PreferenceFragment host = PreferenceHost.create();
+        final FragmentManager manager = host.getFragmentManager();
+        final AlertDialogPref dialog = new AlertDialogPref(host.getActivity());
+        dialog.setKey("benchmark_dialog");
+        host.getPreferenceScreen().addPreference(dialog);
+        benchmark.measure("dialog_show", 1, new Runnable() {
+            @Override
+            public void run() {
+                dialog.showDialog();
+                manager.executePendingTransactions();
+                final DialogFragment fragment = (DialogFragment) manager.findFragmentByTag(
+                        "benchmark_dialog");
+                if (fragment != null) fragment.dismissAllowingStateLoss();
+                manager.executePendingTransactions();
+            }
+        });
+        assertFalse(dialog.isDialogShowing());
+        benchmark.write();
+    }
+
+    /**
+     * The preference with simple alert dialog.
+     * */
+    public static class AlertDialogPref extends DialogFragmentPref {
+
+        public AlertDialogPref(Context context) { super(context); }
+
+        @Override
+        public Dialog onCreateDialog(Bundle savedInstanceState) {
+            return new AlertDialog.Builder(getContext()).setMessage("Benchmark").create();
+        }
+    }
+
+}
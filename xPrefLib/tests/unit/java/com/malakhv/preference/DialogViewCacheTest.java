@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ActivityController;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The tests of {@link DialogViewCache}, they run on the JVM, with Robolectric.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class DialogViewCacheTest {
+
+    /** The layout resource of cached views, the views are not inflated by the tests. */
+    private static final int LAYOUT = 1;
+
+    /** The controller of the activity, which views are cached. */
+    private ActivityController<Activity> mController;
+
+    /** The activity, which views are cached. */
+    private Activity mActivity;
+
+    @Before
+    public void setUp() {
+        DialogViewCache.clear();
+        mController = Robolectric.buildActivity(Activity.class).setup();
+        mActivity = mController.get();
+    }
+
+    @After
+    public void tearDown() { DialogViewCache.clear(); }
+
+    @Test
+    public void obtainTakesViewOut() {
+        final View view = new View(mActivity);
+        DialogViewCache.recycle(mActivity, LAYOUT, view);
+        assertNull(DialogViewCache.obtain(mActivity, LAYOUT + 1));
+        assertSame(view, DialogViewCache.obtain(mActivity, LAYOUT));
+        assertNull(DialogViewCache.obtain(mActivity, LAYOUT));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final View[] views = new View[DialogViewCache.MAX_SIZE + 1];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = new View(mActivity);
+            DialogViewCache.recycle(mActivity, LAYOUT + i, views[i]);
+        }
+        assertNull(DialogViewCache.obtain(mActivity, LAYOUT));
+        assertSame(views[views.length - 1], DialogViewCache.obtain(mActivity,
+                LAYOUT + views.length - 1));
+    }
+
+    @Test
+    public void clearsOnTrimMemory() {
+        final View view = new View(mActivity);
+        DialogViewCache.recycle(mActivity, LAYOUT, view);
+        // The UI is hidden, but the process is not in background yet
+        RuntimeEnvironment.application.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertSame(view, DialogViewCache.obtain(mActivity, LAYOUT));
+        DialogViewCache.recycle(mActivity, LAYOUT, view);
+        RuntimeEnvironment.application.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertNull(DialogViewCache.obtain(mActivity, LAYOUT));
+    }
+
+    @Test
+    public void clearsOnLowMemory() {
+        DialogViewCache.recycle(mActivity, LAYOUT, new View(mActivity));
+        RuntimeEnvironment.application.onLowMemory();
+        assertNull(DialogViewCache.obtain(mActivity, LAYOUT));
+    }
+
+    @Test
+    public void clearsOnConfigurationChange() {
+        DialogViewCache.recycle(mActivity, LAYOUT, new View(mActivity));
+        RuntimeEnvironment.application.onConfigurationChanged(new Configuration());
+        assertNull(DialogViewCache.obtain(mActivity, LAYOUT));
+    }
+
+    @Test
+    public void evictsViewsOfDestroyedActivity() {
+        final Activity other = Robolectric.setupActivity(Activity.class);
+        final View view = new View(other);
+        DialogViewCache.recycle(mActivity, LAYOUT, new View(mActivity));
+        DialogViewCache.recycle(other, LAYOUT, view);
+        mController.pause().stop().destroy();
+        assertNull(DialogViewCache.obtain(mActivity, LAYOUT));
+        assertSame(view, DialogViewCache.obtain(other, LAYOUT));
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of {@link FrameScheduler}, they run on the JVM, with Robolectric. The main looper is
+ * paused, so the frames run only when the tests idle it.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class FrameSchedulerTest {
+
+    /** The number of task runs. */
+    private int mRuns = 0;
+
+    /** The scheduler under test. */
+    private FrameScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+        mScheduler = new FrameScheduler(new Runnable() {
+            @Override
+            public void run() { mRuns++; }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.cancel();
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void runsOncePerFrame() {
+        mScheduler.schedule();
+        mScheduler.schedule();
+        mScheduler.schedule();
+        assertTrue(mScheduler.isScheduled());
+        assertEquals(0, mRuns);
+        ShadowLooper.idleMainLooper(16);
+        assertEquals(1, mRuns);
+        assertFalse(mScheduler.isScheduled());
+        ShadowLooper.idleMainLooper(16);
+        assertEquals(1, mRuns);
+    }
+
+    @Test
+    public void schedulesAgainAfterRun() {
+        mScheduler.schedule();
+        ShadowLooper.idleMainLooper(16);
+        mScheduler.schedule();
+        ShadowLooper.idleMainLooper(16);
+        assertEquals(2, mRuns);
+    }
+
+    @Test
+    public void cancelRemovesFrame() {
+        mScheduler.schedule();
+        mScheduler.cancel();
+        assertFalse(mScheduler.isScheduled());
+        ShadowLooper.idleMainLooper(16);
+        assertEquals(0, mRuns);
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The executor, that runs its tasks only when the test asks, in the calling thread, or rejects
+ * them.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+final class ManualExecutor implements Executor { // package access
+
+    /** The tasks to run. */
+    private final Queue<Runnable> mTasks = new LinkedList<Runnable>();
+
+    /** True, if this executor rejects all tasks. */
+    private boolean mRejecting = false;
+
+    @Override
+    public void execute(Runnable task) {
+        if (mRejecting) throw new RejectedExecutionException();
+        mTasks.add(task);
+    }
+
+    /**
+     * Sets whether this executor rejects all tasks, as the shut down executor does.
+     * */
+    void setRejecting(boolean rejecting) { mRejecting = rejecting; }
+
+    /**
+     * Returns the number of tasks, that wait to run.
+     * */
+    int getTaskCount() { return mTasks.size(); }
+
+    /**
+     * Runs all tasks, including the tasks that are added while running.
+     * @return The number of tasks that were run.
+     * */
+    int runAll() {
+        int count = 0;
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            task.run();
+            count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The benchmark of {@link MappedStorage}: the first load of the file with many keys, and the
+ * lookups. It runs on the JVM with other unit tests, please see
+ * {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+public class MappedStorageBenchmarkTest {
+
+    /** The number of keys in the storage. */
+    private static final int STORAGE_KEYS = 10000;
+
+    /** The storage file. */
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("benchmark", ".bin");
+        assertTrue(mFile.delete());
+        final MappedStorage storage = new MappedStorage(mFile);
+        for (int i = 0; i < STORAGE_KEYS; i++) storage.putInt("key_" + i, i);
+        storage.close();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void measureStorage() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        benchmark.measure("storage_load_mapped_10k", 1, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final MappedStorage loaded = new MappedStorage(mFile);
+                    loaded.getInt("key_0", 0);
+                    loaded.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+
+        final MappedStorage loaded = new MappedStorage(mFile);
+        try {
+            final String[] keys = new String[STORAGE_KEYS];
+            for (int i = 0; i < STORAGE_KEYS; i++) keys[i] = "key_" + i;
+            final Runnable lookup = new Runnable() {
+                private int mIndex = 0;
+                @Override
+                public void run() { loaded.getInt(keys[mIndex++ % STORAGE_KEYS], 0); }
+            };
+            benchmark.measure("storage_get_int_mapped", STORAGE_KEYS, lookup);
+            benchmark.countAllocations("storage_get_int_mapped", STORAGE_KEYS, lookup);
+            assertEquals(42, loaded.getInt("key_42", 0));
+        } finally {
+            loaded.close();
+        }
+        benchmark.write();
+    }
+
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of {@link MappedStorage}, they run on the JVM.
+ * */
+public class MappedStorageTest {
+
+    /** The offset of "end of data" field in the file header. */
+    private static final int END_OFFSET = 8;
+
+    /** The storage file. */
+    private File mFile;
+
+    /** The storage under test. */
+    private MappedStorage mStorage;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("storage", ".bin");
+        assertTrue(mFile.delete());
+        mStorage = new MappedStorage(mFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mStorage.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void reopenAfterPut() throws IOException {
+        mStorage.putInt("int", 42);
+        mStorage.putLong("long", Long.MAX_VALUE);
+        mStorage.putBoolean("boolean", true);
+        mStorage.putInt("int", 43);
+        reopen();
+        assertEquals(3, mStorage.size());
+        assertEquals(43, mStorage.getInt("int", 0));
+        assertEquals(Long.MAX_VALUE, mStorage.getLong("long", 0));
+        assertTrue(mStorage.getBoolean("boolean", false));
+        assertFalse(mStorage.contains("absent"));
+    }
+
+    @Test
+    public void changeType() throws IOException {
+        mStorage.putInt("key", 42);
+        mStorage.putBoolean("key", true);
+        assertEquals(-1, mStorage.getInt("key", -1));
+        assertTrue(mStorage.getBoolean("key", false));
+        reopen();
+        assertEquals(1, mStorage.size());
+        assertEquals(-1, mStorage.getInt("key", -1));
+        assertTrue(mStorage.getBoolean("key", false));
+    }
+
+    @Test
+    public void removeAndCompact() throws IOException {
+        final int count = 1000;
+        for (int i = 0; i < count; i++) mStorage.putInt(key(i), i);
+        final int end = readEnd();
+        // Removed records take more than half of data, so the file is compacted on the way
+        for (int i = 0; i < count; i += 4) {
+            mStorage.remove(key(i));
+            mStorage.remove(key(i + 1));
+            mStorage.remove(key(i + 2));
+        }
+        assertEquals(count / 4, mStorage.size());
+        assertTrue(readEnd() < end);
+        reopen();
+        assertEquals(count / 4, mStorage.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i % 4 == 3, mStorage.contains(key(i)));
+            if (i % 4 == 3) assertEquals(i, mStorage.getInt(key(i), -1));
+        }
+        mStorage.compact();
+        mStorage.putInt("after_compact", 1);
+        assertEquals(1, mStorage.getInt("after_compact", 0));
+    }
+
+    @Test
+    public void changeTypeAndCompact() throws IOException {
+        final int count = 1000;
+        for (int i = 0; i < count; i++) mStorage.putInt(key(i), i);
+        final int end = readEnd();
+        // The old records of changed keys take more than half of data, so the file is compacted
+        for (int i = 0; i < count; i++) mStorage.putBoolean(key(i), i % 2 == 0);
+        assertEquals(count, mStorage.size());
+        assertTrue(readEnd() < end);
+        reopen();
+        assertEquals(count, mStorage.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(-1, mStorage.getInt(key(i), -1));
+            assertEquals(i % 2 == 0, mStorage.getBoolean(key(i), i % 2 != 0));
+        }
+    }
+
+    @Test
+    public void syncAfterClose() throws IOException {
+        mStorage.putInt("key", 1);
+        mStorage.close();
+        mStorage.sync();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getAfterClose() throws IOException {
+        mStorage.putInt("key", 1);
+        mStorage.close();
+        mStorage.getInt("key", 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void putAfterClose() throws IOException {
+        mStorage.close();
+        mStorage.putBoolean("key", true);
+    }
+
+    @Test
+    public void closeTwice() throws IOException {
+        mStorage.close();
+        mStorage.close();
+    }
+
+    @Test
+    public void brokenTail() throws IOException {
+        mStorage.putInt("first", 1);
+        mStorage.putInt("second", 2);
+        mStorage.close();
+
+        // The last record is cut, as if the process died while appending it
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(END_OFFSET);
+            final int end = file.readInt();
+            file.seek(END_OFFSET);
+            file.writeInt(end - 2);
+        } finally {
+            file.close();
+        }
+
+        mStorage = new MappedStorage(mFile);
+        assertEquals(1, mStorage.getInt("first", 0));
+        assertFalse(mStorage.contains("second"));
+        // The broken tail is overwritten by new records
+        mStorage.putInt("third", 3);
+        reopen();
+        assertEquals(1, mStorage.getInt("first", 0));
+        assertEquals(3, mStorage.getInt("third", 0));
+        assertEquals(2, mStorage.size());
+    }
+
+    /**
+     * Closes and opens the storage again.
+     * */
+    private void reopen() throws IOException {
+        mStorage.close();
+        mStorage = new MappedStorage(mFile);
+    }
+
+    /**
+     * Returns the "end of data" field of the storage file.
+     * */
+    private int readEnd() throws IOException {
+        mStorage.sync();
+        final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            file.seek(END_OFFSET);
+            return file.readInt();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Returns the key with specified index.
+     * */
+    private static String key(int index) { return String.format("key_%04d", index); }
+
+}
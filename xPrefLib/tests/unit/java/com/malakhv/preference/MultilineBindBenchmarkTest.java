@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.PreferenceScreen;
+import android.view.Gravity;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertSame;
+
+/**
+ * The benchmark of {@link MultilinePreference#onBindView}, through the public
+ * {@link MultilinePreference#getView}, the row view is bound again, as the list does. Also, it
+ * counts the allocations of the bind. It runs on the JVM, with Robolectric, please see
+ * {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class MultilineBindBenchmarkTest {
+
+    @Test
+    public void measureBind() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        final PreferenceScreen screen = PreferenceHost.create().getPreferenceScreen();
+        final MultilinePreference multiline = new MultilinePreference(screen.getContext());
+        multiline.setKey("benchmark_multiline");
+        multiline.setTitle("This is a long title\nfor multiline preference");
+        multiline.setSummary("This is a long summary for multiline preference");
+        multiline.setGravity(Gravity.CENTER);
+        screen.addPreference(multiline);
+        final FrameLayout parent = new FrameLayout(screen.getContext());
+        final View row = multiline.getView(null, parent);
+        final Runnable bind = new Runnable() {
+            @Override
+            public void run() { multiline.getView(row, parent); }
+        };
+        benchmark.measure("multiline_bind", 100, bind);
+        benchmark.countAllocations("multiline_bind", 100, bind);
+        assertSame(row, multiline.getView(row, parent));
+        benchmark.write();
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.app.Activity;
+import android.preference.Preference;
+import android.preference.PreferenceFragment;
+import android.preference.PreferenceScreen;
+import android.widget.ListAdapter;
+
+import org.robolectric.Robolectric;
+
+/**
+ * The host of the preferences in the Robolectric tests: the activity with the preference fragment,
+ * that has an empty preference screen. The fragment's view is not added to the activity, so the
+ * tests measure the preferences, not the framework's list.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+final class PreferenceHost { // package access
+
+    private PreferenceHost() {}
+
+    /**
+     * Creates the activity with the preference fragment, and returns that fragment.
+     * */
+    static PreferenceFragment create() {
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        final PreferenceFragment fragment = new HostFragment();
+        // The fragment's list is not in the window, so it's not laid out on each change
+        activity.getFragmentManager().beginTransaction().add(fragment, null).commit();
+        activity.getFragmentManager().executePendingTransactions();
+        fragment.setPreferenceScreen(createScreen(fragment));
+        return fragment;
+    }
+
+    /**
+     * Creates the new empty screen of specified fragment.
+     * */
+    static PreferenceScreen createScreen(PreferenceFragment fragment) {
+        return fragment.getPreferenceManager().createPreferenceScreen(fragment.getActivity());
+    }
+
+    /**
+     * Clicks specified preference of specified screen, as the list does.
+     * */
+    static void click(PreferenceScreen screen, Preference preference) {
+        final ListAdapter adapter = screen.getRootAdapter();
+        for (int i = 0; i < adapter.getCount(); i++) {
+            if (adapter.getItem(i) == preference) screen.onItemClick(null, null, i, 0);
+        }
+    }
+
+    /**
+     * The fragment, that hosts the preferences.
+     * */
+    public static class HostFragment extends PreferenceFragment {}
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.content.Context;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The benchmark of the heap that a long list of switches retains: {@link MultilineSwitch}
+ * instances against the rows of {@link PreferenceList} with one shared template. It runs on the
+ * JVM, with Robolectric, please see {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class PreferenceListBenchmarkTest {
+
+    /** The number of rows in the list. */
+    private static final int LIST_ROWS = 10000;
+
+    /** The switches, they are kept reachable while heap is measured. */
+    private MultilineSwitch[] mSwitches = null;
+
+    /** The list, it's kept reachable while heap is measured. */
+    private PreferenceList mList = null;
+
+    @Test
+    public void measureHeap() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        final Context context = RuntimeEnvironment.application;
+        long before = usedHeap();
+        mSwitches = new MultilineSwitch[LIST_ROWS];
+        for (int i = 0; i < LIST_ROWS; i++) {
+            mSwitches[i] = new MultilineSwitch(context);
+            mSwitches[i].setKey("benchmark_list_" + i);
+            mSwitches[i].setTitle("Application " + i);
+            mSwitches[i].setSummary("com.example.application" + i);
+            mSwitches[i].setPersistent(false);
+        }
+        final long preferences = usedHeap() - before;
+        mSwitches = null;
+
+        before = usedHeap();
+        final PreferenceList.Template template = new PreferenceList.Template(
+                PreferenceList.Template.TYPE_SWITCH);
+        template.setPersistent(false);
+        mList = new PreferenceList(null);
+        for (int i = 0; i < LIST_ROWS; i++) {
+            mList.add(template, "benchmark_list_" + i, "Application " + i,
+                    "com.example.application" + i);
+        }
+        final long definitions = usedHeap() - before;
+        assertEquals(LIST_ROWS, mList.size());
+        mList = null;
+
+        benchmark.put("list_heap_preferences_10k_bytes", preferences);
+        benchmark.put("list_heap_definitions_10k_bytes", definitions);
+        assertTrue(definitions < preferences);
+        benchmark.write();
+    }
+
+    /**
+     * Returns the size of used heap, after garbage collection.
+     * */
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.content.Context;
+import android.preference.Preference;
+import android.preference.PreferenceFragment;
+import android.preference.PreferenceScreen;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of {@link PreferencePreloader}, they run on the JVM, with Robolectric. Each test uses
+ * its own preference file, because the loads are remembered for the whole process.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class PreferencePreloaderTest {
+
+    /** The timeout of waiting for the background thread, in seconds. */
+    private static final long TIMEOUT = 10;
+
+    /** The number of used preference files. */
+    private static int sFiles = 0;
+
+    /** The preferences, which waited for the loads. */
+    private final List<Preference> mWaits =
+            Collections.synchronizedList(new ArrayList<Preference>());
+
+    /** The name of preference file of the test. */
+    private String mName;
+
+    /** The fragment, that hosts the preferences. */
+    private PreferenceFragment mFragment;
+
+    @Before
+    public void setUp() {
+        mName = "preload_" + (sFiles++);
+        mFragment = PreferenceHost.create();
+        mFragment.getPreferenceManager().setSharedPreferencesName(mName);
+        PreferencePreloader.resetBlockedTime();
+        PreferenceTracing.setMetrics(new PreferenceMetrics() {
+            @Override
+            public void onEvent(String event, Preference preference, long duration) {
+                if (PreferenceMetrics.EVENT_PRELOAD_WAIT.equals(event)) mWaits.add(preference);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() { PreferenceTracing.setMetrics(null); }
+
+    @Test
+    public void attachLoadsFileThatIsNotPreloaded() {
+        assertFalse(PreferencePreloader.isLoaded(mName));
+        final SeekBarDialog preference = attach("first");
+        assertTrue(PreferencePreloader.isLoaded(mName));
+        assertEquals(1, PreferencePreloader.getBlockedCount());
+        assertEquals(Arrays.<Preference>asList(preference), mWaits);
+        // The file is loaded already, so nobody waits anymore
+        attach("second");
+        assertEquals(1, PreferencePreloader.getBlockedCount());
+    }
+
+    @Test
+    public void attachDoesNotWaitForLoadedFile() throws Exception {
+        PreferencePreloader.preload(RuntimeEnvironment.application, mName);
+        drainBackground();
+        assertTrue(PreferencePreloader.isLoaded(mName));
+        attach("first");
+        assertEquals(0, PreferencePreloader.getBlockedCount());
+        assertEquals(0, PreferencePreloader.getBlockedTime());
+        assertTrue(mWaits.isEmpty());
+    }
+
+    @Test
+    public void attachRunsLoadThatIsNotStarted() throws Exception {
+        // The background thread is busy, so the load waits in its queue
+        final CountDownLatch release = new CountDownLatch(1);
+        BackgroundExecutor.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            PreferencePreloader.preload(RuntimeEnvironment.application, mName);
+            assertFalse(PreferencePreloader.isLoaded(mName));
+            final SeekBarDialog preference = attach("first");
+            assertTrue(PreferencePreloader.isLoaded(mName));
+            assertEquals(1, PreferencePreloader.getBlockedCount());
+            assertEquals(Arrays.<Preference>asList(preference), mWaits);
+        } finally {
+            release.countDown();
+        }
+        drainBackground();
+        assertEquals(1, PreferencePreloader.getBlockedCount());
+    }
+
+    @Test
+    public void attachReadsPreloadedValue() throws Exception {
+        RuntimeEnvironment.application.getSharedPreferences(mName, Context.MODE_PRIVATE).edit()
+                .putInt("first", 42).commit();
+        PreferencePreloader.preload(RuntimeEnvironment.application, mName);
+        drainBackground();
+        assertEquals(42, attach("first").getValue());
+    }
+
+    /**
+     * Adds the new persistent {@link SeekBarDialog} with specified key to the screen.
+     * */
+    private SeekBarDialog attach(String key) {
+        final PreferenceScreen screen = mFragment.getPreferenceScreen();
+        final SeekBarDialog preference = new SeekBarDialog(screen.getContext());
+        preference.setKey(key);
+        screen.addPreference(preference);
+        return preference;
+    }
+
+    /**
+     * Waits until the background thread runs all tasks that were submitted before this call.
+     * */
+    private static void drainBackground() throws InterruptedException, ExecutionException,
+            TimeoutException {
+        BackgroundExecutor.get().submit(new Runnable() {
+            @Override
+            public void run() { /* do nothing */ }
+        }).get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+}
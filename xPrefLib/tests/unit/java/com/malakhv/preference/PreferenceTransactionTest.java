@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.content.SharedPreferences;
+import android.database.DataSetObserver;
+import android.preference.Preference;
+import android.preference.PreferenceFragment;
+import android.preference.PreferenceScreen;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of {@link PreferenceTransaction}, they run on the JVM, with Robolectric. The main
+ * looper is paused, so the lists are notified only by the preferences, not by the posted syncs.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class PreferenceTransactionTest {
+
+    /** The number of batched writes. */
+    private int mBatches = 0;
+
+    /** The fragment, that hosts the preferences. */
+    private PreferenceFragment mFragment;
+
+    @Before
+    public void setUp() {
+        mFragment = PreferenceHost.create();
+        PreferenceTracing.setMetrics(new PreferenceMetrics() {
+            @Override
+            public void onEvent(String event, Preference preference, long duration) {
+                if (PreferenceMetrics.EVENT_PERSIST_BATCH.equals(event)) mBatches++;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        PreferenceTracing.setMetrics(null);
+        PreferenceChangeTracker.setListener(mFragment.getPreferenceManager(), null);
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void writesOncePerFile() {
+        final PreferenceScreen screen = mFragment.getPreferenceScreen();
+        final SeekBarDialog first = add(screen, "transaction_first");
+        final SeekBarDialog second = add(screen, "transaction_second");
+        final PreferenceFragment other = PreferenceHost.create();
+        other.getPreferenceManager().setSharedPreferencesName("transaction_other");
+        final SeekBarDialog third = add(other.getPreferenceScreen(), "transaction_third");
+        final SharedPreferences prefs = first.getSharedPreferences();
+        final PreferenceTransaction transaction = PreferenceTransaction.begin();
+        try {
+            for (int i = 1; i <= 3; i++) {
+                first.setValue(i);
+                second.setValue(i * 10);
+                third.setValue(i * 20);
+            }
+            assertEquals(0, mBatches);
+            assertEquals(-1, prefs.getInt("transaction_first", -1));
+            // The preference sees its pending value
+            assertEquals(3, first.getPersistedInt(-1));
+        } finally {
+            transaction.apply();
+        }
+        assertEquals(2, mBatches);
+        assertEquals(3, prefs.getInt("transaction_first", -1));
+        assertEquals(30, prefs.getInt("transaction_second", -1));
+        assertEquals(60, third.getSharedPreferences().getInt("transaction_third", -1));
+    }
+
+    @Test
+    public void nestedTransactionIsAppliedByOutermost() {
+        final PreferenceScreen screen = mFragment.getPreferenceScreen();
+        final SeekBarDialog preference = add(screen, "transaction_nested");
+        final PreferenceTransaction outer = PreferenceTransaction.begin();
+        try {
+            final PreferenceTransaction inner = PreferenceTransaction.begin();
+            try {
+                preference.setValue(42);
+            } finally {
+                inner.apply();
+            }
+            assertTrue(PreferenceTransaction.isOpen());
+            assertEquals(0, mBatches);
+        } finally {
+            outer.apply();
+        }
+        assertEquals(1, mBatches);
+        assertEquals(42, preference.getSharedPreferences().getInt("transaction_nested", -1));
+    }
+
+    @Test
+    public void notifiesEachChangedPreferenceOnce() {
+        final PreferenceScreen screen = mFragment.getPreferenceScreen();
+        final SeekBarDialog first = add(screen, "transaction_first");
+        final SeekBarDialog second = add(screen, "transaction_second");
+        add(screen, "transaction_unchanged");
+        final int[] notified = observe(screen);
+        ShadowLooper.pauseMainLooper();
+        final PreferenceTransaction transaction = PreferenceTransaction.begin();
+        try {
+            for (int i = 1; i <= 3; i++) {
+                first.setValue(i);
+                second.setValue(i * 10);
+            }
+            assertEquals(0, notified[0]);
+        } finally {
+            transaction.apply();
+        }
+        assertEquals(2, notified[0]);
+    }
+
+    @Test
+    public void notifiesListsOfNestedScreens() {
+        final PreferenceScreen screen = mFragment.getPreferenceScreen();
+        final PreferenceScreen firstScreen = PreferenceHost.createScreen(mFragment);
+        final PreferenceScreen secondScreen = PreferenceHost.createScreen(mFragment);
+        screen.addPreference(firstScreen);
+        screen.addPreference(secondScreen);
+        final SeekBarDialog first = add(firstScreen, "transaction_first");
+        final SeekBarDialog second = add(secondScreen, "transaction_second");
+        // Each nested screen has its own list, as if it's shown
+        final int[] firstNotified = observe(firstScreen);
+        final int[] secondNotified = observe(secondScreen);
+        ShadowLooper.pauseMainLooper();
+        final PreferenceTransaction transaction = PreferenceTransaction.begin();
+        try {
+            first.setValue(1);
+            second.setValue(2);
+        } finally {
+            transaction.apply();
+        }
+        assertEquals(1, firstNotified[0]);
+        assertEquals(1, secondNotified[0]);
+    }
+
+    @Test
+    public void reportsMergedRowChanges() {
+        final PreferenceScreen screen = mFragment.getPreferenceScreen();
+        final SeekBarDialog first = add(screen, "transaction_first");
+        final SeekBarDialog second = add(screen, "transaction_second");
+        final int[] notified = observe(screen);
+        final List<Preference> changed = new ArrayList<Preference>();
+        PreferenceChangeTracker.setListener(mFragment.getPreferenceManager(),
+                new PreferenceChangeTracker.OnRowChangeListener() {
+            @Override
+            public boolean onRowChanged(Preference preference, int fields) {
+                changed.add(preference);
+                return true;
+            }
+        });
+        ShadowLooper.pauseMainLooper();
+        final PreferenceTransaction transaction = PreferenceTransaction.begin();
+        try {
+            first.setValue(1);
+            second.setValue(2);
+            first.setValue(3);
+            assertTrue(changed.isEmpty());
+        } finally {
+            transaction.apply();
+        }
+        assertEquals(Arrays.<Preference>asList(first, second), changed);
+        assertEquals(0, notified[0]);
+    }
+
+    /**
+     * Adds the new persistent {@link SeekBarDialog} with specified key to specified group.
+     * */
+    private static SeekBarDialog add(PreferenceScreen screen, String key) {
+        final SeekBarDialog preference = new SeekBarDialog(screen.getContext());
+        preference.setKey(key);
+        screen.addPreference(preference);
+        preference.getEditor().remove(key).commit();
+        return preference;
+    }
+
+    /**
+     * Counts the change notifications of the list of specified screen.
+     * @return The array with the number of notifications.
+     * */
+    private static int[] observe(PreferenceScreen screen) {
+        final int[] count = new int[1];
+        screen.getRootAdapter().registerDataSetObserver(new DataSetObserver() {
+            @Override
+            public void onChanged() { count[0]++; }
+        });
+        return count;
+    }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of {@link PreferenceValueStream}, they run on the JVM, with Robolectric. The changes
+ * are delivered on the manual executor, so the tests decide when the delivery happens.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class PreferenceValueStreamTest {
+
+    /** The executor under control of the tests. */
+    private final ManualExecutor mExecutor = new ManualExecutor();
+
+    /** The received changes and dropped keys, in order of delivery. */
+    private final List<String> mReceived = new ArrayList<String>();
+
+    /** The subscriber, that records all it receives. */
+    private final PreferenceValueStream.Subscriber mSubscriber =
+            new PreferenceValueStream.Subscriber() {
+        @Override
+        public void onValueChanged(PreferenceValueStream.Change change) {
+            mReceived.add(change.toString());
+        }
+
+        @Override
+        public void onDropped(Set<String> keys) { mReceived.add("dropped " + keys); }
+    };
+
+    /** The subscription under test. */
+    private PreferenceValueStream.Subscription mSubscription;
+
+    @After
+    public void tearDown() {
+        if (mSubscription != null) mSubscription.cancel();
+    }
+
+    @Test
+    public void mergesChangesByKey() {
+        mSubscription = subscribe(PreferenceValueStream.DEFAULT_CAPACITY,
+                PreferenceValueStream.OVERFLOW_DROP_OLDEST, PreferenceValueStream.UNBOUNDED);
+        PreferenceValueStream.publish("a", 1);
+        PreferenceValueStream.publish("b", true);
+        PreferenceValueStream.publish("a", 3);
+        assertEquals(2, mSubscription.getPendingCount());
+        assertEquals(1, mSubscription.getMergedCount());
+        assertEquals(1, mExecutor.runAll());
+        // The latest value of "a" goes to the end of the queue
+        assertEquals(Arrays.asList("b=true", "a=3"), mReceived);
+        assertEquals(2, mSubscription.getDeliveredCount());
+        assertEquals(0, mSubscription.getPendingCount());
+    }
+
+    @Test
+    public void observesOnlySpecifiedKeys() {
+        mSubscription = subscribe(PreferenceValueStream.DEFAULT_CAPACITY,
+                PreferenceValueStream.OVERFLOW_DROP_OLDEST, PreferenceValueStream.UNBOUNDED, "b");
+        PreferenceValueStream.publish("a", 1);
+        PreferenceValueStream.publish("b", 2);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("b=2"), mReceived);
+    }
+
+    @Test
+    public void dropOldest() {
+        mSubscription = subscribe(2, PreferenceValueStream.OVERFLOW_DROP_OLDEST,
+                PreferenceValueStream.UNBOUNDED);
+        PreferenceValueStream.publish("a", 1);
+        PreferenceValueStream.publish("b", 2);
+        PreferenceValueStream.publish("c", 3);
+        assertEquals(1, mSubscription.getDroppedCount());
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("dropped [a]", "b=2", "c=3"), mReceived);
+    }
+
+    @Test
+    public void dropLatest() {
+        mSubscription = subscribe(2, PreferenceValueStream.OVERFLOW_DROP_LATEST,
+                PreferenceValueStream.UNBOUNDED);
+        PreferenceValueStream.publish("a", 1);
+        PreferenceValueStream.publish("b", 2);
+        PreferenceValueStream.publish("c", 3);
+        // The pending key is merged, even if the buffer is full
+        PreferenceValueStream.publish("a", 4);
+        assertEquals(1, mSubscription.getDroppedCount());
+        assertEquals(1, mSubscription.getMergedCount());
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("dropped [c]", "b=2", "a=4"), mReceived);
+    }
+
+    @Test
+    public void acceptedKeyIsNotReportedAsDropped() {
+        mSubscription = subscribe(1, PreferenceValueStream.OVERFLOW_DROP_OLDEST,
+                PreferenceValueStream.UNBOUNDED);
+        PreferenceValueStream.publish("a", 1);
+        PreferenceValueStream.publish("b", 2);
+        PreferenceValueStream.publish("a", 3);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("dropped [b]", "a=3"), mReceived);
+        assertEquals(2, mSubscription.getDroppedCount());
+    }
+
+    @Test
+    public void deliversOnlyRequestedChanges() {
+        mSubscription = subscribe(PreferenceValueStream.DEFAULT_CAPACITY,
+                PreferenceValueStream.OVERFLOW_DROP_OLDEST, 0);
+        PreferenceValueStream.publish("a", 1);
+        PreferenceValueStream.publish("b", 2);
+        assertEquals(0, mExecutor.runAll());
+        mSubscription.request(1);
+        assertEquals(1, mExecutor.runAll());
+        assertEquals(Arrays.asList("a=1"), mReceived);
+        assertEquals(0, mSubscription.getDemand());
+        assertEquals(1, mSubscription.getPendingCount());
+        mSubscription.request(5);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a=1", "b=2"), mReceived);
+        assertEquals(4, mSubscription.getDemand());
+    }
+
+    @Test
+    public void reportsDroppedKeysWithoutDemand() {
+        mSubscription = subscribe(1, PreferenceValueStream.OVERFLOW_DROP_OLDEST, 0);
+        PreferenceValueStream.publish("a", 1);
+        PreferenceValueStream.publish("b", 2);
+        assertEquals(1, mExecutor.runAll());
+        assertEquals(Arrays.asList("dropped [a]"), mReceived);
+        assertEquals(1, mSubscription.getPendingCount());
+        assertEquals(0, mSubscription.getDeliveredCount());
+    }
+
+    @Test
+    public void rejectionCancelsSubscription() {
+        mSubscription = subscribe(PreferenceValueStream.DEFAULT_CAPACITY,
+                PreferenceValueStream.OVERFLOW_DROP_OLDEST, PreferenceValueStream.UNBOUNDED);
+        mExecutor.setRejecting(true);
+        PreferenceValueStream.publish("a", 1);
+        assertTrue(mSubscription.isCancelled());
+        assertEquals(1, mSubscription.getDroppedCount());
+        assertEquals(0, mSubscription.getPendingCount());
+        assertFalse(PreferenceValueStream.hasSubscribers());
+        mExecutor.setRejecting(false);
+        PreferenceValueStream.publish("a", 2);
+        assertEquals(0, mExecutor.runAll());
+        assertTrue(mReceived.isEmpty());
+    }
+
+    @Test
+    public void cancelDiscardsPendingChanges() {
+        mSubscription = subscribe(PreferenceValueStream.DEFAULT_CAPACITY,
+                PreferenceValueStream.OVERFLOW_DROP_OLDEST, PreferenceValueStream.UNBOUNDED);
+        PreferenceValueStream.publish("a", 1);
+        mSubscription.cancel();
+        mExecutor.runAll();
+        assertTrue(mReceived.isEmpty());
+        assertEquals(0, mSubscription.getPendingCount());
+    }
+
+    /**
+     * Subscribes the test subscriber on the manual executor.
+     * */
+    private PreferenceValueStream.Subscription subscribe(int capacity, int overflow, long demand,
+            String... keys) {
+        return PreferenceValueStream.subscribe(mExecutor, mSubscriber, capacity, overflow, demand,
+                keys);
+    }
+
+}
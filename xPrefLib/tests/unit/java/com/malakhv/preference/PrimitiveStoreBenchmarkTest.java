@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The benchmark of the lookups of {@link PrimitiveStore} with many int values, by key and by id,
+ * and of its footprint, the bytes that it allocates for these values. It runs on the JVM with
+ * other unit tests, please see {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+public class PrimitiveStoreBenchmarkTest {
+
+    /** The number of keys in the store. */
+    private static final int STORAGE_KEYS = 10000;
+
+    @Test
+    public void measureLookup() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        final String[] keys = new String[STORAGE_KEYS];
+        for (int i = 0; i < STORAGE_KEYS; i++) keys[i] = "key_" + i;
+        final PrimitiveStore store = new PrimitiveStore(null);
+        for (int i = 0; i < STORAGE_KEYS; i++) store.putInt(keys[i], i);
+        final int[] ids = new int[STORAGE_KEYS];
+        for (int i = 0; i < STORAGE_KEYS; i++) ids[i] = store.keyId(keys[i]);
+        final Runnable primitive = new Runnable() {
+            private int mIndex = 0;
+            @Override
+            public void run() { store.getInt(keys[mIndex++ % STORAGE_KEYS], 0); }
+        };
+        final Runnable primitiveById = new Runnable() {
+            private int mIndex = 0;
+            @Override
+            public void run() { store.getInt(ids[mIndex++ % STORAGE_KEYS], 0); }
+        };
+        benchmark.measure("store_get_int_primitive", STORAGE_KEYS, primitive);
+        benchmark.measure("store_get_int_primitive_id", STORAGE_KEYS, primitiveById);
+        benchmark.countAllocations("store_get_int_primitive", STORAGE_KEYS, primitive);
+        benchmark.countAllocations("store_get_int_primitive_id", STORAGE_KEYS, primitiveById);
+        assertEquals(42, store.getInt(ids[42], 0));
+        benchmark.write();
+    }
+
+    @Test
+    public void measureFootprint() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName() + "_footprint");
+        final String[] keys = new String[STORAGE_KEYS];
+        for (int i = 0; i < STORAGE_KEYS; i++) keys[i] = "key_" + i;
+        final PrimitiveStore[] store = new PrimitiveStore[1];
+        benchmark.countAllocations("store_footprint_primitive_10k", 1, new Runnable() {
+            @Override
+            public void run() {
+                store[0] = new PrimitiveStore(null);
+                for (int i = 0; i < STORAGE_KEYS; i++) store[0].putInt(keys[i], i);
+            }
+        });
+        assertEquals(STORAGE_KEYS - 1, store[0].getInt(keys[STORAGE_KEYS - 1], 0));
+        benchmark.write();
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.preference.PreferenceScreen;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The benchmark of the row layout of {@link MultilinePreference}: the framework's row against the
+ * flattened row, please see {@link MultilinePreference#setFlatRow}. The row is bound and laid out
+ * again, as the list does, and laid out again without the bind, as after the change of its size.
+ * Each layout is forced, the flat row doesn't request a layout on the bind, that changes nothing,
+ * so it would be taken from the measure cache. It runs on the JVM, with Robolectric, please see
+ * {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class RowLayoutBenchmarkTest {
+
+    /** The width of the row, in pixels. */
+    private static final int ROW_WIDTH = 720;
+
+    @Test
+    public void measureLayout() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        final PreferenceScreen screen = PreferenceHost.create().getPreferenceScreen();
+        final FrameLayout parent = new FrameLayout(screen.getContext());
+        final MultilinePreference standard = createRow(screen, "benchmark_multiline", false);
+        final MultilinePreference flat = createRow(screen, "benchmark_multiline_flat", true);
+        final View standardRow = standard.getView(null, parent);
+        final View flatRow = flat.getView(null, parent);
+        benchmark.measure("row_layout_standard", 100, new Runnable() {
+            @Override
+            public void run() { bindRow(standard, standardRow, parent); }
+        });
+        benchmark.measure("row_layout_flat", 100, new Runnable() {
+            @Override
+            public void run() { bindRow(flat, flatRow, parent); }
+        });
+        benchmark.measure("row_relayout_standard", 100, new Runnable() {
+            @Override
+            public void run() {
+                forceLayout(standardRow);
+                layoutRow(standardRow);
+            }
+        });
+        benchmark.measure("row_relayout_flat", 100, new Runnable() {
+            @Override
+            public void run() {
+                forceLayout(flatRow);
+                layoutRow(flatRow);
+            }
+        });
+        assertTrue(flatRow.getMeasuredHeight() > 0);
+        benchmark.write();
+    }
+
+    /**
+     * Creates the preference with two lines title and adds it to specified screen.
+     * */
+    private static MultilinePreference createRow(PreferenceScreen screen, String key,
+            boolean flatRow) {
+        final MultilinePreference preference = new MultilinePreference(screen.getContext());
+        preference.setKey(key);
+        preference.setTitle("This is a long title\nfor multiline preference");
+        preference.setSummary("This is a long summary for multiline preference");
+        preference.setGravity(Gravity.CENTER);
+        preference.setFlatRow(flatRow);
+        screen.addPreference(preference);
+        return preference;
+    }
+
+    /**
+     * Binds the row view of specified preference again, and lays it out.
+     * */
+    private static void bindRow(MultilinePreference preference, View row, ViewGroup parent) {
+        final View view = preference.getView(row, parent);
+        forceLayout(view);
+        layoutRow(view);
+    }
+
+    /**
+     * Measures and lays out the row view.
+     * */
+    private static void layoutRow(View row) {
+        row.measure(View.MeasureSpec.makeMeasureSpec(ROW_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+    }
+
+    /**
+     * Forces the layout of specified view and all its children.
+     * */
+    private static void forceLayout(View view) {
+        view.forceLayout();
+        if (!(view instanceof ViewGroup)) return;
+        final ViewGroup group = (ViewGroup) view;
+        for (int i = 0; i < group.getChildCount(); i++) forceLayout(group.getChildAt(i));
+    }
+
+}
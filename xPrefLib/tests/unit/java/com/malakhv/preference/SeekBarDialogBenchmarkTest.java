@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.PreferenceScreen;
+import android.widget.SeekBar;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The benchmark of {@link SeekBarDialog}: {@link SeekBarDialog#setValue},
+ * {@link SeekBarDialog#getSummary} and {@link SeekBarDialog#getDialogMessage}, and its summary
+ * template, {@link ValueFormat}. Also, it counts the allocations of the summary and of the
+ * dialog's progress listener. It runs on the JVM, with Robolectric, please see
+ * {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class SeekBarDialogBenchmarkTest {
+
+    @Test
+    public void measureSeekBar() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        final PreferenceScreen screen = PreferenceHost.create().getPreferenceScreen();
+        final SeekBarDialog seekBar = new SeekBarDialog(screen.getContext());
+        seekBar.setKey("benchmark_seek_bar");
+        seekBar.setSummary("The value is %s %%");
+        screen.addPreference(seekBar);
+        benchmark.measure("seek_bar_set_value", 20, new Runnable() {
+            private int mValue = 0;
+            @Override
+            public void run() { seekBar.setValue(mValue++ % 100); }
+        });
+        final Runnable summary = new Runnable() {
+            @Override
+            public void run() { seekBar.getSummary(); }
+        };
+        benchmark.measure("seek_bar_get_summary", 1000, summary);
+        benchmark.countAllocations("seek_bar_get_summary", 1000, summary);
+        benchmark.measure("seek_bar_get_dialog_message", 1000, new Runnable() {
+            private int mValue = 0;
+            @Override
+            public void run() { seekBar.getDialogMessage(mValue++ % 100); }
+        });
+        countProgressAllocations(benchmark, screen, seekBar);
+        measureValueFormat(benchmark);
+        seekBar.setValue(42);
+        assertEquals("The value is 42 %", seekBar.getSummary().toString());
+        benchmark.write();
+    }
+
+    /**
+     * Opens the dialog of specified preference and counts the allocations of its progress
+     * listener, that is called while the seek bar is dragged: by default, each event renders the
+     * dialog message, and with the live preview, the events are merged to one update per frame.
+     * */
+    private static void countProgressAllocations(Benchmark benchmark, PreferenceScreen screen,
+            SeekBarDialog preference) {
+        preference.setDialogMessage("The value is %s %%");
+        PreferenceHost.click(screen, preference);
+        assertNotNull(preference.getDialog());
+        final SeekBar seekBar = (SeekBar) preference.getDialog().findViewById(R.id.seek_bar);
+        final TextView message = (TextView) preference.getDialog().findViewById(
+                android.R.id.message);
+        // The listener is called directly, the framework's SeekBar allocates much more than it
+        final SeekBar.OnSeekBarChangeListener listener =
+                Shadows.shadowOf(seekBar).getOnSeekBarChangeListener();
+        assertNotNull(listener);
+        final Runnable progress = new Runnable() {
+            private int mValue = 0;
+            @Override
+            public void run() { listener.onProgressChanged(seekBar, mValue++ % 100, true); }
+        };
+        // The events come between the frames, as while dragging, the frame lays out the message
+        ShadowLooper.pauseMainLooper();
+        try {
+            benchmark.countAllocations("seek_bar_progress_changed", 100, progress);
+            listener.onProgressChanged(seekBar, 42, true);
+            assertEquals("The value is 42 %", message.getText().toString());
+            preference.setLivePreview(true);
+            benchmark.countAllocations("seek_bar_progress_changed_live_preview", 100, progress);
+        } finally {
+            ShadowLooper.unPauseMainLooper();
+            preference.getDialog().dismiss();
+            preference.setLivePreview(false);
+        }
+    }
+
+    /**
+     * Measures the rendering of the summary template, that the seek bar uses.
+     * */
+    private static void measureValueFormat(Benchmark benchmark) {
+        final ValueFormat format = ValueFormat.compile("The value is %s %%");
+        final Runnable render = new Runnable() {
+            private int mValue = 0;
+            @Override
+            public void run() { format.render(mValue++ % 100); }
+        };
+        benchmark.measure("value_format_render", 1000, render);
+        benchmark.measure("value_format_format", 1000, new Runnable() {
+            private int mValue = 0;
+            @Override
+            public void run() { format.format(mValue++ % 100); }
+        });
+        benchmark.countAllocations("value_format_render", 1000, render);
+        assertEquals("The value is 42 %", format.format(42));
+    }
+
+}
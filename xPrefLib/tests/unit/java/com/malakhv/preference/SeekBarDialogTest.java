@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.preference.PreferenceScreen;
+import android.widget.SeekBar;
+import android.widget.TextView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of the dialog of {@link SeekBarDialog}, they run on the JVM, with Robolectric.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class SeekBarDialogTest {
+
+    /** The duration of one display frame, in milliseconds. */
+    private static final long FRAME = 16;
+
+    /** The minimum interval between live preview notifications, in milliseconds. */
+    private static final long PREVIEW_INTERVAL = 100;
+
+    /** The preference under test. */
+    private SeekBarDialog mPreference;
+
+    /** The message view of the shown dialog. */
+    private TextView mMessage;
+
+    /** The progress listener of the dialog's seek bar. */
+    private SeekBar.OnSeekBarChangeListener mListener;
+
+    /** The seek bar of the shown dialog. */
+    private SeekBar mSeekBar;
+
+    @Before
+    public void setUp() {
+        final PreferenceScreen screen = PreferenceHost.create().getPreferenceScreen();
+        mPreference = new SeekBarDialog(screen.getContext());
+        mPreference.setKey("seek_bar");
+        mPreference.setPersistent(false);
+        mPreference.setDialogMessage("The value is %s");
+        screen.addPreference(mPreference);
+        PreferenceHost.click(screen, mPreference);
+        assertNotNull(mPreference.getDialog());
+        mMessage = (TextView) mPreference.getDialog().findViewById(android.R.id.message);
+        mSeekBar = (SeekBar) mPreference.getDialog().findViewById(R.id.seek_bar);
+        mListener = Shadows.shadowOf(mSeekBar).getOnSeekBarChangeListener();
+    }
+
+    @After
+    public void tearDown() {
+        if (mPreference.getDialog() != null) mPreference.getDialog().dismiss();
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void progressUpdatesMessage() {
+        mListener.onProgressChanged(mSeekBar, 30, true);
+        assertEquals("The value is 30", mMessage.getText().toString());
+        mListener.onProgressChanged(mSeekBar, 31, true);
+        assertEquals("The value is 31", mMessage.getText().toString());
+    }
+
+    @Test
+    public void getDialogMessageKeepsShownMessage() {
+        mListener.onProgressChanged(mSeekBar, 30, true);
+        assertEquals("The value is 70", mPreference.getDialogMessage(70).toString());
+        assertEquals("The value is 30", mMessage.getText().toString());
+    }
+
+    @Test
+    public void livePreviewUpdatesMessageOncePerFrame() {
+        final List<Integer> previews = startLivePreview();
+        mListener.onProgressChanged(mSeekBar, 10, true);
+        mListener.onProgressChanged(mSeekBar, 20, true);
+        mListener.onProgressChanged(mSeekBar, 30, true);
+        // Nothing happens until the next frame
+        assertEquals("The value is 0", mMessage.getText().toString());
+        assertTrue(previews.isEmpty());
+        ShadowLooper.idleMainLooper(FRAME);
+        assertEquals("The value is 30", mMessage.getText().toString());
+        assertEquals(Arrays.asList(30), previews);
+    }
+
+    @Test
+    public void livePreviewCapsNotificationRate() {
+        final List<Integer> previews = startLivePreview();
+        mListener.onProgressChanged(mSeekBar, 10, true);
+        ShadowLooper.idleMainLooper(FRAME);
+        mListener.onProgressChanged(mSeekBar, 20, true);
+        ShadowLooper.idleMainLooper(FRAME);
+        mListener.onProgressChanged(mSeekBar, 30, true);
+        ShadowLooper.idleMainLooper(FRAME);
+        // The message follows each frame, the listeners wait for the interval
+        assertEquals("The value is 30", mMessage.getText().toString());
+        assertEquals(Arrays.asList(10), previews);
+        ShadowLooper.idleMainLooper(PREVIEW_INTERVAL);
+        assertEquals(Arrays.asList(10, 30), previews);
+        ShadowLooper.idleMainLooper(PREVIEW_INTERVAL);
+        assertEquals(Arrays.asList(10, 30), previews);
+    }
+
+    @Test
+    public void livePreviewFlushesOnStopTracking() {
+        final List<Integer> previews = startLivePreview();
+        mListener.onProgressChanged(mSeekBar, 10, true);
+        ShadowLooper.idleMainLooper(FRAME);
+        mListener.onProgressChanged(mSeekBar, 20, true);
+        mListener.onStopTrackingTouch(mSeekBar);
+        assertEquals("The value is 20", mMessage.getText().toString());
+        assertEquals(Arrays.asList(10, 20), previews);
+        // The scheduled frame and notification were removed
+        ShadowLooper.idleMainLooper(PREVIEW_INTERVAL);
+        assertEquals(Arrays.asList(10, 20), previews);
+    }
+
+    /**
+     * Enables the live preview with {@link #PREVIEW_INTERVAL}, pauses the main looper, and
+     * returns the list of preview values, that will be pushed to the listeners.
+     * */
+    private List<Integer> startLivePreview() {
+        final List<Integer> previews = new ArrayList<Integer>();
+        mPreference.setLivePreview(true);
+        mPreference.setPreviewInterval(PREVIEW_INTERVAL);
+        mPreference.addOnValuePreviewListener(new SeekBarDialog.OnValuePreviewListener() {
+            @Override
+            public void onValuePreview(SeekBarDialog preference, int value) {
+                previews.add(value);
+            }
+        });
+        ShadowLooper.pauseMainLooper();
+        // The first notification is not delayed by the interval
+        ShadowLooper.idleMainLooper(PREVIEW_INTERVAL);
+        return previews;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.preference.PreferenceFragment;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests of the text layouts precomputing by {@link MultilineRowView}, they run on the JVM,
+ * with Robolectric.
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class TextLayoutPrecomputeTest {
+
+    /** The width of the row, in pixels. */
+    private static final int ROW_WIDTH = 480;
+
+    /** The maximum time to wait for the background layouts, in milliseconds. */
+    private static final long TIMEOUT = 5000;
+
+    /** The fragment, that hosts the preferences. */
+    private PreferenceFragment mFragment;
+
+    /** The parent of row views. */
+    private FrameLayout mParent;
+
+    @Before
+    public void setUp() {
+        mFragment = PreferenceHost.create();
+        mParent = new FrameLayout(mFragment.getActivity());
+        TextLayoutCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        TextLayoutCache.clear();
+        TextLayoutCache.resetCounters();
+    }
+
+    @Test
+    public void boundRowTakesPrecomputedLayouts() throws InterruptedException {
+        final View row = measure(create("The bound preference", "The summary of bound row"));
+        final MultilinePreference next = create("The next preference",
+                "The summary of next row, that is laid out in the background");
+        MultilinePreference.precomputeRowView(row, next);
+        awaitSize(4);
+        TextLayoutCache.resetCounters();
+        measure(next);
+        assertEquals(0, TextLayoutCache.getMissCount());
+        assertEquals(2, TextLayoutCache.getHitCount());
+    }
+
+    @Test
+    public void unmeasuredRowDoesNotPrecompute() {
+        final MultilinePreference bound = create("The bound preference", "The summary");
+        final View row = bound.getView(null, mParent);
+        MultilinePreference.precomputeRowView(row, create("The next preference", "The summary"));
+        assertEquals(0, TextLayoutCache.size());
+    }
+
+    @Test
+    public void rowOfOtherStateDoesNotPrecompute() {
+        final View row = measure(create("The bound preference", "The summary"));
+        final int size = TextLayoutCache.size();
+        final MultilinePreference disabled = create("The next preference", "The summary");
+        disabled.setEnabled(false);
+        MultilinePreference.precomputeRowView(row, disabled);
+        assertEquals(size, TextLayoutCache.size());
+    }
+
+    /**
+     * Creates the flattened row preference with specified title and summary.
+     * */
+    private MultilinePreference create(String title, String summary) {
+        final MultilinePreference preference = new MultilinePreference(mFragment.getActivity());
+        preference.setFlatRow(true);
+        preference.setTitle(title);
+        preference.setSummary(summary);
+        mFragment.getPreferenceScreen().addPreference(preference);
+        return preference;
+    }
+
+    /**
+     * Creates and measures the row view of specified preference.
+     * */
+    private View measure(MultilinePreference preference) {
+        final View row = preference.getView(null, mParent);
+        row.measure(View.MeasureSpec.makeMeasureSpec(ROW_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        return row;
+    }
+
+    /**
+     * Waits until the cache has specified number of layouts.
+     * */
+    private static void awaitSize(int size) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (TextLayoutCache.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("The layouts are not computed", TextLayoutCache.size() >= size);
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+
+package com.malakhv.preference;
+
+import android.preference.PreferenceScreen;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The benchmark of the update of many persisted preferences, one by one and in one
+ * {@link PreferenceTransaction}. It runs on the JVM, with Robolectric, please see
+ * {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class TransactionBenchmarkTest {
+
+    /** The number of updated preferences. */
+    private static final int BATCH_SIZE = 200;
+
+    @Test
+    public void measureBatchUpdate() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        final PreferenceScreen screen = PreferenceHost.create().getPreferenceScreen();
+        final SeekBarDialog[] preferences = new SeekBarDialog[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            preferences[i] = new SeekBarDialog(screen.getContext());
+            preferences[i].setKey("benchmark_batch_" + i);
+            screen.addPreference(preferences[i]);
+        }
+        final int[] value = new int[1];
+        final Runnable update = new Runnable() {
+            @Override
+            public void run() {
+                value[0] = (value[0] + 1) % 100;
+                for (SeekBarDialog preference: preferences) preference.setValue(value[0]);
+            }
+        };
+        benchmark.measure("batch_update_200", 1, update);
+        benchmark.measure("batch_update_200_transaction", 1, new Runnable() {
+            @Override
+            public void run() {
+                final PreferenceTransaction transaction = PreferenceTransaction.begin();
+                try {
+                    update.run();
+                } finally {
+                    transaction.apply();
+                }
+            }
+        });
+        assertEquals(value[0], screen.getSharedPreferences().getInt("benchmark_batch_0", -1));
+        benchmark.write();
+    }
+
+}
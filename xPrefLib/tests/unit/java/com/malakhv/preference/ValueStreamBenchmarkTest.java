@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2013 Mikhail Malakhov <malakhv@live.ru>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * */
+
+package com.malakhv.preference;
+
+import android.preference.PreferenceScreen;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The benchmark of the publishing of value changes to {@link PreferenceValueStream}, without
+ * subscribers and with one subscriber, that does not take changes, so they are merged. Also, the
+ * value changes of {@link SeekBarDialog} in the main thread, while a slow subscriber receives them
+ * in the background. It runs on the JVM, with Robolectric, please see
+ * {@code xPrefLib/benchmark.gradle}.
+ *
+ * @author Mikhail.Malakhov [malakhv@live.ru|https://github.com/malakhv]
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23,
+        shadows = CachedAccessibilityManager.class)
+public class ValueStreamBenchmarkTest {
+
+    /** The number of value changes in one run. */
+    private static final int VALUE_CHANGES = 1000;
+
+    @Test
+    public void measurePublish() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName());
+        final Runnable publish = new Runnable() {
+            private int mValue = 0;
+            @Override
+            public void run() { PreferenceValueStream.publish("benchmark", mValue++ % 100); }
+        };
+        benchmark.measure("value_stream_publish", VALUE_CHANGES, publish);
+        benchmark.countAllocations("value_stream_publish", VALUE_CHANGES, publish);
+        final PreferenceValueStream.Subscription subscription = PreferenceValueStream.subscribe(
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {} // Never delivers
+                }, new PreferenceValueStream.Subscriber() {
+                    @Override
+                    public void onValueChanged(PreferenceValueStream.Change change) {}
+
+                    @Override
+                    public void onDropped(Set<String> keys) {}
+                });
+        try {
+            benchmark.measure("value_stream_publish_subscribed", VALUE_CHANGES, publish);
+            benchmark.countAllocations("value_stream_publish_subscribed", VALUE_CHANGES, publish);
+            assertEquals(1, subscription.getPendingCount());
+        } finally {
+            subscription.cancel();
+        }
+        benchmark.write();
+    }
+
+    @Test
+    public void measureSetValue() throws IOException {
+        final Benchmark benchmark = new Benchmark(getClass().getSimpleName() + "_set_value");
+        final PreferenceScreen screen = PreferenceHost.create().getPreferenceScreen();
+        final SeekBarDialog seekBar = new SeekBarDialog(screen.getContext());
+        seekBar.setKey("benchmark_value_stream");
+        screen.addPreference(seekBar);
+        final Runnable change = new Runnable() {
+            private int mValue = 0;
+            @Override
+            public void run() { seekBar.setValue(mValue++ % 100); }
+        };
+        benchmark.measure("value_stream_set_value", VALUE_CHANGES, change);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final PreferenceValueStream.Subscription subscription = PreferenceValueStream.subscribe(
+                executor, new PreferenceValueStream.Subscriber() {
+                    @Override
+                    public void onValueChanged(PreferenceValueStream.Change change) {
+                        // The heavy reaction, the clock of Robolectric doesn't sleep
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    @Override
+                    public void onDropped(Set<String> keys) {}
+                });
+        try {
+            benchmark.measure("value_stream_set_value_subscribed", VALUE_CHANGES, change);
+        } finally {
+            subscription.cancel();
+            executor.shutdown();
+        }
+        // The slow subscriber doesn't get each change, they are merged
+        assertTrue(subscription.getMergedCount() > subscription.getDeliveredCount());
+        benchmark.write();
+    }
+
+}